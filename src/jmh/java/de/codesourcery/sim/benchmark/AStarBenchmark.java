@@ -0,0 +1,155 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.pathfinding.AStar;
+import de.codesourcery.sim.pathfinding.BitGridNavMesh;
+import de.codesourcery.sim.pathfinding.GridNavMesh;
+import de.codesourcery.sim.pathfinding.JumpPointSearch;
+import de.codesourcery.sim.pathfinding.MappedGridNavMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link AStar#findPath(int, int, de.codesourcery.sim.pathfinding.NavMesh, AStar.Spy)},
+ * {@link AStar#findPathBidirectional(int, int, de.codesourcery.sim.pathfinding.NavMesh, AStar.Spy)} and
+ * {@link JumpPointSearch#findPath(int, int, GridNavMesh, AStar.Spy)}, searching from one corner of the grid to the opposite one.
+ *
+ * Grids either have randomly placed obstacles (like <code>AStarTest</code>) or a warehouse layout
+ * with rows of shelves separated by aisles, and are backed by either a <code>boolean[]</code>,
+ * a {@link BitGridNavMesh} or a {@link MappedGridNavMesh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AStarBenchmark
+{
+    @Param({"32", "64", "128", "256"})
+    public int gridSize;
+
+    // only used by random layout
+    @Param({"0.2"})
+    public float obstacleDensity;
+
+    @Param({"random", "warehouse"})
+    public String layout;
+
+    @Param({"astar", "bidirectional", "jps"})
+    public String algorithm;
+
+    @Param({"array", "bits", "mapped"})
+    public String meshType;
+
+    private final AStar astar = new AStar();
+    private final JumpPointSearch jps = new JumpPointSearch();
+
+    private GridNavMesh mesh;
+    private int start;
+    private int destination;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        switch( algorithm ) {
+            case "astar":
+            case "bidirectional":
+            case "jps":
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown algorithm: " + algorithm );
+        }
+
+        final int size = gridSize;
+        final boolean[] blocked;
+        switch( layout ) {
+            case "random":    blocked = randomLayout( size ); break;
+            case "warehouse": blocked = warehouseLayout( size ); break;
+            default:
+                throw new IllegalArgumentException( "Unknown layout: " + layout );
+        }
+        // keep corners free
+        blocked[ 0 ] = false;
+        blocked[ blocked.length - 1 ] = false;
+
+        final GridNavMesh arrayMesh = new GridNavMesh( size, size )
+        {
+            @Override
+            public boolean isWalkable(int x, int y)
+            {
+                return x >= 0 && y >= 0 && x < size && y < size && ! blocked[ y*size + x ];
+            }
+        };
+        switch( meshType ) {
+            case "array": mesh = arrayMesh; break;
+            case "bits":  mesh = BitGridNavMesh.copyOf( arrayMesh ); break;
+            case "mapped":
+                final Path file = Files.createTempFile( "astar-benchmark", ".map" );
+                file.toFile().deleteOnExit();
+                MappedGridNavMesh.write( arrayMesh, file );
+                mesh = MappedGridNavMesh.open( file );
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown mesh type: " + meshType );
+        }
+        start = GridNavMesh.toNodeID( 0, 0 );
+        destination = GridNavMesh.toNodeID( size-1, size-1 );
+        if ( findPath().isEmpty() ) {
+            throw new IllegalStateException( "No path on "+size+"x"+size+" grid" );
+        }
+    }
+
+    private boolean[] randomLayout(int size)
+    {
+        final boolean[] blocked = new boolean[ size*size ];
+        final Random rnd = new Random( BenchmarkWorlds.SEED );
+        for (int i = 0; i < blocked.length; i++) {
+            blocked[i] = rnd.nextFloat() < obstacleDensity;
+        }
+        return blocked;
+    }
+
+    /*
+     * Shelves are 2 cells deep and 10 cells long, with 2 cells wide aisles between
+     * them and a free border around the warehouse.
+     */
+    private static boolean[] warehouseLayout(int size)
+    {
+        final boolean[] blocked = new boolean[ size*size ];
+        for ( int y = 2 ; y < size - 2 ; y++ )
+        {
+            for ( int x = 2 ; x < size - 2 ; x++ ) {
+                blocked[ y*size + x ] = ( y - 2 ) % 4 < 2 && ( x - 2 ) % 12 < 10;
+            }
+        }
+        return blocked;
+    }
+
+    @Benchmark
+    public List<Integer> findPath()
+    {
+        switch( algorithm )
+        {
+            case "bidirectional": return astar.findPathBidirectional( start, destination, mesh, null );
+            case "jps":           return jps.findPath( start, destination, mesh, null );
+            default:              return astar.findPath( start, destination, mesh, null );
+        }
+    }
+}
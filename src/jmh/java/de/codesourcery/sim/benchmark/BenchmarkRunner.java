@@ -0,0 +1,25 @@
+package de.codesourcery.sim.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH benchmarks with allocation profiling enabled.
+ *
+ * Accepts the same command-line arguments as <code>org.openjdk.jmh.Main</code>.
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        final CommandLineOptions cmdLine = new CommandLineOptions( args );
+        new Runner( new OptionsBuilder()
+                .parent( cmdLine )
+                .addProfiler( GCProfiler.class )
+                .build() ).run();
+    }
+}
@@ -0,0 +1,38 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.Controller;
+import de.codesourcery.sim.World;
+import de.codesourcery.sim.WorldGenerator;
+
+/**
+ * Creates worlds of different sizes for benchmarking.
+ */
+final class BenchmarkWorlds
+{
+    public static final long SEED = 0xdeadbeef;
+
+    // max. number of entities per controller, more will not fit into its broadcast range
+    private static final int ENTITIES_PER_CONTROLLER = 200;
+
+    private BenchmarkWorlds() {
+    }
+
+    public static World create(int robots)
+    {
+        return create( robots, WorldGenerator.Layout.RANDOM );
+    }
+
+    public static World create(int robots, WorldGenerator.Layout layout)
+    {
+        final WorldGenerator generator = new WorldGenerator();
+        generator.layout = layout;
+        generator.verbose = false;
+        generator.robots = robots;
+        generator.factories = Math.max( 1, robots / 5 );
+        generator.depots = Math.max( 1, robots / 5 );
+        generator.controllers = Math.max( 1,
+            (generator.robots + generator.factories + generator.depots) / ENTITIES_PER_CONTROLLER );
+        generator.mapExtent = Controller.BROADCAST_RADIUS * (float) Math.sqrt( generator.controllers );
+        return generator.generate( SEED );
+    }
+}
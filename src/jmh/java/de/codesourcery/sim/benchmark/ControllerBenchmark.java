@@ -0,0 +1,90 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.Controller;
+import de.codesourcery.sim.Depot;
+import de.codesourcery.sim.Factory;
+import de.codesourcery.sim.ITickListener;
+import de.codesourcery.sim.Robot;
+import de.codesourcery.sim.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures request/offer matching in {@link Controller#tick(float, World)}.
+ *
+ * Before each invocation all robots are made idle again and all factories/depots
+ * get a chance to update their standing offers and requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ControllerBenchmark
+{
+    @Param({"100", "1000", "5000"})
+    public int robots;
+
+    private World world;
+
+    private final List<Controller> controllers = new ArrayList<>();
+    private final List<Robot> robotList = new ArrayList<>();
+    private final List<ITickListener> senders = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        world = BenchmarkWorlds.create( robots );
+        world.visitEntities( e ->
+        {
+            if ( e instanceof Controller ) {
+                controllers.add( (Controller) e );
+            } else if ( e instanceof Robot ) {
+                robotList.add( (Robot) e );
+            } else if ( e instanceof Factory || e instanceof Depot ) {
+                senders.add( (ITickListener) e );
+            }
+        });
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareInvocation()
+    {
+        for ( Robot r : robotList )
+        {
+            if ( r.isBusy() )
+            {
+                world.robotTable.stop( r );
+                r.currentState = r.new IdleState();
+                r.controller().busyStateChanged( r, world );
+            }
+        }
+        for ( ITickListener sender : senders ) {
+            sender.tick( 0, world );
+        }
+    }
+
+    @Benchmark
+    public void tick()
+    {
+        for (int i = 0, len = controllers.size(); i < len; i++)
+        {
+            controllers.get( i ).tick( 0, world );
+        }
+    }
+}
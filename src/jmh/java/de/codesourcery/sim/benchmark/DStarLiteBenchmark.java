@@ -0,0 +1,91 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.pathfinding.AStar;
+import de.codesourcery.sim.pathfinding.BitGridNavMesh;
+import de.codesourcery.sim.pathfinding.DStarLite;
+import de.codesourcery.sim.pathfinding.GridNavMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures replanning after a cell on the current route of a 256x256 grid got blocked or freed,
+ * comparing {@link DStarLite} with a new (optimal) {@link AStar} search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DStarLiteBenchmark
+{
+    private static final int GRID_SIZE = 256;
+
+    private BitGridNavMesh mesh;
+    private DStarLite planner;
+    private final AStar astar = new AStar();
+
+    private int start;
+    private int destination;
+    private int toggledX;
+    private int toggledY;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        final Random rnd = new Random( BenchmarkWorlds.SEED );
+        mesh = new BitGridNavMesh( GRID_SIZE, GRID_SIZE );
+        for ( int y = 0 ; y < GRID_SIZE ; y++ )
+        {
+            for ( int x = 0 ; x < GRID_SIZE ; x++ ) {
+                mesh.setWalkable( x, y, rnd.nextFloat() >= 0.2f );
+            }
+        }
+        // keep corners free
+        mesh.setWalkable( 0, 0, true );
+        mesh.setWalkable( GRID_SIZE - 1, GRID_SIZE - 1, true );
+        start = GridNavMesh.toNodeID( 0, 0 );
+        destination = GridNavMesh.toNodeID( GRID_SIZE - 1, GRID_SIZE - 1 );
+
+        planner = new DStarLite( mesh, start, destination );
+        mesh.addChangeListener( planner );
+        final List<Integer> path = planner.findPath();
+        if ( path.isEmpty() ) {
+            throw new IllegalStateException( "No path on " + GRID_SIZE + "x" + GRID_SIZE + " grid" );
+        }
+        final int cell = path.get( path.size() / 2 );
+        toggledX = GridNavMesh.extractX( cell );
+        toggledY = GridNavMesh.extractY( cell );
+    }
+
+    private void toggleCell() {
+        mesh.setWalkable( toggledX, toggledY, ! mesh.isWalkable( toggledX, toggledY ) );
+    }
+
+    @Benchmark
+    public List<Integer> incremental()
+    {
+        toggleCell();
+        return planner.findPath();
+    }
+
+    @Benchmark
+    public List<Integer> fromScratch()
+    {
+        toggleCell();
+        return astar.findPathBidirectional( start, destination, mesh, null );
+    }
+}
@@ -0,0 +1,98 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.pathfinding.AStar;
+import de.codesourcery.sim.pathfinding.FlowField;
+import de.codesourcery.sim.pathfinding.GridNavMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares routing many robots to the same destination on a 256x256 grid with one
+ * {@link AStar} search per robot against computing a single {@link FlowField}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlowFieldBenchmark
+{
+    private static final int GRID_SIZE = 256;
+
+    @Param({"10", "100", "500"})
+    public int robots;
+
+    private GridNavMesh mesh;
+    private final AStar astar = new AStar();
+    private int destination;
+    private int[] starts;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        final Random rnd = new Random( BenchmarkWorlds.SEED );
+        final boolean[] blocked = new boolean[ GRID_SIZE * GRID_SIZE ];
+        for (int i = 0; i < blocked.length; i++) {
+            blocked[i] = rnd.nextFloat() < 0.2f;
+        }
+        mesh = new GridNavMesh( GRID_SIZE, GRID_SIZE )
+        {
+            @Override
+            public boolean isWalkable(int x, int y)
+            {
+                return x >= 0 && y >= 0 && x < GRID_SIZE && y < GRID_SIZE && ! blocked[ y*GRID_SIZE + x ];
+            }
+        };
+        destination = randomWalkableCell( rnd, blocked );
+        starts = new int[ robots ];
+        for ( int i = 0 ; i < robots ; i++ ) {
+            starts[i] = randomWalkableCell( rnd, blocked );
+        }
+    }
+
+    private static int randomWalkableCell(Random rnd, boolean[] blocked)
+    {
+        while ( true )
+        {
+            final int idx = rnd.nextInt( blocked.length );
+            if ( ! blocked[idx] ) {
+                return GridNavMesh.toNodeID( idx % GRID_SIZE, idx / GRID_SIZE );
+            }
+        }
+    }
+
+    @Benchmark
+    public int astarPerRobot()
+    {
+        int totalLength = 0;
+        for ( int start : starts ) {
+            totalLength += astar.findPath( start, destination, mesh, null ).size();
+        }
+        return totalLength;
+    }
+
+    @Benchmark
+    public int flowField()
+    {
+        final FlowField field = FlowField.compute( mesh, destination );
+        int totalLength = 0;
+        for ( int start : starts ) {
+            totalLength += field.getPath( start ).size();
+        }
+        return totalLength;
+    }
+}
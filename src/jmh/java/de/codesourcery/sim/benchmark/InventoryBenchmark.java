@@ -0,0 +1,81 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.Depot;
+import de.codesourcery.sim.Inventory;
+import de.codesourcery.sim.ItemType;
+import de.codesourcery.sim.Vec2D;
+import de.codesourcery.sim.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Inventory} lookups and transfers depending on the number of entities
+ * holding items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int entities;
+
+    private World world;
+    private Depot[] depots;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        world = new World();
+        depots = new Depot[ entities ];
+        for (int i = 0; i < entities; i++)
+        {
+            depots[i] = new Depot( new Vec2D( i, 0 ), ItemType.STONE, ItemType.CONCRETE );
+            world.inventory.create( depots[i], ItemType.STONE, 50 );
+            world.inventory.create( depots[i], ItemType.CONCRETE, 50 );
+        }
+    }
+
+    private Depot next()
+    {
+        index = (index+1) % depots.length;
+        return depots[ index ];
+    }
+
+    @Benchmark
+    public void transfer()
+    {
+        // moving one item to the next depot keeps the amounts stable over time
+        final Depot from = next();
+        final Depot to = depots[ (index+1) % depots.length ];
+        world.inventory.transfer( from, ItemType.STONE, 1, to, world );
+    }
+
+    @Benchmark
+    public int getStoredAmount()
+    {
+        return world.inventory.getStoredAmount( next() );
+    }
+
+    @Benchmark
+    public int getAmount()
+    {
+        return world.inventory.getAmount( next(), ItemType.CONCRETE );
+    }
+}
@@ -0,0 +1,103 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.pathfinding.GridNavMesh;
+import de.codesourcery.sim.pathfinding.PathFindingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long {@link PathFindingService} takes to complete a batch of
+ * path searches between random cells of a 256x256 grid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathFindingServiceBenchmark
+{
+    private static final int GRID_SIZE = 256;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private PathFindingService service;
+    private int[] starts;
+    private int[] destinations;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        final Random rnd = new Random( BenchmarkWorlds.SEED );
+        final boolean[] blocked = new boolean[ GRID_SIZE * GRID_SIZE ];
+        for (int i = 0; i < blocked.length; i++) {
+            blocked[i] = rnd.nextFloat() < 0.2f;
+        }
+        final GridNavMesh mesh = new GridNavMesh( GRID_SIZE, GRID_SIZE )
+        {
+            @Override
+            public boolean isWalkable(int x, int y)
+            {
+                return x >= 0 && y >= 0 && x < GRID_SIZE && y < GRID_SIZE && ! blocked[ y*GRID_SIZE + x ];
+            }
+        };
+        service = new PathFindingService( mesh, threads );
+
+        starts = new int[ batchSize ];
+        destinations = new int[ batchSize ];
+        for ( int i = 0 ; i < batchSize ; i++ )
+        {
+            starts[i] = randomWalkableCell( rnd, blocked );
+            do {
+                destinations[i] = randomWalkableCell( rnd, blocked );
+            } while ( destinations[i] == starts[i] );
+        }
+    }
+
+    private static int randomWalkableCell(Random rnd, boolean[] blocked)
+    {
+        while ( true )
+        {
+            final int idx = rnd.nextInt( blocked.length );
+            if ( ! blocked[idx] ) {
+                return GridNavMesh.toNodeID( idx % GRID_SIZE, idx / GRID_SIZE );
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        service.close();
+    }
+
+    @Benchmark
+    public int findPaths()
+    {
+        int totalLength = 0;
+        for ( CompletableFuture<List<Integer>> f : service.findPaths( starts, destinations ) ) {
+            totalLength += f.join().size();
+        }
+        return totalLength;
+    }
+}
@@ -0,0 +1,73 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.Robot;
+import de.codesourcery.sim.RobotTable;
+import de.codesourcery.sim.Vec2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one movement step of {@link RobotTable} with all robots moving, with and without
+ * copying the positions back to the robots like {@link de.codesourcery.sim.World#tick(float)} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RobotMovementBenchmark
+{
+    @Param({"1000", "100000"})
+    public int robots;
+
+    private RobotTable table;
+    private Robot[] moving;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        table = new RobotTable();
+        moving = new Robot[ robots ];
+        final Random rnd = new Random( BenchmarkWorlds.SEED );
+        // destinations are far enough away that no robot arrives during the benchmark
+        final Vec2D destination = new Vec2D();
+        for ( int i = 0 ; i < robots ; i++ )
+        {
+            final Robot r = new Robot( new Vec2D( rnd.nextFloat(), rnd.nextFloat() ) );
+            destination.set( 1_000_000 * (rnd.nextFloat() - 0.5f), 1_000_000 * (rnd.nextFloat() - 0.5f) );
+            table.moveTo( r, destination, r.speed );
+            moving[i] = r;
+        }
+    }
+
+    @Benchmark
+    public int move()
+    {
+        table.move( 1/60f );
+        return table.size();
+    }
+
+    @Benchmark
+    public int moveAndWriteBack()
+    {
+        table.move( 1/60f );
+        for ( Robot r : moving ) {
+            table.writeBack( r );
+        }
+        return table.size();
+    }
+}
@@ -0,0 +1,64 @@
+package de.codesourcery.sim.benchmark;
+
+import de.codesourcery.sim.World;
+import de.codesourcery.sim.WorldGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link World#tick(float)} for worlds of different sizes.
+ *
+ * Worlds with a grid layout split into one region per controller, running them with
+ * more than one thread shows how well {@link World#setParallelism(int)} scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorldTickBenchmark
+{
+    @Param({"100", "1000", "5000"})
+    public int robots;
+
+    @Param({"RANDOM", "GRID"})
+    public WorldGenerator.Layout layout;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private World world;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        world = BenchmarkWorlds.create( robots, layout );
+        world.setParallelism( threads );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        world.setParallelism( 1 );
+    }
+
+    @Benchmark
+    public void tick()
+    {
+        world.tick( 1/60f );
+    }
+}
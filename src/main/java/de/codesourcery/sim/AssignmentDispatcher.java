@@ -0,0 +1,235 @@
+package de.codesourcery.sim;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Assigns robots to requests so that the total distance travelled gets minimal,
+ * solving one assignment problem per priority batch instead of picking the closest robot
+ * for each request in turn.
+ *
+ * Like {@link GreedyDispatcher}, requests get served by idle robots already carrying
+ * the requested items first. Remaining requests are then paired with offers
+ * (minimizing the distance between offer and request) and those pairs get assigned to idle, empty
+ * robots (minimizing the distance robots need to travel to the offers).
+ *
+ * Solving an assignment problem takes O(requests&sup2; * candidates), batches with
+ * more than {@link #maxRequestsPerProblem} requests get split into several problems.
+ */
+public class AssignmentDispatcher implements IDispatcher
+{
+    public int maxRequestsPerProblem = 128;
+
+    private final AssignmentSolver solver = new AssignmentSolver();
+
+    private float[] matrix = new float[0];
+    private int[] solution = new int[0];
+
+    // result of the last call to solve(), column assigned to each row or -1
+    private int[] rowToColumn = new int[0];
+
+    private List<Robot> robots = new ArrayList<>();
+    private List<Robot> remainingRobots = new ArrayList<>();
+    private boolean[] robotAssigned = new boolean[0];
+    private boolean[] requestServed = new boolean[0];
+
+    private final IntArrayList candidateOffers = new IntArrayList();
+    private final IntArrayList pairedOffers = new IntArrayList();
+    private final IntArrayList pairedRequests = new IntArrayList();
+
+    private interface ICostFunction
+    {
+        float cost(int row,int column);
+    }
+
+    @Override
+    public void dispatch(Collection<IntArrayList> batches, Controller controller, World world)
+    {
+        for ( IntArrayList batch : batches ) {
+            deliverCarriedItems( batch, controller, world );
+        }
+        for ( IntArrayList batch : batches ) {
+            transferOffers( batch, controller, world );
+        }
+    }
+
+    private void deliverCarriedItems(IntArrayList batch, Controller controller, World world)
+    {
+        final MessageBuffer requests = controller.getRequests();
+        robots.clear();
+        controller.getIdleCarrying( robots );
+        if ( robots.isEmpty() ) {
+            return;
+        }
+
+        final int requestCount = batch.size();
+        if ( requestServed.length < requestCount ) {
+            requestServed = new boolean[ requestCount ];
+        }
+        Arrays.fill( requestServed, 0, requestCount, false );
+
+        boolean anyServed = false;
+        for ( int start = 0 ; start < requestCount && ! robots.isEmpty() ; start += maxRequestsPerProblem )
+        {
+            final int offset = start;
+            final int count = Math.min( requestCount - start, maxRequestsPerProblem );
+            solve( count, robots.size(), (row,column) ->
+            {
+                final int request = batch.getInt( offset + row );
+                final Robot robot = robots.get( column );
+                if ( robot.carriedItem( world ).matches( requests.item( request ) ) ) {
+                    return robot.dst( requests.sender( request ) );
+                }
+                return AssignmentSolver.INFEASIBLE;
+            });
+
+            if ( robotAssigned.length < robots.size() ) {
+                robotAssigned = new boolean[ robots.size() ];
+            }
+            Arrays.fill( robotAssigned, 0, robots.size(), false );
+            for ( int row = 0 ; row < count ; row++ )
+            {
+                final int column = rowToColumn[row];
+                if ( column != -1 )
+                {
+                    controller.deliver( robots.get( column ), batch.getInt( offset + row ) );
+                    robotAssigned[column] = true;
+                    requestServed[ offset + row ] = true;
+                    anyServed = true;
+                }
+            }
+
+            remainingRobots.clear();
+            for ( int i = 0, len = robots.size() ; i < len ; i++ )
+            {
+                if ( ! robotAssigned[i] ) {
+                    remainingRobots.add( robots.get( i ) );
+                }
+            }
+            final List<Robot> tmp = robots;
+            robots = remainingRobots;
+            remainingRobots = tmp;
+        }
+
+        if ( anyServed )
+        {
+            int dst = 0;
+            for ( int i = 0 ; i < requestCount ; i++ )
+            {
+                if ( ! requestServed[i] ) {
+                    batch.set( dst++, batch.getInt( i ) );
+                }
+            }
+            batch.size( dst );
+        }
+    }
+
+    private void transferOffers(IntArrayList batch, Controller controller, World world)
+    {
+        final MessageBuffer requests = controller.getRequests();
+        final MessageBuffer offers = controller.getOffers();
+        for ( int start = 0 ; start < batch.size() && controller.hasIdleEmpty() ; start += maxRequestsPerProblem )
+        {
+            candidateOffers.clear();
+            for ( int i = 0, len = offers.size() ; i < len ; i++ )
+            {
+                if ( ! controller.isOfferTaken( i ) ) {
+                    candidateOffers.add( i );
+                }
+            }
+            if ( candidateOffers.isEmpty() ) {
+                return;
+            }
+
+            // pair requests with the offers closest to them
+            final int offset = start;
+            final int count = Math.min( batch.size() - start, maxRequestsPerProblem );
+            solve( count, candidateOffers.size(), (row,column) ->
+            {
+                final int request = batch.getInt( offset + row );
+                final int offer = candidateOffers.getInt( column );
+                if ( offers.item( offer ).matches( requests.item( request ) ) ) {
+                    return offers.sender( offer ).dst( requests.sender( request ) );
+                }
+                return AssignmentSolver.INFEASIBLE;
+            });
+
+            pairedOffers.clear();
+            pairedRequests.clear();
+            for ( int row = 0 ; row < count ; row++ )
+            {
+                if ( rowToColumn[row] != -1 )
+                {
+                    pairedOffers.add( candidateOffers.getInt( rowToColumn[row] ) );
+                    pairedRequests.add( batch.getInt( offset + row ) );
+                }
+            }
+
+            // assign robots to request/offer pairs so that they travel the least distance
+            // to pick up the items
+            robots.clear();
+            controller.getIdleEmpty( robots );
+            solve( pairedOffers.size(), robots.size(), (row,column) ->
+                robots.get( column ).dst( offers.sender( pairedOffers.getInt( row ) ) ) );
+
+            for ( int row = 0, len = pairedOffers.size() ; row < len ; row++ )
+            {
+                final int column = rowToColumn[row];
+                if ( column != -1 ) {
+                    controller.transfer( robots.get( column ), pairedOffers.getInt( row ), pairedRequests.getInt( row ), world );
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves an assignment problem, storing the column assigned to each row in {@link #rowToColumn}
+     * (-1 if a row got no feasible column assigned).
+     */
+    private void solve(int rows,int columns,ICostFunction function)
+    {
+        if ( rowToColumn.length < rows ) {
+            rowToColumn = new int[ rows ];
+        }
+        Arrays.fill( rowToColumn, 0, rows, -1 );
+        if ( rows == 0 || columns == 0 ) {
+            return;
+        }
+
+        // the solver requires rows <= columns
+        final boolean transpose = rows > columns;
+        final int n = transpose ? columns : rows;
+        final int m = transpose ? rows : columns;
+        if ( matrix.length < n * m ) {
+            matrix = new float[ n * m ];
+        }
+        if ( solution.length < n ) {
+            solution = new int[ n ];
+        }
+        for ( int i = 0, ptr = 0 ; i < n ; i++ )
+        {
+            for ( int j = 0 ; j < m ; j++ ) {
+                matrix[ptr++] = transpose ? function.cost( j, i ) : function.cost( i, j );
+            }
+        }
+
+        solver.solve( matrix, n, m, solution );
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            final int j = solution[i];
+            if ( matrix[ i * m + j ] < AssignmentSolver.INFEASIBLE )
+            {
+                if ( transpose ) {
+                    rowToColumn[j] = i;
+                } else {
+                    rowToColumn[i] = j;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package de.codesourcery.sim;
+
+import java.util.Arrays;
+
+/**
+ * Solves the (rectangular) linear assignment problem using the Hungarian algorithm
+ * in O(rows&sup2; * columns).
+ *
+ * Instances are not thread-safe, working arrays are re-used between calls.
+ */
+public final class AssignmentSolver
+{
+    /**
+     * Cost to use for row/column pairs that must not be assigned to each other.
+     */
+    public static final float INFEASIBLE = 1e9f;
+
+    private double[] u = new double[0];
+    private double[] v = new double[0];
+    private double[] minv = new double[0];
+    private int[] p = new int[0];
+    private int[] way = new int[0];
+    private boolean[] used = new boolean[0];
+
+    /**
+     * Assigns each row to a distinct column so that the sum of costs becomes minimal.
+     *
+     * Pairs with a cost of {@link #INFEASIBLE} may still get assigned if there is no
+     * other choice, callers need to check for this.
+     *
+     * @param cost cost matrix in row-major order, <code>cost[ row * columns + column ]</code>
+     * @param rows number of rows, must be less than or equal to the number of columns
+     * @param columns number of columns
+     * @param result receives the column assigned to each row
+     */
+    public void solve(float[] cost,int rows,int columns,int[] result)
+    {
+        if ( rows > columns ) {
+            throw new IllegalArgumentException( "Number of rows ("+rows+") must not exceed number of columns ("+columns+")" );
+        }
+        ensureCapacity( rows, columns );
+
+        Arrays.fill( u, 0, rows+1, 0 );
+        Arrays.fill( v, 0, columns+1, 0 );
+        Arrays.fill( p, 0, columns+1, 0 );
+
+        // arrays are 1-based, row/column 0 is a sentinel
+        for ( int i = 1 ; i <= rows ; i++ )
+        {
+            p[0] = i;
+            int j0 = 0;
+            Arrays.fill( minv, 0, columns+1, Double.POSITIVE_INFINITY );
+            Arrays.fill( used, 0, columns+1, false );
+            do
+            {
+                used[j0] = true;
+                final int i0 = p[j0];
+                final int rowOffset = (i0-1) * columns - 1;
+                double delta = Double.POSITIVE_INFINITY;
+                int j1 = 0;
+                for ( int j = 1 ; j <= columns ; j++ )
+                {
+                    if ( ! used[j] )
+                    {
+                        final double cur = cost[ rowOffset + j ] - u[i0] - v[j];
+                        if ( cur < minv[j] ) {
+                            minv[j] = cur;
+                            way[j] = j0;
+                        }
+                        if ( minv[j] < delta ) {
+                            delta = minv[j];
+                            j1 = j;
+                        }
+                    }
+                }
+                for ( int j = 0 ; j <= columns ; j++ )
+                {
+                    if ( used[j] ) {
+                        u[ p[j] ] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while ( p[j0] != 0 );
+
+            // augment along the path found
+            do
+            {
+                final int j1 = way[j0];
+                p[j0] = p[j1];
+                j0 = j1;
+            } while ( j0 != 0 );
+        }
+
+        for ( int j = 1 ; j <= columns ; j++ )
+        {
+            if ( p[j] != 0 ) {
+                result[ p[j]-1 ] = j-1;
+            }
+        }
+    }
+
+    private void ensureCapacity(int rows,int columns)
+    {
+        if ( u.length < rows+1 ) {
+            u = new double[ rows+1 ];
+        }
+        if ( v.length < columns+1 )
+        {
+            v = new double[ columns+1 ];
+            minv = new double[ columns+1 ];
+            p = new int[ columns+1 ];
+            way = new int[ columns+1 ];
+            used = new boolean[ columns+1 ];
+        }
+    }
+}
@@ -1,16 +1,20 @@
 package de.codesourcery.sim;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectAVLTreeMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectArrayMap;
-import it.unimi.dsi.fastutil.longs.LongArraySet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.apache.commons.lang3.Validate;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Random;
 
 public class Controller extends Entity implements ITickListener
 {
@@ -19,23 +23,62 @@ public class Controller extends Entity implements ITickListener
 
     public static final Vec2D RANGE_EXTENT = new Vec2D(BROADCAST_RADIUS*2,BROADCAST_RADIUS*2);
 
-    private final List<Message> offers = new ArrayList<>();
+    private static final ItemType[] ITEM_TYPES = ItemType.values();
 
-    private final List<Message> requests = new ArrayList<>();
+    private static final float ROBOT_CELL_SIZE = BROADCAST_RADIUS / 4;
 
-    private final Long2ObjectArrayMap<Robot> robots = new Long2ObjectArrayMap<>();
-    private final LongArraySet busy = new LongArraySet();
-    private final LongArraySet idleEmpty =  new LongArraySet();
-    private final LongArraySet idleCarrying =  new LongArraySet();
+    // standing offers and requests of entities in range
+    private final OrderBook offerBook = new OrderBook();
+    private final OrderBook requestBook = new OrderBook();
+
+    private final MessageBuffer offers = offerBook.orders();
+    private final MessageBuffer requests = requestBook.orders();
+
+    // offers bucketed by item type, values are indices into 'offers'.
+    // Rebuilt whenever the offer book changed.
+    private final IntArrayList[] offersByType = new IntArrayList[ ITEM_TYPES.length ];
+
+    // indices of offers a robot got dispatched to during the current tick
+    private final BitSet takenOffers = new BitSet();
+
+    // indices of offers that no robot got dispatched to yet
+    private final IntArrayList remainingOffers = new IntArrayList();
+
+    // sorts offer indices descending by priority
+    private final IntComparator offerPriorityComparator = (a,b) -> Integer.compare( offers.priority( b ), offers.priority( a ) );
+
+    // request indices batched by priority, highest priority first
+    private final Int2ObjectAVLTreeMap<IntArrayList> batchedRequests = new Int2ObjectAVLTreeMap<>( (a,b) -> Integer.compare(b,a) );
+
+    private final Long2ObjectOpenHashMap<Robot> robots = new Long2ObjectOpenHashMap<>();
+    private final LongOpenHashSet busy = new LongOpenHashSet();
+    // iterates in insertion order like the LongArraySet used before, offers go to the first idle robot
+    private final LongLinkedOpenHashSet idleEmpty =  new LongLinkedOpenHashSet();
+    private final LongOpenHashSet idleCarrying =  new LongOpenHashSet();
+
+    // idle robots by location, idle carrying ones bucketed by the item type they carry
+    private final SpatialHashGrid<Robot> idleEmptyIndex = new SpatialHashGrid<>( ROBOT_CELL_SIZE );
+    @SuppressWarnings({"unchecked","rawtypes"})
+    private final SpatialHashGrid<Robot>[] idleCarryingByType = new SpatialHashGrid[ ITEM_TYPES.length ];
+
+    private IDispatcher dispatcher = new GreedyDispatcher();
 
     private final List<IItemProvider> suppliers = new ArrayList<>();
     private final List<IItemReceiver> receivers = new ArrayList<>();
 
     public int maxSupportedRobots = 500;
 
+    // per-controller RNG so ticking controllers concurrently stays deterministic
+    private final Random random = new Random( id );
+
     public Controller(Vec2D v)
     {
         super( v );
+        for ( int i = 0 ; i < ITEM_TYPES.length ; i++ )
+        {
+            offersByType[i] = new IntArrayList();
+            idleCarryingByType[i] = new SpatialHashGrid<>( ROBOT_CELL_SIZE );
+        }
     }
 
     public void register(Entity entity, World world)
@@ -72,30 +115,68 @@ public class Controller extends Entity implements ITickListener
     }
 
     public void broadcast(Message msg) {
+        final ItemAndAmount payload = msg.getItemAndAmount();
+        postOrder( msg.sender, msg.type, payload.type, payload.amount, msg.priority );
+    }
+
+    /**
+     * Posts a standing offer/request or updates the existing one for the same sender, message type and item type.
+     */
+    public void postOrder(Entity sender, Message.MessageType type, ItemType item, int amount, int priority) {
+        book( type ).post( sender, type, item, amount, priority );
+    }
 
-        switch( msg.type.kind ) {
+    /**
+     * Cancels a standing offer/request, if there is one.
+     */
+    public void cancelOrder(Entity sender, Message.MessageType type, ItemType item) {
+        book( type ).cancel( sender, type, item );
+    }
 
-            case OFFER:
-                offers.add( msg );
-                break;
-            case REQUEST:
-                requests.add( msg );
-                break;
+    private OrderBook book(Message.MessageType type)
+    {
+        switch( type.kind ) {
+            case OFFER:   return offerBook;
+            case REQUEST: return requestBook;
             default:
-                throw new IllegalArgumentException("Unhandled switch/case: "+msg.type.kind);
+                throw new IllegalArgumentException("Unhandled switch/case: "+type.kind);
         }
     }
 
-    private Robot findClosestIdleCarrying(Message request, World world)
+    /**
+     * Sets the strategy used to assign robots to requests.
+     *
+     * Dispatchers may keep internal state, each controller needs its own instance.
+     *
+     * @param dispatcher
+     */
+    public void setDispatcher(IDispatcher dispatcher)
+    {
+        Validate.notNull( dispatcher, "dispatcher must not be null" );
+        this.dispatcher = dispatcher;
+    }
+
+    public IDispatcher getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    Robot findClosestIdleCarrying(int requestIdx)
     {
+        final ItemType type = requests.item( requestIdx );
+        final Entity sender = requests.sender( requestIdx );
+        if ( type != ItemType.ANY ) {
+            // robots always carry a specific item type
+            return idleCarryingByType[ type.ordinal() ].findClosest( sender.position, null );
+        }
         Robot closest = null;
         float closestDst2 = 0;
-        for ( LongIterator it = idleCarrying.iterator() ; it.hasNext() ; )
+        for ( SpatialHashGrid<Robot> grid : idleCarryingByType )
         {
-            final Robot r = robots.get( it.nextLong() );
-            if ( r.carriedItem(world).matches( request.getItemAndAmount().type ) )
+            final Robot r = grid.findClosest( sender.position, null );
+            if ( r != null )
             {
-                float dst2 = request.sender.dst2( r );
+                float dst2 = sender.dst2( r );
                 if ( closest == null || dst2 < closestDst2 ) {
                     closestDst2 = dst2;
                     closest = r;
@@ -105,87 +186,82 @@ public class Controller extends Entity implements ITickListener
         return closest;
     }
 
+    /**
+     * Returns the index of the offer closest to a request's sender that
+     * no robot has been dispatched to yet.
+     *
+     * @param requestIdx
+     * @return offer index or -1
+     */
+    int findClosestOffer(int requestIdx)
+    {
+        final ItemType type = requests.item( requestIdx );
+        final Entity sender = requests.sender( requestIdx );
+        int result = -1;
+        float bestDist2 = 0;
+        for ( ItemType offerType : ITEM_TYPES )
+        {
+            if ( ! offerType.matches( type ) ) {
+                continue;
+            }
+            final IntArrayList bucket = offersByType[ offerType.ordinal() ];
+            for (int i = 0, len = bucket.size(); i < len; i++)
+            {
+                final int idx = bucket.getInt( i );
+                if ( ! takenOffers.get( idx ) )
+                {
+                    float dist2 = offers.sender( idx ).dst2( sender );
+                    if ( result == -1 || dist2 < bestDist2 ) {
+                        result = idx;
+                        bestDist2 = dist2;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public void tick(float deltaSeconds, World world)
     {
-        final Int2ObjectAVLTreeMap<List<Message>> batchedRequests = new Int2ObjectAVLTreeMap<>( (a,b) -> Integer.compare(b,a) );
-        for ( Message request : requests )
-        {
-            final List<Message> batch = batchedRequests.computeIfAbsent(request.priority, k -> new ArrayList<>());
-            batch.add( request );
+        // every step below needs an idle robot carrying items or an idle, empty robot and an offer
+        if ( idleCarrying.isEmpty() && ( idleEmpty.isEmpty() || offers.isEmpty() ) ) {
+            return;
         }
 
-        // shuffle each batch so messages with the same priority don't get processed
-        // in the same order all the time, causing some requests to starve
-        for ( var batch : batchedRequests.int2ObjectEntrySet() )
+        if ( offerBook.hasChanged() )
         {
-            Collections.shuffle(batch.getValue());
+            for ( IntArrayList bucket : offersByType ) {
+                bucket.clear();
+            }
+            for ( int i = 0, len = offers.size() ; i < len ; i++ ) {
+                offersByType[ offers.itemOrdinal( i ) ].add( i );
+            }
+            offerBook.clearChanged();
         }
 
-        // first, try to serve requests using idle robots carrying items first
-        // so they can be used for other tasks ASAP
-        for ( var entry : batchedRequests.int2ObjectEntrySet() )
+        for ( IntArrayList batch : batchedRequests.values() ) {
+            batch.clear();
+        }
+        for ( int i = 0, len = requests.size() ; i < len ; i++ )
         {
-            final List<Message> batch = entry.getValue();
-            for (Iterator<Message> reqIt = batch.iterator(); reqIt.hasNext(); )
-            {
-                final Message req = reqIt.next();
-                final Robot robot = findClosestIdleCarrying(req, world);
-                if ( robot != null )
-                {
-                    idleCarrying.remove( robot.id );
-                    busy.add( robot.id );
-                    reqIt.remove();
-                    robot.receive(req);
-                }
+            IntArrayList batch = batchedRequests.get( requests.priority( i ) );
+            if ( batch == null ) {
+                batch = new IntArrayList();
+                batchedRequests.put( requests.priority( i ), batch );
             }
+            batch.add( i );
         }
 
-        // now traverse requests looking for matching offers
-        // and use idle empty robots to fulfill them
-        for ( var entry : batchedRequests.int2ObjectEntrySet() )
+        // shuffle each batch so messages with the same priority don't get processed
+        // in the same order all the time, causing some requests to starve
+        for ( IntArrayList batch : batchedRequests.values() )
         {
-            final List<Message> batch = entry.getValue();
-
-            for (int i = 0; i < batch.size() && ! idleEmpty.isEmpty() ; i++)
-            {
-                Message request = batch.get(i);
-
-                // look for matching offers and prefer the closest one
-                Message offer = null;
-                float bestDist2 = 0;
-                for ( var x : offers )
-                {
-                    if ( x.getItemAndAmount().type.matches(request.getItemAndAmount().type) )
-                    {
-                        float dist2 = x.sender.dst2(request.sender);
-                        if ( offer == null || dist2 < bestDist2 ) {
-                            offer = x;
-                            bestDist2 = dist2;
-                        }
-                    }
-                }
-
-                if (offer != null)
-                {
-                    var robot = findClosestRobot( idleEmpty, offer.sender );
-                    if ( robot != null )
-                    {
-                        offers.remove( offer );
-                        // no need to remove request here as we're
-                        // not using them afterward anyway
-                        idleEmpty.remove( robot.id );
-                        busy.add( robot.id );
-                        if ( Main.DEBUG )
-                        {
-                            System.out.println( "Using robot " + robot + " that carries " + world.inventory.getAmounts( robot ) );
-                        }
-                        robot.transfer( offer.sender, offer.getItemAndAmount(), request.sender );
-                    }
-                }
-            }
+            IntArrays.shuffle( batch.elements(), 0, batch.size(), random );
         }
 
+        dispatcher.dispatch( batchedRequests.values(), this, world );
+
         // if there are no requests for items but we have
         // idle robots carrying stuff, have them drop it off at the nearest depot
         // so they're eligible for other tasks
@@ -193,16 +269,17 @@ public class Controller extends Entity implements ITickListener
         {
             final long id = iterator.nextLong();
             final var r = robots.get(id);
-            final ItemAndAmount carried = r.carriedItemAndAmount(world);
-            final Depot depot = world.findClosestDepotThatAccepts(r, carried.type, carried.amount);
+            final ItemType carriedType = r.carriedItem(world);
+            final int carriedAmount = world.inventory.getFirstItemAmount(r);
+            final Depot depot = world.findClosestDepotThatAccepts(r, carriedType, carriedAmount);
             if ( depot != null )
             {
-                final int toDeliver = Math.min( depot.getAcceptedAmount( carried.type, world ), carried.amount );
+                final int toDeliver = Math.min( depot.getAcceptedAmount( carriedType, world ), carriedAmount );
                 if ( toDeliver > 0 )
                 {
-                    carried.amount = toDeliver;
-                    r.receive( new Message( depot, Message.MessageType.ITEM_NEEDED, carried ) );
+                    r.receive( new Message( depot, Message.MessageType.ITEM_NEEDED, new ItemAndAmount( carriedType, toDeliver ) ) );
                     iterator.remove();
+                    removeFromIdleCarryingIndex( r );
                     busy.add( r.id );
                 }
             }
@@ -210,45 +287,100 @@ public class Controller extends Entity implements ITickListener
 
         // if we have factories offering stuff, try moving it to the
         // closes possible depot
-        offers.sort(Message.PRIO_COMPERATOR);
-        for (int i = 0, offerCount = offers.size(); i < offerCount && ! idleEmpty.isEmpty() ; i++)
+        remainingOffers.clear();
+        for ( int i = 0, len = offers.size() ; i < len ; i++ )
+        {
+            if ( ! takenOffers.get( i ) ) {
+                remainingOffers.add( i );
+            }
+        }
+        IntArrays.mergeSort( remainingOffers.elements(), 0, remainingOffers.size(), offerPriorityComparator );
+        for (int i = 0, offerCount = remainingOffers.size(); i < offerCount && ! idleEmpty.isEmpty() ; i++)
         {
-            Message offer = offers.get(i);
+            final int offer = remainingOffers.getInt(i);
+            final Entity sender = offers.sender( offer );
 
-            final long id = idleEmpty.iterator().nextLong();
-            var robot = robots.get(id);
-            final Depot depot = world.findClosestDepotThatAccepts(robot, offer.getItemAndAmount().type, offer.getItemAndAmount().amount);
-            if ( depot != null && depot != offer.sender )
+            var robot = robots.get( idleEmpty.iterator().nextLong() );
+            final Depot depot = world.findClosestDepotThatAccepts(robot, offers.item( offer ), offers.amount( offer ) );
+            if ( depot != null && depot != sender )
             {
-                idleEmpty.remove(id);
-                busy.add(id);
+                markBusy( robot );
                 if ( Main.DEBUG )
                 {
                     System.out.println( "Using robot " + robot + " that carries " + world.inventory.getAmounts( robot ) );
                 }
-                robot.transfer( offer.sender,offer.getItemAndAmount(),depot);
+                robot.transfer( sender, offers.toItemAndAmount( offer ), depot );
             }
         }
-        offers.clear();
-        requests.clear();
+        takenOffers.clear();
+        remainingOffers.clear();
     }
 
-    private Robot findClosestRobot(LongArraySet availableRobotIds, Entity destination)
+    Robot findClosestIdleEmpty(Vec2D position)
     {
-        Robot result = null;
-        float closestDst2 = 0;
-        for ( var it = availableRobotIds.iterator() ; it.hasNext() ;  )
-        {
-            final long robotId = it.nextLong();
-            final Robot r = robots.get( robotId );
+        return idleEmptyIndex.findClosest( position, null );
+    }
 
-            float dist2 = r.dst2( destination );
-            if ( result == null || dist2 < closestDst2 ) {
-                closestDst2 = dist2;
-                result = r;
-            }
+    boolean hasIdleEmpty() {
+        return ! idleEmpty.isEmpty();
+    }
+
+    /**
+     * Adds all idle robots that carry items to a list, in no particular order.
+     */
+    void getIdleCarrying(List<Robot> result)
+    {
+        for ( LongIterator it = idleCarrying.iterator() ; it.hasNext() ; ) {
+            result.add( robots.get( it.nextLong() ) );
+        }
+    }
+
+    /**
+     * Adds all idle robots that carry nothing to a list, in no particular order.
+     */
+    void getIdleEmpty(List<Robot> result)
+    {
+        for ( LongIterator it = idleEmpty.iterator() ; it.hasNext() ; ) {
+            result.add( robots.get( it.nextLong() ) );
         }
-        return result;
+    }
+
+    MessageBuffer getOffers() {
+        return offers;
+    }
+
+    MessageBuffer getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns whether a robot has already been dispatched to an offer during the current tick.
+     */
+    boolean isOfferTaken(int offerIdx) {
+        return takenOffers.get( offerIdx );
+    }
+
+    /**
+     * Has an idle robot deliver the items it carries to a request's sender.
+     */
+    void deliver(Robot robot, int requestIdx)
+    {
+        markBusy( robot );
+        robot.receive( requests.toMessage( requestIdx ) );
+    }
+
+    /**
+     * Has an idle, empty robot move items from an offer's sender to a request's sender.
+     */
+    void transfer(Robot robot, int offerIdx, int requestIdx, World world)
+    {
+        takenOffers.set( offerIdx );
+        markBusy( robot );
+        if ( Main.DEBUG )
+        {
+            System.out.println( "Using robot " + robot + " that carries " + world.inventory.getAmounts( robot ) );
+        }
+        robot.transfer( offers.sender( offerIdx ), offers.toItemAndAmount( offerIdx ), requests.sender( requestIdx ) );
     }
 
     public void busyStateChanged(Robot robot,World world) {
@@ -258,18 +390,49 @@ public class Controller extends Entity implements ITickListener
         if ( robot.isBusy() )
         {
             // robot is busy
-            busy.add(id);
-            idleEmpty.remove(id);
-            idleCarrying.remove(id);
+            markBusy( robot );
         } else {
             // robot is idle
             busy.remove(id);
-            if ( robot.isEmpty(world) ) {
-                idleEmpty.add(id);
-                idleCarrying.remove(id);
-            } else {
-                idleEmpty.remove( id );
-                idleCarrying.add( id );
+            if ( robot.isEmpty(world) )
+            {
+                if ( idleCarrying.remove( id ) ) {
+                    removeFromIdleCarryingIndex( robot );
+                }
+                if ( idleEmpty.add(id) ) {
+                    idleEmptyIndex.add( robot );
+                }
+            }
+            else
+            {
+                if ( idleEmpty.remove( id ) ) {
+                    idleEmptyIndex.remove( robot );
+                }
+                if ( idleCarrying.add( id ) ) {
+                    idleCarryingByType[ robot.carriedItem( world ).ordinal() ].add( robot );
+                }
+            }
+        }
+    }
+
+    private void markBusy(Robot robot)
+    {
+        final long id = robot.id;
+        busy.add(id);
+        if ( idleEmpty.remove( id ) ) {
+            idleEmptyIndex.remove( robot );
+        }
+        if ( idleCarrying.remove( id ) ) {
+            removeFromIdleCarryingIndex( robot );
+        }
+    }
+
+    private void removeFromIdleCarryingIndex(Robot robot)
+    {
+        for ( SpatialHashGrid<Robot> grid : idleCarryingByType )
+        {
+            if ( grid.remove( robot ) ) {
+                break;
             }
         }
     }
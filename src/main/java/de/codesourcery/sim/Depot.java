@@ -1,16 +1,26 @@
 package de.codesourcery.sim;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class Depot extends Entity implements IItemReceiver,IItemProvider, ITickListener
+public class Depot extends Entity implements IItemReceiver,IItemProvider, ITickListener, IOrderSource
 {
+    private static final ItemType[] ITEM_TYPES = ItemType.values();
+
     public final Set<ItemType> acceptedItemTypes;
     public int minAmount=0;
     public int capacity = 200;
 
+    // free capacity as of the last inventory change, maintained by DepotIndex
+    int cachedFreeCapacity;
+
+    // whether the offers/requests posted to controllers need to be updated
+    private boolean ordersDirty = true;
+
+    // amount requested per item type when orders were last posted
+    private final int[] requested = new int[ ITEM_TYPES.length ];
+
     public final List<Controller> controllers = new ArrayList<>();
 
     public Depot(Vec2D v, ItemType... acceptedItemTypes)
@@ -22,55 +32,62 @@ public class Depot extends Entity implements IItemReceiver,IItemProvider, ITickL
     @Override
     public void tick(float deltaSeconds, World world) {
 
-        int remainingCapacity = capacity - availableSpace(world);
-
-        final List<ItemAndAmount> toProcess = world.inventory.getAmounts(this,
-            (type, amount) -> amount < minAmount || amount > 0);
+        if ( ! ordersDirty ) {
+            return;
+        }
+        ordersDirty = false;
 
-        final Set<ItemType> notSeen = new HashSet<>(acceptedItemTypes);
+        int remainingCapacity = capacity - availableSpace(world);
 
-        for ( ItemAndAmount item : toProcess )
+        for ( ItemType type : ITEM_TYPES )
         {
-            final int availableAmount = item.amount;
-            notSeen.remove( item.type );
+            final int availableAmount = world.inventory.getAmount( this, type );
+            requested[ type.ordinal() ] = 0;
+            if ( availableAmount <= 0 )
+            {
+                world.cancelOrder( this, Message.MessageType.ITEM_AVAILABLE, type );
+                continue;
+            }
 
             if ( availableAmount < minAmount && remainingCapacity > 0 )
             {
                 int toAsk = Math.min( minAmount-availableAmount, remainingCapacity );
-                world.sendMessage(
-                        new Message(this,
-                                Message.MessageType.ITEM_NEEDED,
-                                new ItemAndAmount( item.type, toAsk ),
-                                Message.LOW_PRIORITY
-                        ));
+                requested[ type.ordinal() ] = toAsk;
                 remainingCapacity -= toAsk;
             }
-            if ( availableAmount > 0 ) {
-                world.sendMessage(
-                        new Message(this,
-                                Message.MessageType.ITEM_AVAILABLE,
-                                new ItemAndAmount( item.type,availableAmount ),
-                            Message.MEDIUM_PRIORITY
-                        ));
-            }
+            world.postOrder( this, Message.MessageType.ITEM_AVAILABLE, type, availableAmount, Message.MEDIUM_PRIORITY );
         }
 
-        if ( minAmount > 0 && remainingCapacity > 0 && ! notSeen.isEmpty() )
+        if ( minAmount > 0 && remainingCapacity > 0 )
         {
-            for (ItemType t : notSeen )
+            // ask for accepted item types we have none of
+            for ( ItemType t : ITEM_TYPES )
             {
-                world.sendMessage(
-                    new Message(this,
-                        Message.MessageType.ITEM_NEEDED,
-                        new ItemAndAmount(t, minAmount),
-                        Message.LOW_PRIORITY
-                    ));
-                remainingCapacity -= minAmount;
-                if ( remainingCapacity <= 0 ) {
-                    break;
+                if ( acceptedItemTypes.contains( t ) && world.inventory.getAmount( this, t ) <= 0 )
+                {
+                    requested[ t.ordinal() ] = minAmount;
+                    remainingCapacity -= minAmount;
+                    if ( remainingCapacity <= 0 ) {
+                        break;
+                    }
                 }
             }
         }
+
+        for ( ItemType t : ITEM_TYPES )
+        {
+            if ( requested[ t.ordinal() ] > 0 ) {
+                world.postOrder( this, Message.MessageType.ITEM_NEEDED, t, requested[ t.ordinal() ], Message.LOW_PRIORITY );
+            } else {
+                world.cancelOrder( this, Message.MessageType.ITEM_NEEDED, t );
+            }
+        }
+    }
+
+    @Override
+    public void invalidateOrders()
+    {
+        ordersDirty = true;
     }
 
     private int availableSpace(World world) {
@@ -0,0 +1,80 @@
+package de.codesourcery.sim;
+
+import java.util.function.Predicate;
+
+/**
+ * Spatial index of depots, bucketed by the item types they accept.
+ *
+ * Each depot's free capacity is cached and needs to be refreshed
+ * through {@link #inventoryChanged(Depot, World)} whenever the
+ * depot's inventory changes.
+ */
+public final class DepotIndex
+{
+    private static final ItemType[] ITEM_TYPES = ItemType.values();
+
+    private static final Predicate<Depot> HAS_FREE_CAPACITY = d -> d.cachedFreeCapacity > 0;
+
+    // index is ItemType#ordinal(), grids hold all depots accepting this item type
+    private final SpatialHashGrid<Depot>[] byType;
+
+    @SuppressWarnings({"unchecked","rawtypes"})
+    public DepotIndex(float cellSize)
+    {
+        byType = new SpatialHashGrid[ ITEM_TYPES.length ];
+        for ( int i = 0 ; i < byType.length ; i++ ) {
+            byType[i] = new SpatialHashGrid<>( cellSize );
+        }
+    }
+
+    public void add(Depot depot, World world)
+    {
+        for ( ItemType type : ITEM_TYPES )
+        {
+            for ( ItemType accepted : depot.acceptedItemTypes )
+            {
+                if ( accepted.matches( type ) )
+                {
+                    byType[ type.ordinal() ].add( depot );
+                    break;
+                }
+            }
+        }
+        inventoryChanged( depot, world );
+    }
+
+    public void inventoryChanged(Depot depot, World world)
+    {
+        depot.cachedFreeCapacity = depot.capacity - world.inventory.getStoredAmount( depot );
+    }
+
+    /**
+     * Returns the depot closest to some location that accepts a given item type
+     * and has free capacity left.
+     *
+     * @param position
+     * @param type
+     * @return depot or <code>null</code>
+     */
+    public Depot findClosest(Vec2D position, ItemType type)
+    {
+        return byType[ type.ordinal() ].findClosest( position, HAS_FREE_CAPACITY );
+    }
+
+    /**
+     * Returns the depot closest to some location that accepts a given item type,
+     * has free capacity left and matches an additional predicate.
+     *
+     * The predicate is tested first so it can exclude depots whose cached
+     * capacity is being updated concurrently.
+     *
+     * @param position
+     * @param type
+     * @param predicate
+     * @return depot or <code>null</code>
+     */
+    public Depot findClosest(Vec2D position, ItemType type, Predicate<? super Depot> predicate)
+    {
+        return byType[ type.ordinal() ].findClosest( position, d -> predicate.test( d ) && d.cachedFreeCapacity > 0 );
+    }
+}
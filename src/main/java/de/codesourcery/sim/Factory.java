@@ -7,7 +7,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class Factory extends Entity implements IItemProvider,IItemReceiver,ITickListener
+public class Factory extends Entity implements IItemProvider,IItemReceiver,ITickListener,IOrderSource
 {
     private final Set<ItemType> produced;
 
@@ -30,6 +30,12 @@ public class Factory extends Entity implements IItemProvider,IItemReceiver,ITick
 
     public final List<Controller> controllers = new ArrayList<>();
 
+    // whether the offer/request posted to controllers needs to be updated
+    private boolean ordersDirty = true;
+
+    // input item type the current request was posted for
+    private ItemType requestedType;
+
     public Factory(Vec2D v, ItemType producedItem)
     {
         super( v );
@@ -67,23 +73,46 @@ public class Factory extends Entity implements IItemProvider,IItemReceiver,ITick
             this.elapsedSeconds -= productionTimeSeconds;
         }
 
+        if ( ordersDirty )
+        {
+            ordersDirty = false;
+            postOrders( world );
+        }
+    }
+
+    private void postOrders(World world)
+    {
         final int storedAmount = storedAmount(world);
         if ( storedAmount > 0 )
         {
             int prio = storedAmount < maxStorage ? Message.LOW_PRIORITY : Message.HIGH_PRIORITY;
-            world.sendMessage( new Message(this, Message.MessageType.ITEM_AVAILABLE,
-                new ItemAndAmount( producedItem, storedAmount ), prio ) );
+            world.postOrder( this, Message.MessageType.ITEM_AVAILABLE, producedItem, storedAmount, prio );
+        } else {
+            world.cancelOrder( this, Message.MessageType.ITEM_AVAILABLE, producedItem );
         }
+
+        if ( requestedType != null && requestedType != input1Type ) {
+            world.cancelOrder( this, Message.MessageType.ITEM_NEEDED, requestedType );
+        }
+        requestedType = input1Type;
+
         final int input1Stored = input1Stored(world );
         final int inputNeeded = input1MaxAmount - input1Stored;
         if ( inputNeeded > 0 )
         {
             int prio = input1Stored >= input1Consumed ? Message.LOW_PRIORITY : Message.HIGH_PRIORITY;
-            world.sendMessage( new Message(this, Message.MessageType.ITEM_NEEDED,
-                    new ItemAndAmount( input1Type, inputNeeded ), prio ) );
+            world.postOrder( this, Message.MessageType.ITEM_NEEDED, input1Type, inputNeeded, prio );
+        } else {
+            world.cancelOrder( this, Message.MessageType.ITEM_NEEDED, input1Type );
         }
     }
 
+    @Override
+    public void invalidateOrders()
+    {
+        ordersDirty = true;
+    }
+
     @Override
     public String toString()
     {
@@ -123,6 +152,7 @@ public class Factory extends Entity implements IItemProvider,IItemReceiver,ITick
         Validate.notNull( input1Type, "input1Type must not be null" );
         this.input1Type = input1Type;
         this.inputTypes = Set.of( input1Type );
+        invalidateOrders();
     }
 
     public ItemType input1Type()
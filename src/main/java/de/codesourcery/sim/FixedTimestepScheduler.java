@@ -0,0 +1,94 @@
+package de.codesourcery.sim;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Advances a world in fixed-size steps, independent of how much wall-clock time passes between frames.
+ *
+ * Elapsed time is accumulated and consumed in steps of {@link #timestepSeconds}. If a frame took
+ * so long that more than {@link #maxStepsPerFrame} steps would be needed to catch up, the
+ * remaining backlog is dropped (the simulation slows down instead of spiralling).
+ *
+ * The fraction of a step left over after each frame is available through {@link #getAlpha()}
+ * and can be used to interpolate between the previous and the current positions when rendering.
+ */
+public class FixedTimestepScheduler
+{
+    private final World world;
+
+    public final float timestepSeconds;
+
+    public int maxStepsPerFrame = 5;
+
+    private double accumulator;
+    private float alpha;
+    private long totalSteps;
+    private long droppedSteps;
+
+    public FixedTimestepScheduler(World world, float timestepSeconds)
+    {
+        Validate.notNull( world, "world must not be null" );
+        Validate.isTrue( timestepSeconds > 0, "timestepSeconds must be > 0" );
+        this.world = world;
+        this.timestepSeconds = timestepSeconds;
+    }
+
+    /**
+     * Runs as many fixed steps as fit into the time elapsed since the last frame (plus any time left over).
+     *
+     * @param elapsedSeconds wall-clock time elapsed since the last call
+     * @return number of steps run
+     */
+    public int advance(float elapsedSeconds)
+    {
+        accumulator += elapsedSeconds;
+        int steps = 0;
+        while ( accumulator >= timestepSeconds && steps < maxStepsPerFrame )
+        {
+            world.tick( timestepSeconds );
+            accumulator -= timestepSeconds;
+            steps++;
+        }
+        if ( accumulator >= timestepSeconds )
+        {
+            // catch-up budget exhausted, drop backlog
+            final long dropped = (long) ( accumulator / timestepSeconds );
+            accumulator -= dropped * (double) timestepSeconds;
+            droppedSteps += dropped;
+        }
+        totalSteps += steps;
+        alpha = (float) ( accumulator / timestepSeconds );
+        return steps;
+    }
+
+    /**
+     * Discards any accumulated time, to be called when resuming after a pause.
+     */
+    public void reset()
+    {
+        accumulator = 0;
+        alpha = 0;
+    }
+
+    /**
+     * Returns how far (0...1) the simulation time that has not been consumed yet
+     * extends into the next step.
+     */
+    public float getAlpha()
+    {
+        return alpha;
+    }
+
+    public long getTotalSteps()
+    {
+        return totalSteps;
+    }
+
+    /**
+     * Returns the number of steps that were dropped because the catch-up budget was exceeded.
+     */
+    public long getDroppedSteps()
+    {
+        return droppedSteps;
+    }
+}
@@ -0,0 +1,58 @@
+package de.codesourcery.sim;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Collection;
+
+/**
+ * Serves requests one after another, always picking the closest idle robot / closest offer.
+ */
+public class GreedyDispatcher implements IDispatcher
+{
+    @Override
+    public void dispatch(Collection<IntArrayList> batches, Controller controller, World world)
+    {
+        final MessageBuffer offers = controller.getOffers();
+
+        // first, try to serve requests using idle robots carrying items first
+        // so they can be used for other tasks ASAP
+        for ( IntArrayList batch : batches )
+        {
+            int remaining = 0;
+            for (int i = 0, len = batch.size(); i < len; i++)
+            {
+                final int req = batch.getInt( i );
+                final Robot robot = controller.findClosestIdleCarrying(req);
+                if ( robot != null ) {
+                    controller.deliver( robot, req );
+                } else {
+                    batch.set( remaining++, req );
+                }
+            }
+            batch.size( remaining );
+        }
+
+        // now traverse requests looking for matching offers
+        // and use idle empty robots to fulfill them
+        for ( IntArrayList batch : batches )
+        {
+            for (int i = 0; i < batch.size() && controller.hasIdleEmpty() ; i++)
+            {
+                final int request = batch.getInt(i);
+
+                // look for matching offers and prefer the closest one
+                final int offerIdx = controller.findClosestOffer( request );
+                if (offerIdx != -1)
+                {
+                    final Robot robot = controller.findClosestIdleEmpty( offers.sender( offerIdx ).position );
+                    if ( robot != null )
+                    {
+                        // no need to remove request here as we're
+                        // not using them afterward anyway
+                        controller.transfer( robot, offerIdx, request, world );
+                    }
+                }
+            }
+        }
+    }
+}
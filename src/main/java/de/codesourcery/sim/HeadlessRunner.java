@@ -0,0 +1,253 @@
+package de.codesourcery.sim;
+
+import de.codesourcery.sim.pathfinding.BitGridNavMesh;
+import de.codesourcery.sim.pathfinding.PathFindingService;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Runs a simulation without any UI as fast as possible, using a fixed timestep.
+ *
+ * Usage: HeadlessRunner [--ticks n] [--seed n] [--timestep seconds] [--threads n]
+ *                       [--controllers n] [--robots n] [--factories n] [--depots n] [--report-every n]
+ *                       [--dispatcher greedy|assignment] [--layout random|grid] [--navigation cellSize]
+ */
+public class HeadlessRunner
+{
+    public long ticks = 100_000;
+    public long seed = 0xdeadbeefL;
+    public float timestepSeconds = 1/60f;
+    public int threads = 1;
+    public long reportInterval = 10_000;
+    public Supplier<IDispatcher> dispatcher = GreedyDispatcher::new;
+    public String dispatcherName = "greedy";
+    // cell size of the grid robots plan routes on, 0 = robots move in straight lines
+    public float navigationCellSize = 0;
+
+    public final WorldGenerator generator = new WorldGenerator();
+
+    public static void main(String[] args)
+    {
+        final HeadlessRunner runner = new HeadlessRunner();
+        try
+        {
+            runner.parseArgs( args );
+        }
+        catch(IllegalArgumentException e)
+        {
+            System.err.println( "ERROR: "+e.getMessage()+"\n" );
+            printUsage();
+            System.exit( 1 );
+        }
+        runner.run();
+    }
+
+    private static void printUsage()
+    {
+        System.err.println( "Usage: HeadlessRunner [options]\n\n"+
+            "--ticks <n>          number of ticks to simulate (default: 100000)\n"+
+            "--seed <n>           seed used to generate the world (default: 0xdeadbeef)\n"+
+            "--timestep <s>       simulated seconds per tick (default: 1/60)\n"+
+            "--threads <n>        number of threads used to tick the world (default: 1)\n"+
+            "--controllers <n>    number of controllers (default: 1)\n"+
+            "--robots <n>         number of robots (default: 100)\n"+
+            "--factories <n>      number of factories (default: 20)\n"+
+            "--depots <n>         number of depots (default: 20)\n"+
+            "--report-every <n>   print progress every n ticks, 0 disables (default: 10000)\n"+
+            "--dispatcher <name>  how controllers assign robots, 'greedy' or 'assignment' (default: greedy)\n"+
+            "--layout <name>      controller placement, 'random' or 'grid' (default: random).\n"+
+            "                     Only 'grid' splits the world into regions that --threads can tick concurrently\n"+
+            "--navigation <size>  let robots plan routes on a grid with cells of this size in world units,\n"+
+            "                     0 disables (default: 0)\n" );
+    }
+
+    public void parseArgs(String[] args)
+    {
+        for ( int i = 0 ; i < args.length ; i++ )
+        {
+            final String option = args[i];
+            if ( option.equals("-h") || option.equals("--help") ) {
+                printUsage();
+                System.exit( 0 );
+            }
+            if ( i+1 >= args.length ) {
+                throw new IllegalArgumentException( "Option "+option+" requires an argument" );
+            }
+            final String value = args[++i];
+            switch( option )
+            {
+                case "--ticks":        ticks = parseLong( option, value ); break;
+                case "--seed":         seed = parseLong( option, value ); break;
+                case "--timestep":     timestepSeconds = parseFloat( option, value ); break;
+                case "--threads":      threads = (int) parseLong( option, value ); break;
+                case "--controllers":  generator.controllers = (int) parseLong( option, value ); break;
+                case "--robots":       generator.robots = (int) parseLong( option, value ); break;
+                case "--factories":    generator.factories = (int) parseLong( option, value ); break;
+                case "--depots":       generator.depots = (int) parseLong( option, value ); break;
+                case "--report-every": reportInterval = parseLong( option, value ); break;
+                case "--dispatcher":   dispatcher = parseDispatcher( option, value ); dispatcherName = value; break;
+                case "--layout":       generator.layout = parseLayout( option, value ); break;
+                case "--navigation":   navigationCellSize = parseFloat( option, value ); break;
+                default:
+                    throw new IllegalArgumentException( "Unknown option: "+option );
+            }
+        }
+        if ( ticks < 1 ) {
+            throw new IllegalArgumentException( "--ticks must be >= 1" );
+        }
+        if ( timestepSeconds <= 0 ) {
+            throw new IllegalArgumentException( "--timestep must be > 0" );
+        }
+        if ( navigationCellSize < 0 ) {
+            throw new IllegalArgumentException( "--navigation must be >= 0" );
+        }
+    }
+
+    private static long parseLong(String option,String value)
+    {
+        try
+        {
+            return Long.decode( value );
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalArgumentException( "Option "+option+" requires an integer argument but got '"+value+"'" );
+        }
+    }
+
+    private static Supplier<IDispatcher> parseDispatcher(String option,String value)
+    {
+        switch( value )
+        {
+            case "greedy":     return GreedyDispatcher::new;
+            case "assignment": return AssignmentDispatcher::new;
+            default:
+                throw new IllegalArgumentException( "Option "+option+" requires 'greedy' or 'assignment' but got '"+value+"'" );
+        }
+    }
+
+    private static WorldGenerator.Layout parseLayout(String option,String value)
+    {
+        switch( value )
+        {
+            case "random": return WorldGenerator.Layout.RANDOM;
+            case "grid":   return WorldGenerator.Layout.GRID;
+            default:
+                throw new IllegalArgumentException( "Option "+option+" requires 'random' or 'grid' but got '"+value+"'" );
+        }
+    }
+
+    private static float parseFloat(String option,String value)
+    {
+        try
+        {
+            final int idx = value.indexOf( '/' );
+            if ( idx != -1 ) {
+                return Float.parseFloat( value.substring( 0, idx ) ) / Float.parseFloat( value.substring( idx+1 ) );
+            }
+            return Float.parseFloat( value );
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalArgumentException( "Option "+option+" requires a number but got '"+value+"'" );
+        }
+    }
+
+    public void run()
+    {
+        System.out.println( "Generating world (seed: "+seed+", "+generator.controllers+" controllers, "+
+                            generator.robots+" robots, "+generator.factories+" factories, "+
+                            generator.depots+" depots, "+generator.layout.name().toLowerCase()+" layout)" );
+        generator.verbose = false;
+        final World world = generator.generate( seed );
+        world.visitEntities( e ->
+        {
+            if ( e instanceof Controller ) {
+                ((Controller) e).setDispatcher( dispatcher.get() );
+            }
+        });
+        world.setParallelism( threads );
+        final WorldNavigation navigation = navigationCellSize > 0 ? createNavigation( world ) : null;
+        world.setNavigation( navigation );
+        try
+        {
+            System.out.println( "Running "+ticks+" ticks with timestep "+timestepSeconds+" s on "+
+                                world.getParallelism()+" thread(s) and "+world.getRegionCount()+" region(s), using "+
+                                dispatcherName+" dispatcher" );
+            if ( navigation != null ) {
+                System.out.println( "Robots plan routes on a "+navigation.mesh.getWidth()+"x"+navigation.mesh.getHeight()+
+                                    " grid with cell size "+navigationCellSize );
+            }
+
+            final long start = System.nanoTime();
+            long lastReport = start;
+            for ( long tick = 1 ; tick <= ticks ; tick++ )
+            {
+                world.tick( timestepSeconds );
+                if ( reportInterval > 0 && (tick % reportInterval) == 0 )
+                {
+                    final long now = System.nanoTime();
+                    System.out.println( "Tick "+tick+": "+ticksPerSecond( reportInterval, now-lastReport )+" ticks/s" );
+                    lastReport = now;
+                }
+            }
+            final long elapsedNanos = System.nanoTime() - start;
+            printSummary( world, elapsedNanos );
+        }
+        finally
+        {
+            world.setParallelism( 1 );
+            if ( navigation != null ) {
+                world.setNavigation( null );
+                navigation.dispose();
+                navigation.service.close();
+            }
+        }
+    }
+
+    /*
+     * The world has no obstacles, so this only adds the cost of planning routes
+     * that cover all entities.
+     */
+    private WorldNavigation createNavigation(World world)
+    {
+        final Vec2D min = new Vec2D( Float.MAX_VALUE, Float.MAX_VALUE );
+        final Vec2D max = new Vec2D( -Float.MAX_VALUE, -Float.MAX_VALUE );
+        world.visitEntities( e ->
+        {
+            min.set( Math.min( min.x, e.position.x ), Math.min( min.y, e.position.y ) );
+            max.set( Math.max( max.x, e.position.x ), Math.max( max.y, e.position.y ) );
+        });
+        final int width = (int) Math.ceil( ( max.x - min.x ) / navigationCellSize ) + 1;
+        final int height = (int) Math.ceil( ( max.y - min.y ) / navigationCellSize ) + 1;
+        final BitGridNavMesh mesh = new BitGridNavMesh( width, height );
+        final PathFindingService service = new PathFindingService( mesh, Math.max( 1, threads ) );
+        return new WorldNavigation( mesh, min, navigationCellSize, service );
+    }
+
+    private void printSummary(World world, long elapsedNanos)
+    {
+        final double elapsedSeconds = elapsedNanos / 1_000_000_000d;
+        final double simulatedSeconds = ticks * (double) timestepSeconds;
+
+        System.out.println( "---------------------------------" );
+        System.out.println( "Ticks               : "+ticks );
+        System.out.println( "Wall-clock time     : "+String.format( "%.3f s", elapsedSeconds ) );
+        System.out.println( "Ticks/s             : "+ticksPerSecond( ticks, elapsedNanos ) );
+        System.out.println( "Simulated time      : "+String.format( "%.1f s", simulatedSeconds ) );
+        System.out.println( "Speed vs. real time : "+String.format( "%.1fx", simulatedSeconds / elapsedSeconds ) );
+        System.out.println( "Production losses (Output full)  : "+world.getFactoriesProductionLossOutputFull() );
+        System.out.println( "Production losses (Input missing): "+world.getFactoriesProductionLossMissingInput() );
+
+        final List<ItemAndAmount> inventory = world.inventory.getTotalInventory();
+        inventory.sort( Comparator.comparing( a -> a.type.name() ) );
+        for ( ItemAndAmount item : inventory ) {
+            System.out.println( "Total "+item.type+" : "+item.amount );
+        }
+    }
+
+    private static String ticksPerSecond(long ticks,long elapsedNanos)
+    {
+        return String.format( "%.1f", ticks / (elapsedNanos / 1_000_000_000d) );
+    }
+}
@@ -0,0 +1,26 @@
+package de.codesourcery.sim;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Collection;
+
+/**
+ * Strategy used by a {@link Controller} to assign its idle robots to item requests.
+ *
+ * @see Controller#setDispatcher(IDispatcher)
+ */
+public interface IDispatcher
+{
+    /**
+     * Assigns idle robots to requests, either by having a robot deliver the items it already carries
+     * or by having an empty robot pick up items from an offer.
+     *
+     * Requests that got served by a robot carrying the requested items
+     * must be removed from their batch.
+     *
+     * @param batches indices of requests (see {@link Controller#getRequests()}) batched by priority, highest priority first
+     * @param controller controller whose robots and offers should be used
+     * @param world
+     */
+    void dispatch(Collection<IntArrayList> batches, Controller controller, World world);
+}
@@ -0,0 +1,14 @@
+package de.codesourcery.sim;
+
+/**
+ * An entity that posts standing offers and/or requests to the controllers in range.
+ *
+ * @see World#postOrder(Entity, Message.MessageType, ItemType, int, int)
+ */
+public interface IOrderSource
+{
+    /**
+     * Marks the entity's orders as outdated so they get re-posted on its next tick.
+     */
+    void invalidateOrders();
+}
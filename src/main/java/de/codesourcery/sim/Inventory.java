@@ -1,39 +1,146 @@
 package de.codesourcery.sim;
 
-import it.unimi.dsi.fastutil.ints.IntIterator;
-import it.unimi.dsi.fastutil.longs.Long2IntArrayMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectArrayMap;
-import it.unimi.dsi.fastutil.objects.Object2IntArrayMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.apache.commons.lang3.Validate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
+/**
+ * Keeps track of the items stored at each entity.
+ *
+ * Each entity gets assigned a slot the first time it is seen, amounts are stored in a flat
+ * array indexed by slot and {@link ItemType#ordinal()}.
+ *
+ * Assigning slots is thread-safe, reading and modifying the items of <b>different</b>
+ * entities concurrently is safe as long as all of them have been assigned a slot
+ * (see {@link #register(Entity)}) beforehand.
+ */
 public class Inventory
 {
-    // key is item type, value is Map<Entity ID, Amount>
-    private Map<ItemType, Long2IntArrayMap> amountsByType = new HashMap<>();
+    private static final ItemType[] ITEM_TYPES = ItemType.values();
+    private static final int TYPE_COUNT = ITEM_TYPES.length;
 
-    // Key is entity ID, value is Map<ItemType,Amount>
-    private Long2ObjectArrayMap<Object2IntArrayMap<ItemType>> itemsByEntity = new Long2ObjectArrayMap<>();
+    private static final int INITIAL_SLOTS = 64;
+
+    // key is entity ID, value is the entity's slot
+    private final Long2IntOpenHashMap slotsByEntity = new Long2IntOpenHashMap();
+
+    private int slotCount;
+
+    // entity ID by slot
+    private long[] entityIds = new long[ INITIAL_SLOTS ];
+
+    // amount of items stored, index is slot * TYPE_COUNT + ItemType#ordinal()
+    private int[] amounts = new int[ INITIAL_SLOTS * TYPE_COUNT ];
+
+    // total amount of items stored per slot
+    private int[] totals = new int[ INITIAL_SLOTS ];
+
+    // bit mask per slot of all item types that ever were stored there
+    private int[] typesSeen = new int[ INITIAL_SLOTS ];
+
+    // ordinal of the item type with the lowest ordinal that is currently stored per slot, -1 if slot is empty
+    private int[] firstTypes = newFirstTypes( INITIAL_SLOTS, 0, null );
+
+    // item types that were ever stored anywhere
+    private final boolean[] typeUsed = new boolean[ TYPE_COUNT ];
+
+    private IChangeListener changeListener = entity -> {};
+
+    public Inventory()
+    {
+        slotsByEntity.defaultReturnValue( -1 );
+    }
+
+    public interface IChangeListener
+    {
+        /**
+         * Invoked whenever the amount of items stored at an entity changed.
+         *
+         * @param entity
+         */
+        void inventoryChanged(Entity entity);
+    }
+
+    public void setChangeListener(IChangeListener changeListener)
+    {
+        Validate.notNull( changeListener, "changeListener must not be null" );
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Assigns a slot to an entity, if it does not have one already.
+     *
+     * @param entity
+     * @return the entity's slot
+     */
+    public synchronized int register(Entity entity)
+    {
+        int slot = slotsByEntity.get( entity.id );
+        if ( slot == -1 )
+        {
+            slot = slotCount++;
+            if ( slot == entityIds.length )
+            {
+                final int newSize = entityIds.length * 2;
+                entityIds = Arrays.copyOf( entityIds, newSize );
+                amounts = Arrays.copyOf( amounts, newSize * TYPE_COUNT );
+                totals = Arrays.copyOf( totals, newSize );
+                typesSeen = Arrays.copyOf( typesSeen, newSize );
+                firstTypes = newFirstTypes( newSize, slot, firstTypes );
+            }
+            entityIds[slot] = entity.id;
+            slotsByEntity.put( entity.id, slot );
+        }
+        return slot;
+    }
+
+    private static int[] newFirstTypes(int size,int oldSize,int[] old)
+    {
+        final int[] result = old == null ? new int[size] : Arrays.copyOf( old, size );
+        Arrays.fill( result, oldSize, size, -1 );
+        return result;
+    }
+
+    private int slot(Entity entity) {
+        return slotsByEntity.get( entity.id );
+    }
 
     public Set<ItemType> getAvailableItemTypes(Entity entity)
     {
-        final Object2IntArrayMap<ItemType> map = itemsByEntity.get( entity.id );
-        return map == null ? Collections.emptySet() : Collections.unmodifiableSet( map.keySet() );
+        final int slot = slot( entity );
+        if ( slot == -1 || typesSeen[slot] == 0 ) {
+            return Collections.emptySet();
+        }
+        final Set<ItemType> result = EnumSet.noneOf( ItemType.class );
+        final int mask = typesSeen[slot];
+        for ( ItemType type : ITEM_TYPES )
+        {
+            if ( (mask & (1 << type.ordinal())) != 0 ) {
+                result.add( type );
+            }
+        }
+        return Collections.unmodifiableSet( result );
     }
 
     public List<ItemAndAmount> getTotalInventory()
     {
         final List<ItemAndAmount> result = new ArrayList<>();
-        for ( var entry : amountsByType.entrySet() )
+        for ( ItemType type : ITEM_TYPES )
         {
-            int amount = entry.getValue().values().stream().reduce( Integer::sum ).orElse( 0 );
-            result.add( new ItemAndAmount( entry.getKey(), amount ) );
+            if ( typeUsed[ type.ordinal() ] )
+            {
+                int amount = 0;
+                for ( int slot = 0 , ptr = type.ordinal() ; slot < slotCount ; slot++, ptr += TYPE_COUNT ) {
+                    amount += amounts[ptr];
+                }
+                result.add( new ItemAndAmount( type, amount ) );
+            }
         }
         return result;
     }
@@ -73,22 +180,20 @@ public class Inventory
     {
         final StringBuilder buffer = new StringBuilder();
         buffer.append("-------------------------------\n");
-        for (Map.Entry<ItemType, Long2IntArrayMap> entry : amountsByType.entrySet())
+        for ( ItemAndAmount total : getTotalInventory() )
         {
-            int sum = entry.getValue().values().stream().reduce(0, Integer::sum);
-            buffer.append(entry.getKey()).append(" x ").append(sum).append("\n");
+            buffer.append(total.type).append(" x ").append(total.amount).append("\n");
         }
         buffer.append("-------------------------------\n");
-        for ( var entry : itemsByEntity.long2ObjectEntrySet() )
+        for ( int slot = 0 ; slot < slotCount ; slot++ )
         {
-            final long entityId = entry.getLongKey();
-            buffer.append("Entity #").append(entityId).append(":\n");
-            final Object2IntArrayMap<ItemType> items = entry.getValue();
-            for (var item : items.object2IntEntrySet() )
+            buffer.append("Entity #").append(entityIds[slot]).append(":\n");
+            for ( ItemType type : ITEM_TYPES )
             {
-                if ( item.getIntValue() > 0 )
+                final int amount = amounts[ slot * TYPE_COUNT + type.ordinal() ];
+                if ( amount > 0 )
                 {
-                    buffer.append("     ").append(item.getKey()).append(" x ").append(item.getIntValue()).append("\n");
+                    buffer.append("     ").append(type).append(" x ").append(amount).append("\n");
                 }
             }
         }
@@ -96,10 +201,23 @@ public class Inventory
         return buffer.toString();
     }
 
+    /**
+     * Adds items to an entity.
+     *
+     * This is the only modification that assigns a slot to entities that do not have one yet
+     * so inventories can be populated before an entity gets added to the world.
+     *
+     * @param location
+     * @param type
+     * @param amount
+     */
     public void create(Entity location, ItemType type, int amount)
     {
         if ( amount > 0 )
         {
+            if ( slot( location ) == -1 ) {
+                register( location );
+            }
             apply(location, type, amount);
             stateChanged();
         } else if ( amount < 0 ) {
@@ -109,39 +227,71 @@ public class Inventory
 
     public int getAmount(Entity entity,ItemType type)
     {
-        final Object2IntArrayMap<ItemType> map = itemsByEntity.get( entity.id );
-        if ( map != null ) {
-            return map.getInt( type );
-        }
-        return 0;
+        final int slot = slot( entity );
+        return slot == -1 ? 0 : amounts[ slot * TYPE_COUNT + type.ordinal() ];
     }
 
     public int getStoredAmount(Entity entity)
     {
-        final Object2IntArrayMap<ItemType> map = itemsByEntity.get( entity.id );
-        int result = 0;
-        if ( map != null )
-        {
-            for (IntIterator it = map.values().iterator() ; it.hasNext() ;  ) {
-                result += it.nextInt();
-            }
+        final int slot = slot( entity );
+        return slot == -1 ? 0 : totals[ slot ];
+    }
+
+    /**
+     * Returns the item type with the lowest ordinal stored at an entity.
+     *
+     * Does not allocate, intended for entities like robots that only ever store one type of item at a time.
+     *
+     * @param entity
+     * @return {@link ItemType#ordinal()} or -1 if the entity holds no items
+     */
+    public int getFirstItemTypeOrdinal(Entity entity)
+    {
+        final int slot = slot( entity );
+        return slot == -1 ? -1 : firstTypes[ slot ];
+    }
+
+    /**
+     * Returns the item type with the lowest ordinal stored at an entity.
+     *
+     * @param entity
+     * @return item type or <code>null</code> if the entity holds no items
+     * @see #getFirstItemTypeOrdinal(Entity)
+     */
+    public ItemType getFirstItemType(Entity entity)
+    {
+        final int ordinal = getFirstItemTypeOrdinal( entity );
+        return ordinal == -1 ? null : ITEM_TYPES[ ordinal ];
+    }
+
+    /**
+     * Returns the amount stored of the item type returned by {@link #getFirstItemType(Entity)}.
+     *
+     * @param entity
+     * @return amount, 0 if the entity holds no items
+     */
+    public int getFirstItemAmount(Entity entity)
+    {
+        final int slot = slot( entity );
+        if ( slot == -1 || firstTypes[slot] == -1 ) {
+            return 0;
         }
-        return result;
+        return amounts[ slot * TYPE_COUNT + firstTypes[slot] ];
     }
 
     public List<ItemAndAmount> getAmounts(Entity entity)
     {
-        final Object2IntArrayMap<ItemType> map = itemsByEntity.get(entity.id);
-        if ( map == null ) {
-            return new ArrayList<>();
-        }
         final List<ItemAndAmount> result = new ArrayList<>();
-        for (var entry : map.object2IntEntrySet() )
+        final int slot = slot( entity );
+        if ( slot != -1 )
         {
-            final int amount = entry.getIntValue();
-            if ( amount > 0 )
+            for ( int i = 0, ptr = slot * TYPE_COUNT ; i < TYPE_COUNT ; i++, ptr++ )
             {
-                result.add(new ItemAndAmount(entry.getKey(), amount));
+                final int amount = amounts[ptr];
+                if ( amount > 0 )
+                {
+                    result.add( new ItemAndAmount( ITEM_TYPES[i], amount ) );
+                }
             }
         }
         return result;
@@ -149,20 +299,20 @@ public class Inventory
 
     public <T> T visitInventory(Entity entity, IInventoryVisitor<T> visitor,T defaultValue)
     {
-        final Object2IntArrayMap<ItemType> map = itemsByEntity.get( entity.id );
-        if ( map == null )
+        final int slot = slot( entity );
+        if ( slot == -1 )
         {
             return defaultValue;
         }
 
         final IterationContext ctx = new IterationContext();
 
-        for (var entry : map.object2IntEntrySet() )
+        for ( int i = 0, ptr = slot * TYPE_COUNT ; i < TYPE_COUNT ; i++, ptr++ )
         {
-            int amount = entry.getIntValue();
+            final int amount = amounts[ptr];
             if ( amount > 0 )
             {
-                visitor.visit(entry.getKey(), amount, ctx);
+                visitor.visit( ITEM_TYPES[i], amount, ctx );
                 if (ctx.stop)
                 {
                     break;
@@ -174,17 +324,17 @@ public class Inventory
 
     public List<ItemAndAmount> getAmounts(Entity entity, IInventoryPredicate predicate)
     {
-        final Object2IntArrayMap<ItemType> map = itemsByEntity.get( entity.id );
-        if ( map == null ) {
-            return new ArrayList<>();
-        }
         final List<ItemAndAmount> result = new ArrayList<>();
-        for ( var entry : map.object2IntEntrySet() )
+        final int slot = slot( entity );
+        if ( slot != -1 )
         {
-            int value = entry.getIntValue();
-            if ( value > 0 && predicate.test(entry.getKey(), value ) )
+            for ( int i = 0, ptr = slot * TYPE_COUNT ; i < TYPE_COUNT ; i++, ptr++ )
             {
-                result.add(new ItemAndAmount(entry.getKey(), value ));
+                final int value = amounts[ptr];
+                if ( value > 0 && predicate.test( ITEM_TYPES[i], value ) )
+                {
+                    result.add( new ItemAndAmount( ITEM_TYPES[i], value ) );
+                }
             }
         }
         return result;
@@ -192,30 +342,40 @@ public class Inventory
 
     private void apply(Entity location,ItemType type,int amount)
     {
-        // update amountsByType
-        Long2IntArrayMap byEntity = amountsByType.get(type);
-        if ( byEntity == null )
-        {
-            byEntity = new Long2IntArrayMap();
-            amountsByType.put( type, byEntity );
+        // never assign slots here, growing the arrays would break concurrent access by other regions
+        final int slot = slot( location );
+        if ( slot == -1 ) {
+            throw new IllegalStateException( "Entity has no inventory slot: "+location );
         }
-        int newValue = byEntity.get(location.id) + amount;
+        final int ptr = slot * TYPE_COUNT + type.ordinal();
+        final int newValue = amounts[ptr] + amount;
         if ( newValue < 0 ) {
             throw new IllegalStateException("Error when adding "+amount+" x "+type+" to "+location+": Amount must not go negative");
         }
-        byEntity.put(location.id, newValue);
+        amounts[ptr] = newValue;
+        totals[slot] += amount;
+        typesSeen[slot] |= 1 << type.ordinal();
+        typeUsed[ type.ordinal() ] = true;
 
-        // update itemsByEntity
-        Object2IntArrayMap<ItemType> byType = itemsByEntity.get(location.id);
-        if ( byType == null ) {
-            byType = new Object2IntArrayMap<>();
-            itemsByEntity.put(location.id,byType);
+        if ( newValue > 0 )
+        {
+            if ( firstTypes[slot] == -1 || type.ordinal() < firstTypes[slot] ) {
+                firstTypes[slot] = type.ordinal();
+            }
         }
-        newValue = byType.getInt( type ) + amount;
-        if ( newValue < 0 ) {
-            throw new IllegalStateException("Error when adding "+amount+" x "+type+" to "+location+": Amount must not go negative");
+        else if ( firstTypes[slot] == type.ordinal() )
+        {
+            firstTypes[slot] = -1;
+            for ( int i = type.ordinal()+1, base = slot * TYPE_COUNT ; i < TYPE_COUNT ; i++ )
+            {
+                if ( amounts[ base + i ] > 0 ) {
+                    firstTypes[slot] = i;
+                    break;
+                }
+            }
         }
-        byType.put( type, newValue);
+
+        changeListener.inventoryChanged( location );
     }
 
     public void consume(Entity location,ItemType type,int amount)
@@ -256,4 +416,4 @@ public class Inventory
             System.out.println( toString() );
         }
     }
-}
\ No newline at end of file
+}
@@ -34,6 +34,9 @@ public class MainPanel extends JPanel
 
     public boolean simulationRunning = true;
 
+    // how far (0...1) rendering should interpolate moving entities from their previous towards their current position
+    public float interpolationAlpha = 1;
+
     private BufferedImage image;
     private Graphics2D graphics;
 
@@ -189,6 +192,7 @@ public class MainPanel extends JPanel
 
     private final Vec2Di TMP1 = new Vec2Di();
     private final Vec2D  TMP2 = new Vec2D();
+    private final Vec2D  TMP3 = new Vec2D();
 
     private final Rectangle bounds = new Rectangle();
 
@@ -221,14 +225,27 @@ public class MainPanel extends JPanel
         return getBoundingBox( entity, entity.extent );
     }
 
+    private Vec2D renderPosition(Entity entity)
+    {
+        if ( entity instanceof MoveableEntity )
+        {
+            final Vec2D prev = ((MoveableEntity) entity).previousPosition;
+            TMP3.x = prev.x + (entity.position.x - prev.x) * interpolationAlpha;
+            TMP3.y = prev.y + (entity.position.y - prev.y) * interpolationAlpha;
+            return TMP3;
+        }
+        return entity.position;
+    }
+
     private Rectangle getBoundingBox(Entity entity, Vec2D extent)
     {
-        Vec2Di p0 = modelToView(entity.position.x - extent.x/2, entity.position.y - extent.y/2);
+        final Vec2D position = renderPosition( entity );
+        Vec2Di p0 = modelToView(position.x - extent.x/2, position.y - extent.y/2);
 
         int p0x = p0.x;
         int p0y = p0.y;
 
-        final Vec2Di p1 = modelToView(entity.position.x + extent.x/2, entity.position.y + extent.y/2);
+        final Vec2Di p1 = modelToView(position.x + extent.x/2, position.y + extent.y/2);
 
         bounds.width = p1.x - p0x;
         bounds.height = p1.y - p0y;
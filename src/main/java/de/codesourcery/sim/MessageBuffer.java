@@ -0,0 +1,152 @@
+package de.codesourcery.sim;
+
+import java.util.Arrays;
+
+/**
+ * List of messages stored in parallel arrays, one per message field.
+ *
+ * Adding messages does not allocate once the buffer has grown to its working size,
+ * {@link Message} instances only get created on demand by {@link #toMessage(int)}.
+ */
+public final class MessageBuffer
+{
+    private static final ItemType[] ITEM_TYPES = ItemType.values();
+    private static final Message.MessageType[] MESSAGE_TYPES = Message.MessageType.values();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // senders are kept as references rather than IDs as dispatching needs their positions
+    private Entity[] senders = new Entity[ INITIAL_CAPACITY ];
+    private int[] types = new int[ INITIAL_CAPACITY ];
+    private int[] items = new int[ INITIAL_CAPACITY ];
+    private int[] amounts = new int[ INITIAL_CAPACITY ];
+    private int[] priorities = new int[ INITIAL_CAPACITY ];
+
+    private int size;
+
+    /**
+     * Appends a message.
+     *
+     * @return index of the message
+     */
+    public int add(Entity sender, Message.MessageType type, ItemType item, int amount, int priority)
+    {
+        if ( size == senders.length )
+        {
+            final int newSize = size * 2;
+            senders = Arrays.copyOf( senders, newSize );
+            types = Arrays.copyOf( types, newSize );
+            items = Arrays.copyOf( items, newSize );
+            amounts = Arrays.copyOf( amounts, newSize );
+            priorities = Arrays.copyOf( priorities, newSize );
+        }
+        senders[size] = sender;
+        types[size] = type.ordinal();
+        items[size] = item.ordinal();
+        amounts[size] = amount;
+        priorities[size] = priority;
+        return size++;
+    }
+
+    /**
+     * Appends a message.
+     *
+     * @param msg message, payload must be an {@link ItemAndAmount}
+     * @return index of the message
+     */
+    public int add(Message msg)
+    {
+        final ItemAndAmount payload = msg.getItemAndAmount();
+        return add( msg.sender, msg.type, payload.type, payload.amount, msg.priority );
+    }
+
+    /**
+     * Updates the amount and priority of a message.
+     */
+    public void set(int idx, int amount, int priority)
+    {
+        amounts[idx] = amount;
+        priorities[idx] = priority;
+    }
+
+    /**
+     * Removes a message by moving the last message into its place.
+     *
+     * @return previous index of the message that got moved to <code>idx</code>, -1 if no message was moved
+     */
+    public int removeAt(int idx)
+    {
+        final int last = --size;
+        int moved = -1;
+        if ( idx != last )
+        {
+            senders[idx] = senders[last];
+            types[idx] = types[last];
+            items[idx] = items[last];
+            amounts[idx] = amounts[last];
+            priorities[idx] = priorities[last];
+            moved = last;
+        }
+        senders[last] = null;
+        return moved;
+    }
+
+    public Entity sender(int idx) {
+        return senders[idx];
+    }
+
+    public Message.MessageType type(int idx) {
+        return MESSAGE_TYPES[ types[idx] ];
+    }
+
+    public ItemType item(int idx) {
+        return ITEM_TYPES[ items[idx] ];
+    }
+
+    public int itemOrdinal(int idx) {
+        return items[idx];
+    }
+
+    public int amount(int idx) {
+        return amounts[idx];
+    }
+
+    public int priority(int idx) {
+        return priorities[idx];
+    }
+
+    public ItemAndAmount toItemAndAmount(int idx) {
+        return new ItemAndAmount( item( idx ), amounts[idx] );
+    }
+
+    /**
+     * Creates a {@link Message} holding the same data as a buffered message.
+     */
+    public Message toMessage(int idx) {
+        return new Message( senders[idx], type( idx ), toItemAndAmount( idx ), priorities[idx] );
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( senders, 0, size, null );
+        size = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder buffer = new StringBuilder();
+        for ( int i = 0 ; i < size ; i++ ) {
+            buffer.append( toMessage( i ) ).append( "\n" );
+        }
+        return buffer.toString();
+    }
+}
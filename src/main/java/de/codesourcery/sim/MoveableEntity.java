@@ -2,7 +2,10 @@ package de.codesourcery.sim;
 
 public class MoveableEntity extends Entity implements ITickListener
 {
-    private static final Vec2D TMP = new Vec2D();
+    private final Vec2D tmp = new Vec2D();
+
+    // position before the last world tick, used to interpolate when rendering
+    public final Vec2D previousPosition = new Vec2D();
 
     public final Vec2D velocity = new Vec2D();
     public final Vec2D acceleration = new Vec2D();
@@ -13,27 +16,29 @@ public class MoveableEntity extends Entity implements ITickListener
     public MoveableEntity(Vec2D v)
     {
         super( v );
+        previousPosition.set( position );
     }
 
     public MoveableEntity(float x, float y)
     {
         super( x, y );
+        previousPosition.set( position );
     }
 
     @Override
     public void tick(float deltaSeconds,World world) {
 
         // calculate new acceleration
-        TMP.scl( deltaSeconds );
+        tmp.scl( deltaSeconds );
 
-        acceleration.add( TMP ).clamp( -maxAcceleration , maxAcceleration );
+        acceleration.add( tmp ).clamp( -maxAcceleration , maxAcceleration );
 
         // calculate new velocity
-        TMP.set( acceleration ).scl( deltaSeconds );
-        velocity.add( TMP ).clamp( -maxSpeed, maxSpeed );
+        tmp.set( acceleration ).scl( deltaSeconds );
+        velocity.add( tmp ).clamp( -maxSpeed, maxSpeed );
 
         // calculate new position
-        TMP.set( velocity ).scl( deltaSeconds );
+        tmp.set( velocity ).scl( deltaSeconds );
         position.add( velocity );
     }
 }
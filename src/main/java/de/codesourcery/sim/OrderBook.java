@@ -0,0 +1,104 @@
+package de.codesourcery.sim;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * Standing offers or requests, at most one per sender, message type and item type.
+ *
+ * Orders stay in the book until they get cancelled by their sender.
+ */
+public final class OrderBook
+{
+    private static final int ITEM_TYPE_COUNT = ItemType.values().length;
+    private static final int MESSAGE_TYPE_COUNT = Message.MessageType.values().length;
+
+    private final MessageBuffer orders = new MessageBuffer();
+
+    // key is (sender ID, message type, item type), value is index into 'orders'
+    private final Long2IntOpenHashMap indexByKey = new Long2IntOpenHashMap();
+
+    private boolean changed;
+
+    public OrderBook()
+    {
+        indexByKey.defaultReturnValue( -1 );
+    }
+
+    private static long key(Entity sender, Message.MessageType type, ItemType item) {
+        return ( sender.id * MESSAGE_TYPE_COUNT + type.ordinal() ) * ITEM_TYPE_COUNT + item.ordinal();
+    }
+
+    private static long key(MessageBuffer orders,int idx) {
+        return key( orders.sender( idx ), orders.type( idx ), orders.item( idx ) );
+    }
+
+    /**
+     * Posts a new order or updates the amount and priority of an existing one.
+     */
+    public void post(Entity sender, Message.MessageType type, ItemType item, int amount, int priority)
+    {
+        final long key = key( sender, type, item );
+        final int idx = indexByKey.get( key );
+        if ( idx == -1 )
+        {
+            indexByKey.put( key, orders.add( sender, type, item, amount, priority ) );
+            changed = true;
+        }
+        else if ( orders.amount( idx ) != amount || orders.priority( idx ) != priority )
+        {
+            orders.set( idx, amount, priority );
+            changed = true;
+        }
+    }
+
+    /**
+     * Removes an order, if it exists.
+     *
+     * @return <code>true</code> if an order got removed
+     */
+    public boolean cancel(Entity sender, Message.MessageType type, ItemType item)
+    {
+        final int idx = indexByKey.remove( key( sender, type, item ) );
+        if ( idx == -1 ) {
+            return false;
+        }
+        final int moved = orders.removeAt( idx );
+        if ( moved != -1 ) {
+            indexByKey.put( key( orders, idx ), idx );
+        }
+        changed = true;
+        return true;
+    }
+
+    /**
+     * Returns the orders, indices become invalid as soon as the book is changed.
+     */
+    public MessageBuffer orders() {
+        return orders;
+    }
+
+    public int size() {
+        return orders.size();
+    }
+
+    public boolean isEmpty() {
+        return orders.isEmpty();
+    }
+
+    /**
+     * Returns whether orders got posted, changed or cancelled since
+     * the last call to {@link #clearChanged()}.
+     */
+    public boolean hasChanged() {
+        return changed;
+    }
+
+    public void clearChanged() {
+        changed = false;
+    }
+
+    @Override
+    public String toString() {
+        return orders.toString();
+    }
+}
@@ -1,16 +1,23 @@
 package de.codesourcery.sim;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 public class Robot extends MoveableEntity implements IItemReceiver
 {
-    private static final float PICKUP_DIST = 0.1f;
-    private static final float PICKUP_DIST2 = PICKUP_DIST*PICKUP_DIST;
-
     public State currentState = new IdleState();
     public int maxCarryingCapacity = 2;
+    public float speed = 0.2f;
     private Controller controller;
 
+    // index into RobotTable while moving, -1 otherwise
+    int tableIndex = -1;
+    // set by RobotTable when the robot reached its destination
+    boolean arrived;
+
     public abstract class State {
 
         public void onEnter(World world) { }
@@ -21,6 +28,13 @@ public class Robot extends MoveableEntity implements IItemReceiver
 
         public void receive(Message message) {
         }
+
+        /**
+         * Returns whether all entities this state will interact with match a predicate.
+         */
+        public boolean onlyInteractsWith(Predicate<? super Entity> predicate) {
+            return true;
+        }
     }
 
     public final class TransferState extends State
@@ -52,6 +66,10 @@ public class Robot extends MoveableEntity implements IItemReceiver
             State next = current.tick(deltaSeconds,world );
             if ( next != current )
             {
+                if ( current instanceof MoveToLocationState && next instanceof IdleState ) {
+                    // destination unreachable, give up the job
+                    return next;
+                }
                 if ( next instanceof IdleState )
                 {
                     if (!pickingUp)
@@ -65,6 +83,12 @@ public class Robot extends MoveableEntity implements IItemReceiver
             current = next;
             return this;
         }
+
+        @Override
+        public boolean onlyInteractsWith(Predicate<? super Entity> predicate)
+        {
+            return predicate.test( src ) && predicate.test( dst );
+        }
     }
 
     private final class PickupState extends State {
@@ -91,6 +115,12 @@ public class Robot extends MoveableEntity implements IItemReceiver
             world.inventory.transfer(entity,details.type,toTake,Robot.this,world);
             return new IdleState();
         }
+
+        @Override
+        public boolean onlyInteractsWith(Predicate<? super Entity> predicate)
+        {
+            return predicate.test( entity );
+        }
     }
 
     private final class DropOffState extends State {
@@ -114,15 +144,39 @@ public class Robot extends MoveableEntity implements IItemReceiver
         public State tick(float deltaSeconds, World world)
         {
             int toGive = Math.min( carriedAmount(world) , details.amount );
-            world.inventory.transfer(Robot.this, carriedItem(world), toGive,entity, world);
+            if ( toGive > 0 ) {
+                world.inventory.transfer(Robot.this, carriedItem(world), toGive,entity, world);
+            }
             return new IdleState();
         }
+
+        @Override
+        public boolean onlyInteractsWith(Predicate<? super Entity> predicate)
+        {
+            return predicate.test( entity );
+        }
     }
 
+    /**
+     * Moves to a location and switches to the state to enter there.
+     *
+     * Switches to {@link IdleState} instead if the world's navigation finds no route to the destination.
+     */
     public final class MoveToLocationState extends State {
 
         public final Vec2D destination;
         private final State stateAtDestination;
+        private boolean started;
+
+        // route planning, see WorldNavigation
+        private WorldNavigation navigation;
+        private CompletableFuture<List<Integer>> route;
+        // routes are empty if start and destination are in the same cell
+        private boolean sameCell;
+        private boolean movingWhileWaiting;
+        private int ticksWaited;
+        private List<Vec2D> waypoints;
+        private int currentWaypoint;
 
         private MoveToLocationState(Vec2D destination,State stateAtDestination)
         {
@@ -139,14 +193,110 @@ public class Robot extends MoveableEntity implements IItemReceiver
         @Override
         public State tick(float deltaSeconds, World world)
         {
-            // move towards target
-            final Vec2D delta = destination.cpy().sub( position() ).nor();
-            delta.scl( 0.2f*deltaSeconds);
-            position.add( delta );
-            if ( position.dst2( destination ) <= PICKUP_DIST2 ) {
-                return stateAtDestination;
+            // movement is done by World#tick() after all entities have been ticked
+            if ( ! started )
+            {
+                started = true;
+                navigation = world.getNavigation();
+                if ( navigation != null )
+                {
+                    route = navigation.findRoute( position, destination );
+                    sameCell = navigation.toNodeId( position ) == navigation.toNodeId( destination );
+                    movingWhileWaiting = navigation.moveWhileWaiting;
+                    if ( ! movingWhileWaiting ) {
+                        return this;
+                    }
+                }
+                world.robotTable.moveTo( Robot.this, destination, speed );
+                return this;
             }
-            return this;
+
+            if ( route != null )
+            {
+                if ( movingWhileWaiting && arrived ) {
+                    // got there on the provisional straight line already
+                    route = null;
+                    return stateAtDestination;
+                }
+                // never block the tick, keep waiting (or moving straight) until the search is done
+                if ( ++ticksWaited < navigation.routeLatencyTicks || ! route.isDone() ) {
+                    return this;
+                }
+                if ( ! followRoute( world ) )
+                {
+                    world.robotTable.writeBack( Robot.this );
+                    world.robotTable.stop( Robot.this );
+                    return new IdleState();
+                }
+                return this;
+            }
+
+            if ( arrived && waypoints != null && currentWaypoint + 1 < waypoints.size() )
+            {
+                currentWaypoint++;
+                moveToWaypoint( world );
+                return this;
+            }
+            return arrived ? stateAtDestination : this;
+        }
+
+        // returns false if there is no route to the destination
+        private boolean followRoute(World world)
+        {
+            List<Integer> cells;
+            try {
+                cells = route.join(); // already done
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println( Robot.this + " failed to find route to " + destination + ": " + e.getMessage() );
+                cells = Collections.emptyList();
+            }
+            route = null;
+
+            if ( cells.isEmpty() )
+            {
+                if ( ! sameCell )
+                {
+                    // going straight would walk through obstacles
+                    if ( Main.DEBUG ) {
+                        System.out.println( Robot.this + " has no route to " + destination );
+                    }
+                    return false;
+                }
+                world.robotTable.moveTo( Robot.this, destination, speed );
+                return true;
+            }
+
+            // continue from the closest waypoint in case the robot already moved
+            waypoints = navigation.toWaypoints( cells, destination );
+            float minDist = Float.MAX_VALUE;
+            for ( int i = 0, len = waypoints.size() ; i < len ; i++ )
+            {
+                final float dist = position.dst( waypoints.get( i ) );
+                if ( dist < minDist ) {
+                    minDist = dist;
+                    currentWaypoint = i;
+                }
+            }
+            moveToWaypoint( world );
+            return true;
+        }
+
+        private void moveToWaypoint(World world)
+        {
+            if ( currentWaypoint == waypoints.size() - 1 ) {
+                world.robotTable.moveTo( Robot.this, destination, speed );
+            } else {
+                // turn close to the cell centre, switching early makes robots cut corners
+                world.robotTable.moveTo( Robot.this, waypoints.get( currentWaypoint ), speed, navigation.cellSize / 10 );
+            }
+        }
+
+        @Override
+        public boolean onlyInteractsWith(Predicate<? super Entity> predicate)
+        {
+            return stateAtDestination.onlyInteractsWith( predicate );
         }
     }
 
@@ -194,6 +344,12 @@ public class Robot extends MoveableEntity implements IItemReceiver
         {
             return nextState;
         }
+
+        @Override
+        public boolean onlyInteractsWith(Predicate<? super Entity> predicate)
+        {
+            return nextState == this || nextState.onlyInteractsWith( predicate );
+        }
     }
 
     public Robot(Vec2D v)
@@ -225,6 +381,21 @@ public class Robot extends MoveableEntity implements IItemReceiver
         }
     }
 
+    /**
+     * Returns whether all entities this robot is about to interact with
+     * (pick up from / drop off at) match a predicate.
+     */
+    public boolean onlyInteractsWith(Predicate<? super Entity> predicate) {
+        return currentState.onlyInteractsWith( predicate );
+    }
+
+    /**
+     * Returns whether the robot reached the destination it was last sent to.
+     */
+    public boolean hasArrived() {
+        return arrived;
+    }
+
     public boolean isIdle() {
         return this.currentState instanceof IdleState;
     }
@@ -239,18 +410,13 @@ public class Robot extends MoveableEntity implements IItemReceiver
 
     public ItemType carriedItem(World world)
     {
-        return world.inventory.visitInventory(this, (itemType,amount,ctx) ->
-        {
-            ctx.stop(itemType);
-        }, null);
+        return world.inventory.getFirstItemType( this );
     }
 
     public ItemAndAmount carriedItemAndAmount(World world)
     {
-        return world.inventory.visitInventory(this, (itemType,amount,ctx) ->
-        {
-            ctx.stop(new ItemAndAmount(itemType, amount));
-        }, null);
+        final ItemType type = carriedItem( world );
+        return type == null ? null : new ItemAndAmount( type, world.inventory.getFirstItemAmount( this ) );
     }
 
     public void transfer(Entity src,ItemAndAmount details,Entity dst)
@@ -283,11 +449,7 @@ public class Robot extends MoveableEntity implements IItemReceiver
     @Override
     public int getAcceptedAmount(ItemType type, World world)
     {
-        final ItemAndAmount itemAndAmount = carriedItemAndAmount(world);
-        if ( itemAndAmount == null || itemAndAmount.amount == 0 ) {
-            return maxCarryingCapacity;
-        }
-        return maxCarryingCapacity - itemAndAmount.amount;
+        return maxCarryingCapacity - world.inventory.getFirstItemAmount( this );
     }
 
     @Override
@@ -0,0 +1,195 @@
+package de.codesourcery.sim;
+
+import java.util.Arrays;
+
+/**
+ * Positions, destinations and speeds of all robots that are currently moving, stored in
+ * parallel <code>float</code> arrays so that {@link #move(float)} is a tight loop over contiguous memory.
+ *
+ * Robots are added through {@link #moveTo(Robot, Vec2D, float)} and get removed as soon as they arrive
+ * at their destination. The table is authoritative while a robot is moving, {@link #move(float)} only
+ * updates the arrays and {@link World#tick(float)} copies positions to {@link Entity#position} through
+ * {@link #writeBack(Robot)} while it updates the spatial index anyway.
+ *
+ * Robots move after all entities have been ticked, so a robot's state notices that it arrived one tick
+ * after it got there (robots used to move and check for arrival in their own tick). Every trip
+ * takes one tick longer than it did before this table existed.
+ *
+ * Adding and removing robots is thread-safe, {@link #move(float)} must not run concurrently with either.
+ */
+public final class RobotTable
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Robots closer than this to their destination are considered to have arrived,
+     * unless a different distance was passed to {@link #moveTo(Robot, Vec2D, float, float)}.
+     */
+    public static final float ARRIVAL_DIST = 0.1f;
+
+    private float[] x = new float[ INITIAL_CAPACITY ];
+    private float[] y = new float[ INITIAL_CAPACITY ];
+    private float[] destX = new float[ INITIAL_CAPACITY ];
+    private float[] destY = new float[ INITIAL_CAPACITY ];
+    private float[] speed = new float[ INITIAL_CAPACITY ];
+    private float[] arrivalDist2 = new float[ INITIAL_CAPACITY ];
+    private Robot[] robots = new Robot[ INITIAL_CAPACITY ];
+    private int[] arrived = new int[ INITIAL_CAPACITY ];
+
+    private int size;
+
+    /**
+     * Starts moving a robot towards a destination, replacing its current destination if it is already moving.
+     *
+     * Clears the robot's arrival flag (see {@link Robot#hasArrived()}).
+     *
+     * @param robot
+     * @param destination
+     * @param unitsPerSecond
+     */
+    public void moveTo(Robot robot, Vec2D destination, float unitsPerSecond)
+    {
+        moveTo( robot, destination, unitsPerSecond, ARRIVAL_DIST );
+    }
+
+    /**
+     * Starts moving a robot towards a destination, replacing its current destination if it is already moving.
+     *
+     * Clears the robot's arrival flag (see {@link Robot#hasArrived()}).
+     *
+     * @param robot
+     * @param destination
+     * @param unitsPerSecond
+     * @param arrivalDistance the robot is considered to have arrived when it gets at least this close to the destination
+     */
+    public synchronized void moveTo(Robot robot, Vec2D destination, float unitsPerSecond, float arrivalDistance)
+    {
+        int idx = robot.tableIndex;
+        if ( idx == -1 )
+        {
+            if ( size == robots.length )
+            {
+                final int newSize = size * 2;
+                x = Arrays.copyOf( x, newSize );
+                y = Arrays.copyOf( y, newSize );
+                destX = Arrays.copyOf( destX, newSize );
+                destY = Arrays.copyOf( destY, newSize );
+                speed = Arrays.copyOf( speed, newSize );
+                arrivalDist2 = Arrays.copyOf( arrivalDist2, newSize );
+                robots = Arrays.copyOf( robots, newSize );
+            }
+            idx = size++;
+            robots[idx] = robot;
+            robot.tableIndex = idx;
+        }
+        x[idx] = robot.position.x;
+        y[idx] = robot.position.y;
+        destX[idx] = destination.x;
+        destY[idx] = destination.y;
+        speed[idx] = unitsPerSecond;
+        arrivalDist2[idx] = arrivalDistance * arrivalDistance;
+        robot.arrived = false;
+    }
+
+    /**
+     * Stops moving a robot, if it is moving.
+     */
+    public synchronized void stop(Robot robot)
+    {
+        if ( robot.tableIndex != -1 ) {
+            remove( robot.tableIndex );
+        }
+    }
+
+    private void remove(int idx)
+    {
+        robots[idx].tableIndex = -1;
+        final int last = --size;
+        if ( idx != last )
+        {
+            x[idx] = x[last];
+            y[idx] = y[last];
+            destX[idx] = destX[last];
+            destY[idx] = destY[last];
+            speed[idx] = speed[last];
+            arrivalDist2[idx] = arrivalDist2[last];
+            robots[idx] = robots[last];
+            robots[idx].tableIndex = idx;
+        }
+        robots[last] = null;
+    }
+
+    /**
+     * Moves all robots towards their destinations and removes robots that arrived.
+     *
+     * Only robots that arrived get their {@link Entity#position} updated,
+     * see {@link #writeBack(Robot)} for all others.
+     *
+     * @param deltaSeconds
+     */
+    public void move(float deltaSeconds)
+    {
+        final float[] x = this.x;
+        final float[] y = this.y;
+        final float[] destX = this.destX;
+        final float[] destY = this.destY;
+        final float[] speed = this.speed;
+        final float[] arrivalDist2 = this.arrivalDist2;
+        final int size = this.size;
+
+        // indices of robots that arrived, in ascending order
+        if ( arrived.length < size ) {
+            arrived = new int[ robots.length ];
+        }
+        final int[] arrived = this.arrived;
+        int arrivedCount = 0;
+
+        for ( int i = 0 ; i < size ; i++ )
+        {
+            final float dx = destX[i] - x[i];
+            final float dy = destY[i] - y[i];
+            final float len = (float) Math.sqrt( dx*dx + dy*dy );
+            final float step = speed[i] * deltaSeconds;
+            // don't overshoot the destination
+            final float scale = len > step ? step / len : 1;
+            x[i] += dx * scale;
+            y[i] += dy * scale;
+            // only record arrivals here, removing robots inside this loop would slow it down
+            final float remaining = len - step;
+            arrived[arrivedCount] = i;
+            arrivedCount += remaining <= 0 || remaining * remaining <= arrivalDist2[i] ? 1 : 0;
+        }
+
+        // remove highest index first, the robot moved into a removed
+        // robot's place always comes from a higher index that did not arrive
+        for ( int j = arrivedCount - 1 ; j >= 0 ; j-- )
+        {
+            final int i = arrived[j];
+            robots[i].position.set( x[i], y[i] );
+            robots[i].arrived = true;
+            remove( i );
+        }
+    }
+
+    /**
+     * Copies the position of a moving robot to its {@link Entity#position}.
+     *
+     * Does nothing if the robot is not moving.
+     *
+     * @param robot
+     */
+    public void writeBack(Robot robot)
+    {
+        final int idx = robot.tableIndex;
+        if ( idx != -1 ) {
+            robot.position.set( x[idx], y[idx] );
+        }
+    }
+
+    /**
+     * Returns the number of robots currently moving.
+     */
+    public int size() {
+        return size;
+    }
+}
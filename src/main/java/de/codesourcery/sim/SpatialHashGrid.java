@@ -0,0 +1,279 @@
+package de.codesourcery.sim;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Uniform spatial hash that buckets objects by the grid cell their position falls into.
+ *
+ * Objects are treated as points, callers that care about extents need to
+ * grow their query regions accordingly. Objects that move need to be
+ * re-bucketed using {@link #update(IHasPosition)}.
+ *
+ * @param <T>
+ */
+public final class SpatialHashGrid<T extends IHasPosition>
+{
+    private static final long NO_CELL = Long.MIN_VALUE;
+
+    public final float cellSize;
+
+    // key is cell key, value is list of elements in this cell
+    private final Long2ObjectOpenHashMap<List<T>> cells = new Long2ObjectOpenHashMap<>();
+
+    // key is element, value is key of the cell the element is currently stored in
+    private final Object2LongOpenHashMap<T> cellByElement = new Object2LongOpenHashMap<>();
+
+    // bounds of all cells that ever held an element,
+    // used to terminate nearest-neighbour searches
+    private int minCellX = Integer.MAX_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    public SpatialHashGrid(float cellSize)
+    {
+        if ( cellSize <= 0 ) {
+            throw new IllegalArgumentException( "Cell size must be > 0" );
+        }
+        this.cellSize = cellSize;
+        cellByElement.defaultReturnValue( NO_CELL );
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private int cellX(float x) {
+        return (int) Math.floor( x / cellSize );
+    }
+
+    private int cellY(float y) {
+        return (int) Math.floor( y / cellSize );
+    }
+
+    private long cellKey(Vec2D v) {
+        return cellKey( cellX( v.x ), cellY( v.y ) );
+    }
+
+    public void add(T element)
+    {
+        if ( cellByElement.containsKey( element ) ) {
+            throw new IllegalArgumentException( "Element already added: "+element );
+        }
+        final Vec2D p = element.position();
+        final int cx = cellX( p.x );
+        final int cy = cellY( p.y );
+        insert( element, cellKey( cx, cy ) );
+        updateBounds( cx, cy );
+    }
+
+    private void updateBounds(int cx,int cy)
+    {
+        minCellX = Math.min( minCellX, cx );
+        minCellY = Math.min( minCellY, cy );
+        maxCellX = Math.max( maxCellX, cx );
+        maxCellY = Math.max( maxCellY, cy );
+    }
+
+    private void insert(T element, long key)
+    {
+        List<T> list = cells.get( key );
+        if ( list == null ) {
+            list = new ArrayList<>();
+            cells.put( key, list );
+        }
+        list.add( element );
+        cellByElement.put( element, key );
+    }
+
+    public boolean remove(T element)
+    {
+        final long key = cellByElement.removeLong( element );
+        if ( key == NO_CELL ) {
+            return false;
+        }
+        removeFromCell( element, key );
+        return true;
+    }
+
+    private void removeFromCell(T element, long key)
+    {
+        final List<T> list = cells.get( key );
+        final int idx = list.indexOf( element );
+        final int last = list.size() - 1;
+        list.set( idx, list.get( last ) );
+        list.remove( last );
+    }
+
+    /**
+     * Re-buckets an element after its position changed.
+     *
+     * @param element
+     * @return <code>true</code> if the element moved to a different cell
+     */
+    public boolean update(T element)
+    {
+        final long oldKey = cellByElement.getLong( element );
+        if ( oldKey == NO_CELL ) {
+            throw new IllegalArgumentException( "Unknown element: "+element );
+        }
+        final Vec2D p = element.position();
+        final int cx = cellX( p.x );
+        final int cy = cellY( p.y );
+        final long newKey = cellKey( cx, cy );
+        if ( newKey == oldKey ) {
+            return false;
+        }
+        removeFromCell( element, oldKey );
+        insert( element, newKey );
+        updateBounds( cx, cy );
+        return true;
+    }
+
+    public boolean contains(T element) {
+        return cellByElement.containsKey( element );
+    }
+
+    public int size() {
+        return cellByElement.size();
+    }
+
+    public boolean isEmpty() {
+        return cellByElement.isEmpty();
+    }
+
+    public void clear()
+    {
+        // keep (now empty) cell lists around so that re-populating
+        // the grid does not allocate
+        for ( List<T> list : cells.values() ) {
+            list.clear();
+        }
+        cellByElement.clear();
+    }
+
+    /**
+     * Returns the first element inside cells overlapping the given rectangle that matches a predicate.
+     *
+     * @return matching element or <code>null</code>
+     */
+    public T findFirst(float xmin, float ymin, float xmax, float ymax, Predicate<? super T> predicate)
+    {
+        final int cx1 = cellX( xmax );
+        final int cy1 = cellY( ymax );
+        for ( int cy = cellY( ymin ) ; cy <= cy1 ; cy++ )
+        {
+            for ( int cx = cellX( xmin ) ; cx <= cx1 ; cx++ )
+            {
+                final List<T> list = cells.get( cellKey( cx, cy ) );
+                if ( list != null )
+                {
+                    for (int i = 0, len = list.size(); i < len; i++)
+                    {
+                        final T element = list.get( i );
+                        if ( predicate.test( element ) ) {
+                            return element;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visits all elements whose position lies within a given radius.
+     */
+    public void visitInRange(Vec2D center, float radius, Consumer<? super T> visitor)
+    {
+        final float radius2 = radius*radius;
+        final int cx1 = cellX( center.x + radius );
+        final int cy1 = cellY( center.y + radius );
+        for ( int cy = cellY( center.y - radius ) ; cy <= cy1 ; cy++ )
+        {
+            for ( int cx = cellX( center.x - radius ) ; cx <= cx1 ; cx++ )
+            {
+                final List<T> list = cells.get( cellKey( cx, cy ) );
+                if ( list != null )
+                {
+                    for (int i = 0, len = list.size(); i < len; i++)
+                    {
+                        final T element = list.get( i );
+                        if ( element.position().dst2( center ) <= radius2 ) {
+                            visitor.accept( element );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the element closest to a given location by searching
+     * rings of cells around it.
+     *
+     * @param pos location
+     * @param predicate predicate elements need to match, may be <code>null</code>
+     * @return closest matching element or <code>null</code>
+     */
+    public T findClosest(Vec2D pos, Predicate<? super T> predicate)
+    {
+        if ( isEmpty() ) {
+            return null;
+        }
+        final int px = cellX( pos.x );
+        final int py = cellY( pos.y );
+
+        // number of rings we need to search before we've covered all cells
+        final int maxRing = Math.max( Math.max( px - minCellX, maxCellX - px ),
+                                      Math.max( py - minCellY, maxCellY - py ) );
+        T closest = null;
+        float closestDst2 = 0;
+        for ( int ring = 0 ; ring <= maxRing ; ring++ )
+        {
+            if ( closest != null )
+            {
+                // any element in this ring is at least (ring-1) cells away
+                final float minDst = (ring-1)*cellSize;
+                if ( minDst > 0 && minDst*minDst > closestDst2 ) {
+                    break;
+                }
+            }
+            final int x0 = px - ring;
+            final int x1 = px + ring;
+            final int y0 = py - ring;
+            final int y1 = py + ring;
+            for ( int cy = y0 ; cy <= y1 ; cy++ )
+            {
+                // only the outline of the ring, inner cells were visited already
+                final int step = ( cy == y0 || cy == y1 ) ? 1 : Math.max( 1, x1 - x0 );
+                for ( int cx = x0 ; cx <= x1 ; cx += step )
+                {
+                    final List<T> list = cells.get( cellKey( cx, cy ) );
+                    if ( list != null )
+                    {
+                        for (int i = 0, len = list.size(); i < len; i++)
+                        {
+                            final T element = list.get( i );
+                            if ( predicate == null || predicate.test( element ) )
+                            {
+                                final float dst2 = element.position().dst2( pos );
+                                if ( closest == null || dst2 < closestDst2 ) {
+                                    closest = element;
+                                    closestDst2 = dst2;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+}
@@ -1,27 +1,158 @@
 package de.codesourcery.sim;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class World
 {
+    // entities are tiny compared to a controller's broadcast range,
+    // use smaller cells so point queries only need to look at few entities
+    private static final float CELL_SIZE = Controller.BROADCAST_RADIUS / 4;
+
     public final Inventory inventory = new Inventory();
 
+    public final RobotTable robotTable = new RobotTable();
+
     private final List<Entity> entities = new ArrayList<>();
     private final List<ITickListener> tickListeners = new ArrayList<>();
     private final List<Controller> controllers = new ArrayList<>();
+    private final List<MoveableEntity> moveables = new ArrayList<>();
+
+    // spatial indices
+    private final SpatialHashGrid<Entity> entityIndex = new SpatialHashGrid<>( CELL_SIZE );
+    private final SpatialHashGrid<Controller> controllerIndex = new SpatialHashGrid<>( Controller.BROADCAST_RADIUS );
+    private final DepotIndex depotIndex = new DepotIndex( CELL_SIZE );
+
+    private static final Controller[] NO_CONTROLLERS = new Controller[0];
+
+    // controllers in range of each stationary entity, key is entity ID.
+    // Moving entities get routed by a spatial query instead.
+    private final Long2ObjectOpenHashMap<Controller[]> routes = new Long2ObjectOpenHashMap<>();
+
+    // route planning for robots, null if robots move in straight lines
+    private WorldNavigation navigation;
+
+    // max. half extent of all entities, the spatial indices
+    // only store positions so queries need to be grown by this amount
+    private float maxHalfExtent;
+
+    // parallel tick support, see setParallelism()
+    private ForkJoinPool pool;
+    private boolean regionsDirty = true;
+    private final List<Region> regions = new ArrayList<>();
+    private final List<ITickListener> unpartitioned = new ArrayList<>();
+    // key is entity ID, value is index of the region the entity belongs to
+    private final Long2IntOpenHashMap regionIds = new Long2IntOpenHashMap();
+
+    /**
+     * Part of the world that can be ticked independently of all others.
+     *
+     * A region consists of controllers with overlapping broadcast ranges, the robots
+     * assigned to them and all factories/depots within their range. Entities
+     * from different regions never exchange messages and controllers only dispatch
+     * robots between entities of their own region.
+     */
+    private final class Region implements Callable<Void>, Predicate<Entity>
+    {
+        public final int index;
+        public final List<ITickListener> listeners = new ArrayList<>();
+        // robots that still need to finish a job involving entities of a different region,
+        // ticked sequentially after all regions are done
+        public final List<Robot> deferred = new ArrayList<>();
+        public float deltaSeconds;
+
+        private Region(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public Void call()
+        {
+            for (int i = 0, len = listeners.size(); i < len; i++)
+            {
+                final ITickListener l = listeners.get( i );
+                if ( l instanceof Robot && ! ((Robot) l).onlyInteractsWith( this ) ) {
+                    deferred.add( (Robot) l );
+                } else {
+                    l.tick( deltaSeconds, World.this );
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean test(Entity entity)
+        {
+            return regionIds.get( entity.id ) == index;
+        }
+    }
+
+    public World()
+    {
+        inventory.setChangeListener( this::inventoryChanged );
+        regionIds.defaultReturnValue( -1 );
+    }
+
+    private void inventoryChanged(Entity entity)
+    {
+        // inventory might be populated before the entity gets added to the world
+        if ( entity instanceof Depot && entityIndex.contains( entity ) ) {
+            depotIndex.inventoryChanged( (Depot) entity, this );
+        }
+        if ( entity instanceof IOrderSource ) {
+            ((IOrderSource) entity).invalidateOrders();
+        }
+    }
 
     public void add( Entity entity )
     {
+        regionsDirty = true;
         this.entities.add( entity );
+        this.entityIndex.add( entity );
+        // assign inventory slot upfront, regions may only
+        // access the inventory concurrently after this has been done
+        inventory.register( entity );
+        maxHalfExtent = Math.max( maxHalfExtent, Math.max( entity.extent.x, entity.extent.y ) / 2 );
+
+        if ( entity instanceof MoveableEntity ) {
+            moveables.add( (MoveableEntity) entity );
+            // position might have been changed after construction
+            ((MoveableEntity) entity).previousPosition.set( entity.position );
+        } else if ( ! ( entity instanceof Controller ) ) {
+            updateRoute( entity );
+        }
+        if ( entity instanceof Depot ) {
+            depotIndex.add( (Depot) entity, this );
+        }
         if ( entity instanceof ITickListener) {
             tickListeners.add( (ITickListener) entity );
         }
         if ( entity instanceof Controller) {
             controllers.add( (Controller) entity );
+            controllerIndex.add( (Controller) entity );
+            // have entities in range re-post their orders so the new controller learns about them
+            entityIndex.visitInRange( entity.position, Controller.BROADCAST_RADIUS, e ->
+            {
+                if ( routes.containsKey( e.id ) ) {
+                    updateRoute( e );
+                }
+                if ( e instanceof IOrderSource ) {
+                    ((IOrderSource) e).invalidateOrders();
+                }
+            });
         }
         else if ( entity instanceof Robot )
         {
@@ -54,9 +185,206 @@ public class World
         controllers.get(0).assign( r, this );
     }
 
+    /**
+     * Sets the number of threads used to tick the world.
+     *
+     * With more than one thread, the world is partitioned into independent regions (see {@link Region})
+     * that get ticked concurrently. Because controllers will then only ever use depots from their own region,
+     * this mode may dispatch robots to a different depot than sequential mode would.
+     *
+     * @param threadCount number of threads, values less than 2 select sequential mode
+     */
+    public void setParallelism(int threadCount)
+    {
+        if ( pool != null ) {
+            pool.shutdown();
+            pool = null;
+        }
+        if ( threadCount > 1 ) {
+            pool = new ForkJoinPool( threadCount );
+        }
+    }
+
+    public int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Returns the number of regions that get ticked concurrently.
+     *
+     * @return number of regions, always 1 in sequential mode
+     * @see #setParallelism(int)
+     */
+    public int getRegionCount()
+    {
+        if ( pool == null ) {
+            return 1;
+        }
+        if ( regionsDirty ) {
+            rebuildRegions();
+        }
+        return regions.size();
+    }
+
+    /**
+     * Sets how robots find their way around obstacles.
+     *
+     * Only affects robots that start moving afterwards.
+     *
+     * @param navigation navigation to use or <code>null</code> to move robots in straight lines
+     */
+    public void setNavigation(WorldNavigation navigation) {
+        this.navigation = navigation;
+    }
+
+    public WorldNavigation getNavigation() {
+        return navigation;
+    }
+
     public void tick(float deltaSeconds)
     {
-        tickListeners.forEach( e -> e.tick( deltaSeconds , this ) );
+        for (int i = 0, len = moveables.size(); i < len; i++)
+        {
+            final MoveableEntity e = moveables.get( i );
+            e.previousPosition.set( e.position );
+        }
+
+        if ( pool == null ) {
+            tickListeners.forEach( e -> e.tick( deltaSeconds , this ) );
+        } else {
+            parallelTick( deltaSeconds );
+        }
+
+        robotTable.move( deltaSeconds );
+
+        for (int i = 0, len = moveables.size(); i < len; i++)
+        {
+            final MoveableEntity e = moveables.get( i );
+            if ( e instanceof Robot ) {
+                robotTable.writeBack( (Robot) e );
+            }
+            entityIndex.update( e );
+        }
+    }
+
+    private void parallelTick(float deltaSeconds)
+    {
+        if ( regionsDirty ) {
+            rebuildRegions();
+        }
+        for (int i = 0, len = regions.size(); i < len; i++) {
+            regions.get( i ).deltaSeconds = deltaSeconds;
+        }
+        try
+        {
+            for ( Future<Void> f : pool.invokeAll( regions ) ) {
+                f.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        catch (ExecutionException e)
+        {
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        }
+
+        // barrier reached, process everything that might
+        // cross region boundaries in a fixed order
+        for (int i = 0, len = regions.size(); i < len; i++)
+        {
+            final List<Robot> deferred = regions.get( i ).deferred;
+            for (int j = 0, count = deferred.size(); j < count; j++) {
+                deferred.get( j ).tick( deltaSeconds, this );
+            }
+            deferred.clear();
+        }
+        for (int i = 0, len = unpartitioned.size(); i < len; i++) {
+            unpartitioned.get( i ).tick( deltaSeconds, this );
+        }
+    }
+
+    private void rebuildRegions()
+    {
+        // union-find over controllers, controllers whose broadcast ranges
+        // overlap end up in the same region as some entity might be registered with both
+        final Long2IntOpenHashMap controllerIdx = new Long2IntOpenHashMap();
+        final int[] parent = new int[ controllers.size() ];
+        for (int i = 0; i < parent.length; i++)
+        {
+            parent[i] = i;
+            controllerIdx.put( controllers.get( i ).id, i );
+        }
+        for (int i = 0; i < parent.length; i++)
+        {
+            final int idx = i;
+            controllerIndex.visitInRange( controllers.get( i ).position, 2 * Controller.BROADCAST_RADIUS, other ->
+            {
+                final int root1 = findRoot( parent, idx );
+                final int root2 = findRoot( parent, controllerIdx.get( other.id ) );
+                // smaller index wins so region order follows controller creation order
+                parent[ Math.max( root1, root2 ) ] = Math.min( root1, root2 );
+            });
+        }
+
+        regions.clear();
+        regionIds.clear();
+        unpartitioned.clear();
+        final IntArrayList regionByRoot = new IntArrayList();
+        for (int i = 0; i < parent.length; i++)
+        {
+            final int root = findRoot( parent, i );
+            if ( root == i ) {
+                regionByRoot.add( regions.size() );
+                regions.add( new Region( regions.size() ) );
+            } else {
+                regionByRoot.add( -1 );
+            }
+            regionIds.put( controllers.get( i ).id, regionByRoot.getInt( root ) );
+        }
+
+        for ( ITickListener l : tickListeners )
+        {
+            int region = -1;
+            if ( l instanceof Controller ) {
+                region = regionIds.get( ((Controller) l).id );
+            }
+            else if ( l instanceof Robot )
+            {
+                final Controller c = ((Robot) l).controller();
+                if ( c != null ) {
+                    region = regionIds.get( c.id );
+                }
+            }
+            else if ( l instanceof IItemProvider || l instanceof IItemReceiver )
+            {
+                final List<Controller> inRange = findControllersInRange( ((Entity) l).position );
+                if ( ! inRange.isEmpty() ) {
+                    region = regionIds.get( inRange.get( 0 ).id );
+                }
+            }
+            if ( region == -1 ) {
+                unpartitioned.add( l );
+            } else {
+                regions.get( region ).listeners.add( l );
+                regionIds.put( ((Entity) l).id, region );
+            }
+        }
+        regionsDirty = false;
+    }
+
+    private static int findRoot(int[] parent,int idx)
+    {
+        while ( parent[idx] != idx ) {
+            parent[idx] = parent[ parent[idx] ];
+            idx = parent[idx];
+        }
+        return idx;
     }
 
     public void visitEntities(Consumer<Entity> consumer)
@@ -64,66 +392,94 @@ public class World
         entities.forEach( consumer );
     }
 
+    /**
+     * Posts a message as standing order.
+     *
+     * @see #postOrder(Entity, Message.MessageType, ItemType, int, int)
+     */
     public void sendMessage(Message msg)
     {
-        boolean send = false;
+        final ItemAndAmount payload = msg.getItemAndAmount();
+        postOrder( msg.sender, msg.type, payload.type, payload.amount, msg.priority );
+    }
 
-        for (int i = 0, controllersSize = controllers.size(); i < controllersSize; i++)
+    /**
+     * Posts a standing offer/request to all controllers in range of the sender, replacing
+     * any previous order by the same sender for the same message type and item type.
+     *
+     * Orders stay active until they get cancelled through {@link #cancelOrder(Entity, Message.MessageType, ItemType)}.
+     */
+    public void postOrder(Entity sender, Message.MessageType type, ItemType item, int amount, int priority)
+    {
+        final Controller[] route = route( sender );
+        for (int i = 0; i < route.length; i++)
         {
-            final Controller c = controllers.get( i );
-            if ( c.isInRange( msg.sender ) )
-            {
-                c.broadcast( msg );
-                send = true;
-            }
+            route[i].postOrder( sender, type, item, amount, priority );
         }
-        if ( ! send ) {
-            System.err.println("No controller in range, message lost: "+msg);
+        if ( route.length == 0 ) {
+            System.err.println("No controller in range, message lost: "+
+                new Message( sender, type, new ItemAndAmount( item, amount ), priority ) );
         }
     }
 
-    public Entity getEntityAt(Vec2D position)
+    /**
+     * Cancels a standing offer/request at all controllers in range of the sender.
+     */
+    public void cancelOrder(Entity sender, Message.MessageType type, ItemType item)
     {
-        for (int i = 0, entitiesSize = entities.size(); i < entitiesSize; i++)
+        final Controller[] route = route( sender );
+        for (int i = 0; i < route.length; i++)
         {
-            Entity e = entities.get( i );
-            if ( e.contains( position ) )
-            {
-                return e;
-            }
+            route[i].cancelOrder( sender, type, item );
         }
-        return null;
+    }
+
+    private void updateRoute(Entity entity)
+    {
+        routes.put( entity.id, findControllersInRange( entity.position ).toArray( NO_CONTROLLERS ) );
+    }
+
+    /**
+     * Returns the controllers in range of a sender, ordered by creation.
+     */
+    private Controller[] route(Entity sender)
+    {
+        final Controller[] result = routes.get( sender.id );
+        if ( result != null ) {
+            return result;
+        }
+        // moving entity or entity not part of this world
+        return findControllersInRange( sender.position ).toArray( NO_CONTROLLERS );
+    }
+
+    public Entity getEntityAt(Vec2D position)
+    {
+        return entityIndex.findFirst( position.x - maxHalfExtent, position.y - maxHalfExtent,
+                                      position.x + maxHalfExtent, position.y + maxHalfExtent,
+                                      e -> e.contains( position ) );
     }
 
     private List<Controller> findControllersInRange(Vec2D pos)
     {
         final List<Controller> result = new ArrayList<>();
-        for ( Controller c : controllers ) {
-            if ( c.isInRange( pos ) ) {
-                result.add( c );
-            }
-        }
+        controllerIndex.visitInRange( pos, Controller.BROADCAST_RADIUS, result::add );
+        // keep controllers in the order they were created in
+        result.sort( Comparator.comparingLong( c -> c.id ) );
         return result;
     }
 
     public Depot findClosestDepotThatAccepts(Robot robot,ItemType item, int amount)
     {
-        final List<Depot> candidates = new ArrayList<>();
-        for ( var e : entities )
+        if ( pool != null )
         {
-            if ( e instanceof Depot )
-            {
-                final int acceptedAmount = ((Depot) e).getAcceptedAmount(item, this);
-                if ( acceptedAmount > 0 ) {
-                    candidates.add( (Depot) e );
-                }
+            // depots of other regions are being ticked concurrently, never hand them out.
+            // Unpartitioned robots only get ticked after all regions are done and may use any depot.
+            final int regionId = regionIds.get( robot.id );
+            if ( regionId != -1 ) {
+                return depotIndex.findClosest( robot.position, item, regions.get( regionId ) );
             }
         }
-        if ( candidates.isEmpty() ) {
-            return null;
-        }
-        candidates.sort( (a,b) -> Float.compare( a.dst2(robot) , b.dst2(robot) ) );
-        return candidates.get(0);
+        return depotIndex.findClosest( robot.position, item );
     }
 
     public int getFactoriesProductionLossMissingInput() {
@@ -138,7 +494,10 @@ public class World
 
     public boolean intersectsAny(Vec2D position, Vec2D extent)
     {
-        return entities.stream().anyMatch(  x -> x.intersects( position, extent ) );
+        final float dx = extent.x/2 + maxHalfExtent;
+        final float dy = extent.y/2 + maxHalfExtent;
+        return entityIndex.findFirst( position.x - dx, position.y - dy, position.x + dx, position.y + dy,
+                                      x -> x.intersects( position, extent ) ) != null;
     }
 
     public Set<ItemType> getAvailableItemTypes(Entity entity)
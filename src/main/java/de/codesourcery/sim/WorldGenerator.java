@@ -0,0 +1,129 @@
+package de.codesourcery.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Creates worlds with randomly placed entities.
+ */
+public class WorldGenerator
+{
+    /**
+     * How controllers get placed.
+     */
+    public enum Layout
+    {
+        /**
+         * Random locations within {@link #mapExtent}, broadcast ranges
+         * usually overlap so the whole world forms a single region.
+         */
+        RANDOM,
+        /**
+         * Square grid with gaps between broadcast ranges, each controller forms its
+         * own region that can be ticked concurrently (see {@link World#setParallelism(int)}).
+         * {@link #mapExtent} is ignored.
+         */
+        GRID
+    }
+
+    // distance between neighbouring controllers of a grid layout
+    private static final float GRID_SPACING = 2.5f * Controller.BROADCAST_RADIUS;
+
+    public float mapExtent = Controller.BROADCAST_RADIUS;
+
+    public Layout layout = Layout.RANDOM;
+
+    public int controllers = 1;
+    public int robots = 100;
+    public int factories = 20;
+    public int depots = 20;
+
+    public boolean verbose = true;
+
+    public World generate(long seed)
+    {
+        final Vec2D tmp = new Vec2D();
+
+        Random r = new Random( seed );
+
+        final World w = new World();
+
+        // add controllers
+        final List<Controller> cntrls = new ArrayList<>();
+        final int columns = (int) Math.ceil( Math.sqrt( controllers ) );
+        for ( int i = 0 ; i < controllers ; i++ )
+        {
+            if ( layout == Layout.GRID )
+            {
+                tmp.set( (i % columns) * GRID_SPACING, (i / columns) * GRID_SPACING );
+            }
+            else
+            {
+                tmp.randomize( mapExtent, r );
+                float min = Math.min( tmp.x, tmp.y );
+                if ( min < 0 ) {
+                    tmp.add( -min,-min);
+                }
+            }
+            final Controller c = new Controller( tmp );
+            if ( verbose ) {
+                System.out.println("Controller #"+c.id+" @ "+c.position);
+            }
+            w.add( c );
+            cntrls.add( c );
+        }
+        final Consumer<Entity> rndLocation = e ->
+        {
+            int tries = 0;
+            do
+            {
+                final int ctrlIdx = r.nextInt( cntrls.size() );
+                final Controller c = cntrls.get( ctrlIdx );
+                tmp.randomize( Controller.BROADCAST_RADIUS*0.99f , r );
+                tmp.add( c.position );
+                e.position.set( tmp );
+                tries++;
+            } while ( w.intersectsAny( e.position, e.extent ) && tries < 1000);
+            if ( tries == 1000 ) {
+                System.err.println("Failed to position "+e);
+            }
+        };
+
+        // add robots
+        IntStream.range(0,robots).forEach( x ->
+        {
+            final Robot rob = new Robot( tmp );
+            rndLocation.accept( rob );
+            w.add( rob );
+        } );
+
+        // add factories
+        for ( int i = 0 ; i < factories ; i++ )
+        {
+            final Factory factory;
+            if ( r.nextBoolean() ) {
+                factory = new Factory( tmp, ItemType.STONE );
+                factory.setInput1Type(ItemType.CONCRETE);
+            } else {
+                factory = new Factory( tmp, ItemType.CONCRETE);
+                factory.setInput1Type( ItemType.STONE );
+            }
+            rndLocation.accept( factory );
+            factory.productionTimeSeconds = 1 + r.nextFloat()*3;
+            w.add( factory );
+        }
+
+        IntStream.range(0,depots).forEach( x ->
+        {
+            final Depot depot = new Depot( tmp, ItemType.CONCRETE, ItemType.STONE );
+            rndLocation.accept( depot );
+            w.add( depot );
+            w.inventory.create(depot,ItemType.CONCRETE,50);
+            w.inventory.create(depot,ItemType.STONE,50);
+        } );
+        return w;
+    }
+}
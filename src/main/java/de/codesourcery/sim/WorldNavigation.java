@@ -0,0 +1,252 @@
+package de.codesourcery.sim;
+
+import de.codesourcery.sim.pathfinding.FlowField;
+import de.codesourcery.sim.pathfinding.GridNavMesh;
+import de.codesourcery.sim.pathfinding.PathFindingService;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lets robots plan routes around obstacles, see {@link World#setNavigation(WorldNavigation)}.
+ *
+ * Maps world coordinates to the cells of a {@link GridNavMesh}, cell (0,0) covers the square
+ * from {@link #origin} to <code>origin + cellSize</code>. Positions outside the grid get clamped to the
+ * nearest cell.
+ *
+ * Routes are searched in the background by a {@link PathFindingService}. A robot that requested a route
+ * picks it up at the first tick after {@link #routeLatencyTicks} ticks at which the search is done, ticks never
+ * wait for searches. As long as searches complete within the latency, the simulation does not depend on how
+ * fast they are.
+ *
+ * Routes to destinations with a precomputed {@link FlowField} (see {@link #addFlowFields(Collection)}) do
+ * not need a search at all.
+ */
+public class WorldNavigation
+{
+    public final GridNavMesh mesh;
+    public final PathFindingService service;
+    public final Vec2D origin;
+    public final float cellSize;
+
+    /**
+     * Minimum number of ticks between requesting a route and starting to follow it.
+     */
+    public int routeLatencyTicks = 2;
+
+    // flow fields by destination cell, replaced as a whole when fields get added
+    private volatile Int2ObjectMap<FlowField> flowFields = Int2ObjectMaps.emptyMap();
+
+    // incremented whenever flow fields get discarded, guarded by 'this'
+    private int flowFieldsGeneration;
+
+    // flow fields are only valid for the walkability they were computed with
+    private final GridNavMesh.ChangeListener meshListener = (changedMesh, x, y, width, height) -> clearFlowFields();
+
+    /**
+     * Whether robots move straight towards their destination while waiting for a route (instead of standing still).
+     */
+    public boolean moveWhileWaiting = true;
+
+    /**
+     * Create instance.
+     *
+     * @param mesh mesh with known width and height
+     * @param origin world coordinates of cell (0,0)
+     * @param cellSize width and height of a cell in world units
+     * @param service service to search routes with, must use the same mesh
+     */
+    public WorldNavigation(GridNavMesh mesh, Vec2D origin, float cellSize, PathFindingService service)
+    {
+        Validate.notNull( mesh, "mesh must not be null" );
+        Validate.notNull( origin, "origin must not be null" );
+        Validate.notNull( service, "service must not be null" );
+        Validate.isTrue( mesh.getWidth() > 0 && mesh.getHeight() > 0, "mesh needs to have a known size" );
+        Validate.isTrue( cellSize > 0, "cellSize must be > 0" );
+        Validate.isTrue( service.getNavMesh() == mesh, "service needs to use the same mesh" );
+        this.mesh = mesh;
+        this.origin = origin.cpy();
+        this.cellSize = cellSize;
+        this.service = service;
+        mesh.addChangeListener( meshListener );
+    }
+
+    /**
+     * Stops listening to changes of the mesh, the instance must not be used afterwards.
+     *
+     * The mesh keeps the instance alive until this method gets called. Does not close the {@link #service}.
+     */
+    public void dispose()
+    {
+        mesh.removeChangeListener( meshListener );
+        clearFlowFields();
+    }
+
+    /**
+     * Returns the ID of the cell containing a position.
+     */
+    public int toNodeId(Vec2D position)
+    {
+        final int x = (int) Math.floor( ( position.x - origin.x ) / cellSize );
+        final int y = (int) Math.floor( ( position.y - origin.y ) / cellSize );
+        return GridNavMesh.toNodeID(
+            Math.max( 0, Math.min( x, mesh.getWidth() - 1 ) ),
+            Math.max( 0, Math.min( y, mesh.getHeight() - 1 ) ) );
+    }
+
+    /**
+     * Returns the world coordinates of a cell's centre.
+     */
+    public Vec2D toWorld(int nodeId, Vec2D result)
+    {
+        result.set( origin.x + ( GridNavMesh.extractX( nodeId ) + 0.5f ) * cellSize,
+                    origin.y + ( GridNavMesh.extractY( nodeId ) + 0.5f ) * cellSize );
+        return result;
+    }
+
+    /**
+     * Searches a route in the background.
+     *
+     * @param from
+     * @param to
+     * @return future that completes with the IDs of all cells along the route, empty if there is none
+     * or both positions are in the same cell
+     */
+    public CompletableFuture<List<Integer>> findRoute(Vec2D from, Vec2D to)
+    {
+        final int start = toNodeId( from );
+        final int destination = toNodeId( to );
+        if ( start == destination ) {
+            return CompletableFuture.completedFuture( Collections.emptyList() );
+        }
+        final FlowField field = flowFields.get( destination );
+        if ( field != null ) {
+            return CompletableFuture.completedFuture( field.getPath( start ) );
+        }
+        return service.findPath( start, destination );
+    }
+
+    /**
+     * Precomputes flow fields for destinations, in parallel.
+     *
+     * Destinations in cells that already have a flow field or that are not walkable are skipped.
+     * Blocks until all fields have been computed. Fields get computed again if the mesh changes
+     * while they are being computed.
+     *
+     * @param destinations
+     */
+    public void addFlowFields(Collection<Vec2D> destinations)
+    {
+        while ( true )
+        {
+            final int generation;
+            synchronized( this ) {
+                generation = flowFieldsGeneration;
+            }
+            final IntLinkedOpenHashSet cells = new IntLinkedOpenHashSet();
+            for ( Vec2D destination : destinations )
+            {
+                final int nodeId = toNodeId( destination );
+                if ( ! flowFields.containsKey( nodeId ) &&
+                     mesh.isWalkable( GridNavMesh.extractX( nodeId ), GridNavMesh.extractY( nodeId ) ) )
+                {
+                    cells.add( nodeId );
+                }
+            }
+            if ( cells.isEmpty() ) {
+                return;
+            }
+            final List<FlowField> fields = new ArrayList<>( cells.size() );
+            for ( CompletableFuture<FlowField> future : service.computeFlowFields( cells.toIntArray() ) ) {
+                fields.add( future.join() );
+            }
+            synchronized( this )
+            {
+                // fields computed across a mesh change may already be outdated
+                if ( generation == flowFieldsGeneration )
+                {
+                    final Int2ObjectOpenHashMap<FlowField> result = new Int2ObjectOpenHashMap<>( flowFields );
+                    for ( FlowField field : fields ) {
+                        result.put( field.getDestination(), field );
+                    }
+                    flowFields = result;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Precomputes flow fields for all depots and factories, their locations are
+     * where almost all robot trips end.
+     *
+     * @param world
+     * @see #addFlowFields(Collection)
+     */
+    public void addFlowFieldsForStationaryEntities(World world)
+    {
+        final List<Vec2D> destinations = new ArrayList<>();
+        world.visitEntities( entity ->
+        {
+            if ( entity instanceof Depot || entity instanceof Factory ) {
+                destinations.add( entity.position );
+            }
+        });
+        addFlowFields( destinations );
+    }
+
+    /**
+     * Returns the flow field for the cell containing a position.
+     *
+     * @param destination
+     * @return flow field or <code>null</code>
+     */
+    public FlowField getFlowField(Vec2D destination) {
+        return flowFields.get( toNodeId( destination ) );
+    }
+
+    /**
+     * Discards all flow fields, happens automatically when the mesh sends change notifications.
+     */
+    public synchronized void clearFlowFields()
+    {
+        flowFieldsGeneration++;
+        flowFields = Int2ObjectMaps.emptyMap();
+    }
+
+    /**
+     * Turns a route into the world coordinates a robot needs to move to, keeping
+     * only cells where the route changes direction. The final waypoint is the destination itself.
+     *
+     * @param route cells as returned by {@link #findRoute(Vec2D, Vec2D)}
+     * @param destination
+     * @return waypoints
+     */
+    public List<Vec2D> toWaypoints(List<Integer> route, Vec2D destination)
+    {
+        final List<Vec2D> result = new ArrayList<>();
+        for ( int i = 1, len = route.size() - 1 ; i < len ; i++ )
+        {
+            final int previous = route.get( i - 1 );
+            final int current = route.get( i );
+            final int next = route.get( i + 1 );
+            final int dx1 = GridNavMesh.extractX( current ) - GridNavMesh.extractX( previous );
+            final int dy1 = GridNavMesh.extractY( current ) - GridNavMesh.extractY( previous );
+            final int dx2 = GridNavMesh.extractX( next ) - GridNavMesh.extractX( current );
+            final int dy2 = GridNavMesh.extractY( next ) - GridNavMesh.extractY( current );
+            if ( dx1 != dx2 || dy1 != dy2 ) {
+                result.add( toWorld( current, new Vec2D() ) );
+            }
+        }
+        result.add( destination.cpy() );
+        return result;
+    }
+}
@@ -1,9 +1,9 @@
 package de.codesourcery.sim.pathfinding;
 
-import it.unimi.dsi.fastutil.ints.Int2IntArrayMap;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -14,24 +14,26 @@ import java.util.List;
  * are responsible for locating reachable neighbour nodes and
  * providing the 'g' and 'h' metrics for the A* path-finding algorithm.
  *
+ * If the mesh provides dense node indices (see {@link NavMesh#getIndexCount()}), the
+ * mapping from external to internal node IDs is kept in generation-stamped arrays
+ * so that starting a new search does not need to clear anything.
+ *
+ * {@link #findPathBidirectional(int, int, NavMesh, Spy)} grows a second search backwards from the destination,
+ * using another instance's node data as the backward frontier.
+ *
  * @author tobias.gierke@code-sourcery.de
  */
 public class AStar
 {
     private static final boolean DEBUG = false;
 
-    // max. number of nodes that may be visited
-    // Exceeding this number will make the min-heap crash
-    // as it uses a fixed-length array
-    private static final int MAX_NODES = 65535;
-
     // max. number of nodes any node in the NavMesh may have
     private static final int MAX_NEIGHBOURS = 8;
 
     // Until Java has value objects, I'm using
     // a single int[] array to hold all node data
     // to avoid pointer-chasing/cache-misses
-    private static final int NODE_DATA_SIZE = 5; // node ID,f,g,h
+    private static final int NODE_DATA_SIZE = 6; // node ID,parent,f,g,h,heap index
 
     // struct component IDs
     private static final int OFFSET_NODE_ID = 0;
@@ -39,12 +41,20 @@ public class AStar
     private static final int OFFSET_F = 2;
     private static final int OFFSET_G = 3;
     private static final int OFFSET_H = 4;
+    private static final int OFFSET_HEAP_IDX = 5;
+
+    // meshes with more nodes use the hash map instead, dense lookup arrays
+    // take 8 bytes per node of the mesh
+    private static final int MAX_DENSE_INDICES = 1 << 22;
+
+    // heap index of nodes on the close list
+    private static final int CLOSED = -1;
 
     // number of internal nodes allocated so far
     private int nodeCount;
 
-    // node data
-    private final int[] nodeData = new int[ MAX_NODES * NODE_DATA_SIZE ];
+    // node data, grows as needed
+    private int[] nodeData = new int[ 1024 * NODE_DATA_SIZE ];
 
     public interface Spy
     {
@@ -53,15 +63,32 @@ public class AStar
 
     private NavMesh navMesh;
 
-    // close list
-    // holds external IDs of visited nodes
-    private final IntOpenHashSet closedList = new IntOpenHashSet();
+    // internal node ID by dense index of external node,
+    // only valid where the stamp matches the current generation
+    private int[] internalIdByIndex = new int[0];
+    private int[] stampByIndex = new int[0];
+    private int generation;
+
+    // internal node ID by external node ID, used if the nav mesh has no dense indices
+    private final Int2IntOpenHashMap internalIdByNode = new Int2IntOpenHashMap();
+
+    private boolean useIndices;
 
     // open list
-    // key is external node ID, value is internal node ID
-    private final Int2IntArrayMap openList = new Int2IntArrayMap();
     private final MinHeap openListHeap = new MinHeap(1024);
 
+    private int expandedNodes;
+
+    // bidirectional search only, backward frontier and best path found so far
+    private AStar backward;
+    private int bestCost;
+    private int meetingNodeForward;
+    private int meetingNodeBackward;
+
+    public AStar() {
+        internalIdByNode.defaultReturnValue( -1 );
+    }
+
     /**
      * Reset internal state before initiating
      * a new path search.
@@ -69,9 +96,26 @@ public class AStar
     private void reset()
     {
         nodeCount = 0;
-        closedList.clear();
-        openList.clear();
         openListHeap.clear();
+
+        final int indexCount = navMesh.getIndexCount();
+        useIndices = indexCount > 0 && indexCount <= MAX_DENSE_INDICES;
+        if ( useIndices )
+        {
+            if ( stampByIndex.length < indexCount )
+            {
+                internalIdByIndex = new int[ indexCount ];
+                stampByIndex = new int[ indexCount ];
+                generation = 0;
+            }
+            if ( ++generation == 0 )
+            {
+                Arrays.fill( stampByIndex, 0 );
+                generation = 1;
+            }
+        } else {
+            internalIdByNode.clear();
+        }
     }
 
     private String nodeToString(int intNodeId) {
@@ -88,6 +132,7 @@ public class AStar
     {
         this.navMesh = navMesh;
         reset();
+        expandedNodes = 0;
         if ( startNodeExtId == dstNodeExtID ) {
             throw new IllegalArgumentException( "start = destination?" );
         }
@@ -98,11 +143,10 @@ public class AStar
         int h = navMesh.calcH( startNodeExtId, dstNodeExtID );
         setFGH( intNodeId, h,0,h );
         setParent( intNodeId,-1 ); // mark this is as the first node
-        putOnOpenList( intNodeId, startNodeExtId );
+        openListHeap.insert( intNodeId );
 
         final int[] neighbourCoords = new int[ MAX_NEIGHBOURS ];
         int currentSquareIntId;
-        int previousSquareIntId=-1;
 
         /*
          * 2. Repeat the following:
@@ -112,8 +156,12 @@ public class AStar
             /*
              * A) Look for the lowest F cost square on the open list.
              * We refer to this as the current square.
+             *
+             * B). Switch it to the closed list.
              */
             currentSquareIntId = openListHeap.remove(); // current square
+            setHeapIndex( currentSquareIntId, CLOSED );
+            expandedNodes++;
             final int currSquareExtId = getExternalNodeId( currentSquareIntId );
 
             if ( DEBUG && spy != null ) {
@@ -127,33 +175,24 @@ public class AStar
 
                 // we reached the destination
                 final List<Integer> result = new ArrayList<>();
-                result.add( currSquareExtId );
-                do {
-                    final int extId = getExternalNodeId( previousSquareIntId );
-                    result.add( extId );
-                    previousSquareIntId = getParent( previousSquareIntId );
-                } while ( previousSquareIntId != -1 );
+                for ( int node = currentSquareIntId ; node != -1 ; node = getParent( node ) ) {
+                    result.add( getExternalNodeId( node ) );
+                }
                 Collections.reverse(result);
                 return result;
             }
 
-            openList.remove( currSquareExtId );
-
-            /*
-             * B). Switch it to the closed list.
-             */
-            closedList.add( currSquareExtId );
-
             /*
 C) For each of the neighbours adjacent to the current square …
 
     If it is not walkable or if it is on the closed list, ignore it. Otherwise do the following.
              */
-            final int neighbourCount = navMesh.getNeighbours( currSquareExtId, closedList,neighbourCoords);
+            final int neighbourCount = navMesh.getNeighbours( currSquareExtId, neighbourCoords);
             for ( int i = 0 ; i < neighbourCount ; i++ )
             {
                 final int extId = neighbourCoords[i];
-                if ( ! openList.containsKey( extId ) )
+                final int childIntId = getInternalNodeId( extId );
+                if ( childIntId == -1 )
                 {
                     // neighbour is walkable, not on the close list and not on the open list
                     /*
@@ -166,8 +205,10 @@ C) For each of the neighbours adjacent to the current square …
                     h = navMesh.calcH( extId , dstNodeExtID );
                     setFGH( newIntNodeId, g+h, g, h);
                     setParent( newIntNodeId, currentSquareIntId );
-                    putOnOpenList( newIntNodeId,extId ); // do this last, depends on calculation of F
-                } else {
+                    openListHeap.insert( newIntNodeId ); // do this last, depends on calculation of F
+                }
+                else if ( getHeapIndex( childIntId ) != CLOSED )
+                {
                     // neighbour is walkable, not on the close list but on the open list
                     /*
     If it is on the open list already, check to see if this path to that square is better,
@@ -179,20 +220,15 @@ C) For each of the neighbours adjacent to the current square …
       you may need to resort the list to account for the change.
 
                      */
-                    final int childIntId = openList.get( extId );
-                    final int oldG = getG( currentSquareIntId );
-                    final int newG = getG( childIntId );
-                    if ( newG < oldG ) {
+                    final int g = calcG( currentSquareIntId, childIntId );
+                    if ( g < getG( childIntId ) ) {
                         setParent( childIntId, currentSquareIntId );
-                        final int g = calcG( currentSquareIntId, childIntId );
                         h = getH( childIntId );
                         setFGH( childIntId, g+h, g, h);
-                        openListHeap.remove( childIntId );
-                        openListHeap.insert( childIntId );
+                        openListHeap.decreaseKey( childIntId );
                     }
                 }
             }
-            previousSquareIntId = currentSquareIntId;
         }
 /*
 
@@ -206,11 +242,175 @@ D) Stop when you:
         return Collections.emptyList();
     }
 
+    /**
+     * Finds a shortest path by searching forwards from the start and backwards from the destination at
+     * the same time, always expanding the smaller frontier.
+     *
+     * Unlike {@link #findPath(int, int, NavMesh, Spy)} this uses {@link NavMesh#calcLowerBound(int, int)} as heuristic
+     * and keeps going after the frontiers first met until no shorter path can exist, so the result is optimal.
+     * The nav mesh must be undirected (a node is a neighbour of each of its neighbours, with the same cost both ways).
+     *
+     * Both directions use the average of the lower bounds towards either end as potential
+     * (<code>(lb(n,dst) - lb(n,start)) / 2</code> forwards, the negated value backwards), which turns the search into
+     * a bidirectional Dijkstra search on costs adjusted by the potential. That allows stopping as soon as the smallest
+     * keys of both frontiers add up to the cost of the best path found so far. To stay in integers, 'f' holds
+     * twice the adjusted cost and 'h' twice the potential.
+     *
+     * @param startNodeExtId
+     * @param dstNodeExtId
+     * @param navMesh
+     * @param spy optional, invoked for every node that gets expanded (in either direction) when debugging
+     * @return node IDs of all nodes along the path (including start and destination) or an empty list if there is no path
+     */
+    public List<Integer> findPathBidirectional(int startNodeExtId,int dstNodeExtId, NavMesh navMesh, Spy spy)
+    {
+        if ( startNodeExtId == dstNodeExtId ) {
+            throw new IllegalArgumentException( "start = destination?" );
+        }
+        if ( backward == null ) {
+            backward = new AStar();
+        }
+        this.navMesh = navMesh;
+        reset();
+        backward.navMesh = navMesh;
+        backward.reset();
+        expandedNodes = 0;
+        bestCost = Integer.MAX_VALUE;
+        meetingNodeForward = meetingNodeBackward = -1;
+
+        addStartNode( this, startNodeExtId, dstNodeExtId );
+        addStartNode( backward, dstNodeExtId, startNodeExtId );
+
+        final int[] neighbourCoords = new int[ MAX_NEIGHBOURS ];
+        while ( ! openListHeap.isEmpty() && ! backward.openListHeap.isEmpty() )
+        {
+            // any path not found yet is at least as expensive as the sum of both smallest keys
+            final long minF = (long) getF( openListHeap.peek() ) + backward.getF( backward.openListHeap.peek() );
+            if ( minF >= 2L * bestCost ) {
+                break;
+            }
+            if ( openListHeap.size() <= backward.openListHeap.size() ) {
+                expand( this, backward, startNodeExtId, dstNodeExtId, neighbourCoords, spy );
+            } else {
+                expand( backward, this, dstNodeExtId, startNodeExtId, neighbourCoords, spy );
+            }
+        }
+
+        if ( meetingNodeForward == -1 ) {
+            return Collections.emptyList();
+        }
+        final List<Integer> result = new ArrayList<>();
+        for ( int node = meetingNodeForward ; node != -1 ; node = getParent( node ) ) {
+            result.add( getExternalNodeId( node ) );
+        }
+        Collections.reverse( result );
+        for ( int node = backward.getParent( meetingNodeBackward ) ; node != -1 ; node = backward.getParent( node ) ) {
+            result.add( backward.getExternalNodeId( node ) );
+        }
+        return result;
+    }
+
+    private static void addStartNode(AStar side, int startNodeExtId, int targetNodeExtId)
+    {
+        final int intNodeId = side.createInternalNode( startNodeExtId );
+        final int h = side.potential( startNodeExtId, startNodeExtId, targetNodeExtId );
+        side.setFGH( intNodeId, h, 0, h );
+        side.setParent( intNodeId, -1 );
+        side.openListHeap.insert( intNodeId );
+    }
+
+    /*
+     * Expands the best node of one frontier of a bidirectional search and
+     * records the cheapest path through any node reached by both frontiers.
+     */
+    private void expand(AStar side, AStar other, int originNodeExtId, int targetNodeExtId, int[] neighbourCoords, Spy spy)
+    {
+        final int current = side.openListHeap.remove();
+        side.setHeapIndex( current, CLOSED );
+        final int currentExtId = side.getExternalNodeId( current );
+
+        // paths through nodes the other frontier already expanded have been recorded when it reached them
+        final int otherCurrent = other.getInternalNodeId( currentExtId );
+        if ( otherCurrent != -1 && other.getHeapIndex( otherCurrent ) == CLOSED ) {
+            return;
+        }
+        expandedNodes++;
+        if ( DEBUG && spy != null ) {
+            spy.visit( currentExtId, side.getF( current ), side.getG( current ), side.getH( current ), side.getParent( current ) );
+        }
+
+        final int neighbourCount = navMesh.getNeighbours( currentExtId, neighbourCoords );
+        for ( int i = 0 ; i < neighbourCount ; i++ )
+        {
+            final int extId = neighbourCoords[i];
+            final int g = side.getG( current ) + navMesh.calcG( currentExtId, extId );
+            int child = side.getInternalNodeId( extId );
+            if ( child == -1 )
+            {
+                if ( g + navMesh.calcLowerBound( extId, targetNodeExtId ) >= bestCost ) {
+                    // cannot lead to a shorter path
+                    continue;
+                }
+                final int h = side.potential( extId, originNodeExtId, targetNodeExtId );
+                child = side.createInternalNode( extId );
+                side.setFGH( child, 2 * g + h, g, h );
+                side.setParent( child, current );
+                side.openListHeap.insert( child );
+            }
+            else if ( side.getHeapIndex( child ) != CLOSED && g < side.getG( child ) )
+            {
+                final int h = side.getH( child );
+                side.setFGH( child, 2 * g + h, g, h );
+                side.setParent( child, current );
+                side.openListHeap.decreaseKey( child );
+            } else {
+                continue;
+            }
+
+            final int otherNode = other.getInternalNodeId( extId );
+            if ( otherNode != -1 && g + other.getG( otherNode ) < bestCost )
+            {
+                bestCost = g + other.getG( otherNode );
+                meetingNodeForward = side == this ? child : otherNode;
+                meetingNodeBackward = side == this ? otherNode : child;
+            }
+        }
+    }
+
+    // twice the potential of a node for the search direction going from origin to target
+    private int potential(int extNodeId, int originNodeExtId, int targetNodeExtId)
+    {
+        return navMesh.calcLowerBound( extNodeId, targetNodeExtId ) - navMesh.calcLowerBound( extNodeId, originNodeExtId );
+    }
+
+    /**
+     * Returns the number of nodes expanded by the last search.
+     */
+    public int getExpandedNodeCount() {
+        return expandedNodes;
+    }
+
     private int getExternalNodeId(int intNodeId)
     {
         return nodeData[ intNodeId * NODE_DATA_SIZE + OFFSET_NODE_ID ];
     }
 
+    /**
+     * Returns the internal node ID assigned to an external node during the current search.
+     *
+     * @param extNodeId
+     * @return internal node ID or -1
+     */
+    private int getInternalNodeId(int extNodeId)
+    {
+        if ( useIndices )
+        {
+            final int idx = navMesh.toIndex( extNodeId );
+            return stampByIndex[ idx ] == generation ? internalIdByIndex[ idx ] : -1;
+        }
+        return internalIdByNode.get( extNodeId );
+    }
+
     private int calcG(int nodeAIdx, int nodeBIdx)
     {
         final int extNodeIdA = getExternalNodeId( nodeAIdx );
@@ -244,16 +444,14 @@ D) Stop when you:
         return nodeData[ intNodeId * NODE_DATA_SIZE + OFFSET_PARENT ];
     }
 
-    /**
-     * Store a node on the open list.
-     *
-     * @param intNodeId
-     * @param extNodeId
-     */
-    private void putOnOpenList(int intNodeId,int extNodeId)
+    private int getHeapIndex(int intNodeId)
+    {
+        return nodeData[ intNodeId * NODE_DATA_SIZE + OFFSET_HEAP_IDX ];
+    }
+
+    private void setHeapIndex(int intNodeId, int heapIdx)
     {
-        openList.put(extNodeId,intNodeId);
-        openListHeap.insert(intNodeId);
+        nodeData[ intNodeId * NODE_DATA_SIZE + OFFSET_HEAP_IDX ] = heapIdx;
     }
 
     /**
@@ -263,8 +461,20 @@ D) Stop when you:
      */
     private int createInternalNode(int extNodeId)
     {
-        setExternalNodeId( nodeCount, extNodeId );
-        return nodeCount++;
+        if ( ( nodeCount + 1 ) * NODE_DATA_SIZE > nodeData.length ) {
+            nodeData = Arrays.copyOf( nodeData, nodeData.length * 2 );
+        }
+        final int intNodeId = nodeCount++;
+        setExternalNodeId( intNodeId, extNodeId );
+        if ( useIndices )
+        {
+            final int idx = navMesh.toIndex( extNodeId );
+            internalIdByIndex[ idx ] = intNodeId;
+            stampByIndex[ idx ] = generation;
+        } else {
+            internalIdByNode.put( extNodeId, intNodeId );
+        }
+        return intNodeId;
     }
 
     private void setExternalNodeId(int intNodeId, int extNodeId) {
@@ -285,136 +495,119 @@ D) Stop when you:
     }
 
     /*
-     * Taken from https://www.geeksforgeeks.org/min-heap-in-java/
-     * and bugfixed + adopted to store the internal node ID and
-     * resolve the A* 'f' value dynamically.
+     * Binary min-heap of internal node IDs ordered by their 'f' value (ties
+     * broken by 'h'), keeping track of each node's
+     * position in the heap so that its key can be decreased in O(log n).
      */
     final class MinHeap
     {
-        private static final int FRONT = 1;
-
-        private final int[] data;
-        private final int maxsize;
+        private int[] data;
 
         private int size;
 
-        public MinHeap(int maxsize)
+        public MinHeap(int initialCapacity)
         {
-            this.maxsize = maxsize;
-            data = new int[this.maxsize + 1];
-            clear();
+            data = new int[ initialCapacity ];
         }
 
         public void clear() {
             this.size = 0;
-            data[0] = Integer.MIN_VALUE;
         }
 
-        private float f(int idx)
+        private boolean less(int intNodeIdA, int intNodeIdB)
         {
-            if ( idx == 0 ) {
-                return Float.MIN_VALUE;
-            }
-            final int intNodeId = data[idx];
-            return nodeData[intNodeId*NODE_DATA_SIZE + OFFSET_F];
+            final int fA = getF( intNodeIdA );
+            final int fB = getF( intNodeIdB );
+            return fA < fB || ( fA == fB && getH( intNodeIdA ) < getH( intNodeIdB ) );
         }
 
-        private int parentIdx(int pos) { return pos / 2; }
-
-        private int leftChildIdx(int pos) { return (2 * pos); }
-
-        private int rightChildIdx(int pos) { return (2 * pos) + 1; }
-
-        private boolean isLeaf(int pos)
+        private void set(int pos, int intNodeId)
         {
-            return pos >= (size / 2) && pos <= size;
+            data[pos] = intNodeId;
+            setHeapIndex( intNodeId, pos );
         }
 
-        // Function to swap two nodes of the heap
-        private void swap(int fpos, int spos)
+        private void siftUp(int pos)
         {
-            final int tmp = data[fpos];
-            data[fpos] = data[spos];
-            data[spos] = tmp;
+            final int intNodeId = data[pos];
+            while ( pos > 0 )
+            {
+                final int parentPos = ( pos - 1 ) >>> 1;
+                final int parent = data[parentPos];
+                if ( ! less( intNodeId, parent ) ) {
+                    break;
+                }
+                set( pos, parent );
+                pos = parentPos;
+            }
+            set( pos, intNodeId );
         }
 
-        // Function to heapify the node at pos
-        private void minHeapify(int pos)
+        private void siftDown(int pos)
         {
-            // If the node is a non-leaf node and greater
-            // than any of its child
-            if ( ! isLeaf(pos) )
+            final int intNodeId = data[pos];
+            while ( true )
             {
-                final float leftValue = f( leftChildIdx( pos ) );
-                final float rightValue = f( rightChildIdx( pos ) );
-                if ( f(pos) > leftValue || f(pos) > rightValue ) {
-
-                    // Swap with the left child and heapify
-                    // the left child
-                    if ( leftValue < rightValue ) {
-                        swap(pos, leftChildIdx(pos));
-                        minHeapify(leftChildIdx(pos));
-                    }
-                    else
-                    {
-                        // Swap with the right child and heapify
-                        // the right child
-                        swap(pos, rightChildIdx(pos));
-                        minHeapify(rightChildIdx(pos));
-                    }
+                int child = 2 * pos + 1;
+                if ( child >= size ) {
+                    break;
+                }
+                if ( child + 1 < size && less( data[child+1], data[child] ) ) {
+                    child++;
                 }
+                if ( ! less( data[child], intNodeId ) ) {
+                    break;
+                }
+                set( pos, data[child] );
+                pos = child;
             }
+            set( pos, intNodeId );
         }
 
-        // Function to insert a node into the heap
-        public void insert(int element)
+        public void insert(int intNodeId)
         {
-            if ((size+1) >= maxsize) {
-                throw new IllegalStateException("min-heap full");
-            }
-            data[++size] = element;
-
-            if ( size > 1 )
-            {
-                int current = size;
-                while ( f( current ) < f( parentIdx( current ) ) )
-                {
-                    swap( current, parentIdx( current ) );
-                    current = parentIdx( current );
-                }
+            if ( size == data.length ) {
+                data = Arrays.copyOf( data, size * 2 );
             }
+            data[size] = intNodeId;
+            siftUp( size++ );
         }
 
-        // Function to remove and return the minimum
-        // element from the heap
+        /**
+         * Removes and returns the node with the lowest 'f' value.
+         */
         public int remove()
         {
-            int popped = data[FRONT];
-            data[FRONT] = data[size--];
-            if ( size > 1 )
+            final int popped = data[0];
+            if ( --size > 0 )
             {
-                minHeapify( FRONT );
+                data[0] = data[size];
+                siftDown( 0 );
             }
             return popped;
         }
 
-        public void remove(int idx)
+        /**
+         * Restores heap order after the 'f' value of a node on the heap got smaller.
+         */
+        public void decreaseKey(int intNodeId)
         {
-            for ( int i = 1 ; i < size ; i++ )
-            {
-                if ( data[i] == idx )
-                {
-                    data[i] = data[size--];
-                    if ( size > 1 )
-                    {
-                        minHeapify( i );
-                    }
-                }
-            }
+            siftUp( getHeapIndex( intNodeId ) );
         }
 
         public boolean isEmpty() {
             return size == 0;
         }
+
+        /**
+         * Returns the node with the lowest 'f' value without removing it.
+         */
+        public int peek() {
+            return data[0];
+        }
+
+        public int size() {
+            return size;
+        }
     }
-}
\ No newline at end of file
+}
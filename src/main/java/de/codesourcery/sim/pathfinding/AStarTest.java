@@ -26,17 +26,7 @@ public class AStarTest extends JFrame
     private static final int GRID_WIDTH = 256;
     private static final int GRID_HEIGHT = 256;
 
-    private final boolean[][] data;
-
-    private final GridNavMesh mesh =
-            new GridNavMesh()
-            {
-                @Override
-                public boolean isWalkable(int x, int y)
-                {
-                    return x >= 0 && x < GRID_WIDTH && y >= 0 && y < GRID_HEIGHT && ! data[x][y];
-                }
-            };
+    private final BitGridNavMesh mesh = new BitGridNavMesh( GRID_WIDTH, GRID_HEIGHT );
 
     private final MyPanel panel = new MyPanel();
 
@@ -119,7 +109,7 @@ public class AStarTest extends JFrame
 
                     if ( e.getButton() == 1 )
                     {
-                        data[x][y] = ! data[x][y];
+                        mesh.setWalkable( x, y, ! mesh.isWalkable( x, y ) );
                         repaint();
                     }
                     else if ( e.getButton() == 3 ) {
@@ -177,7 +167,7 @@ public class AStarTest extends JFrame
             {
                 for (int x = 0; x < GRID_WIDTH; x++)
                 {
-                    if ( data[x][y] ) {
+                    if ( ! mesh.isWalkable( x, y ) ) {
                         g.fillRect( x*w, y*h, w , h );
                     } else {
                         g.drawRect( x*w, y*h, w , h );
@@ -190,8 +180,6 @@ public class AStarTest extends JFrame
 
     public AStarTest() throws HeadlessException
     {
-        data = new boolean[ GRID_WIDTH ][GRID_HEIGHT];
-
         if ( RANDOM_DATA ) {
             Random rnd = new Random(0xdeadbeef);
             for ( int y = 0 ; y < GRID_HEIGHT ; y++ )
@@ -199,7 +187,7 @@ public class AStarTest extends JFrame
                 for (int x = 0; x < GRID_WIDTH; x++)
                 {
                     if ( rnd.nextFloat() > 0.5f ) {
-                        data[x][y] = true;
+                        mesh.setWalkable( x, y, false );
                     }
                 }
             }
@@ -0,0 +1,116 @@
+package de.codesourcery.sim.pathfinding;
+
+/**
+ * Grid nav mesh that stores one bit per cell.
+ *
+ * Cells are grouped into tiles of 64x64 cells, each tile takes up 64 consecutive longs (one per row,
+ * bit <code>n</code> being column <code>n</code> of the tile), tiles are stored row by row. Cells that
+ * are close to each other thus share cache lines no matter whether they are horizontal or vertical neighbours.
+ *
+ * A set bit means the cell is blocked. Padding cells of tiles extending past the right/bottom edge of the
+ * grid are always blocked so that neighbour lookups need no bounds checks inside the grid.
+ *
+ * Subclasses decide where the longs are stored.
+ */
+public abstract class AbstractBitGridNavMesh extends GridNavMesh
+{
+    public static final int TILE_SIZE = 64;
+
+    protected static final int TILE_SHIFT = 6;
+    protected static final int TILE_MASK = TILE_SIZE - 1;
+
+    protected final int tilesX;
+    protected final int tilesY;
+
+    protected AbstractBitGridNavMesh(int width, int height)
+    {
+        super( width, height );
+        tilesX = ( width + TILE_MASK ) >>> TILE_SHIFT;
+        tilesY = ( height + TILE_MASK ) >>> TILE_SHIFT;
+    }
+
+    /**
+     * Returns the number of longs needed to store a grid.
+     */
+    public static int getWordCount(int width, int height)
+    {
+        return ( ( width + TILE_MASK ) >>> TILE_SHIFT ) * ( ( height + TILE_MASK ) >>> TILE_SHIFT ) * TILE_SIZE;
+    }
+
+    /**
+     * Returns the number of longs used to store this grid.
+     */
+    public int getWordCount() {
+        return tilesX * tilesY * TILE_SIZE;
+    }
+
+    /**
+     * Returns a long of the bitset.
+     *
+     * @param index 0...{@link #getWordCount()}-1
+     */
+    public abstract long getWord(int index);
+
+    protected final int wordIndex(int x, int y) {
+        return ( ( y >>> TILE_SHIFT ) * tilesX + ( x >>> TILE_SHIFT ) ) * TILE_SIZE + ( y & TILE_MASK );
+    }
+
+    @Override
+    public boolean isWalkable(int x, int y)
+    {
+        if ( x < 0 || y < 0 || x >= getWidth() || y >= getHeight() ) {
+            return false;
+        }
+        return ( getWord( wordIndex( x, y ) ) & 1L << ( x & TILE_MASK ) ) == 0;
+    }
+
+    // blocked bits of cells x-1, x, x+1 in row y (bits 0...2), cells outside the grid are blocked
+    private int blockedTriple(int x, int y)
+    {
+        if ( y < 0 || y >= getHeight() ) {
+            return 7;
+        }
+        final int bit = x & TILE_MASK;
+        if ( bit != 0 && bit != TILE_MASK ) {
+            return (int) ( getWord( wordIndex( x, y ) ) >>> ( bit - 1 ) ) & 7;
+        }
+        // crosses a tile boundary
+        return ( isWalkable( x - 1, y ) ? 0 : 1 ) |
+               ( isWalkable( x, y ) ? 0 : 2 ) |
+               ( isWalkable( x + 1, y ) ? 0 : 4 );
+    }
+
+    /**
+     * Returns which of the 8 neighbours of a cell are walkable.
+     *
+     * @param x
+     * @param y
+     * @return bit <code>i</code> is set if the i-th neighbour is walkable, neighbours are numbered
+     * in the order returned by {@link #getNeighbours(int, int[])} (top-left, top, top-right, left, right,
+     * bottom-left, bottom, bottom-right)
+     */
+    public int getNeighbourMask(int x, int y)
+    {
+        final int top = blockedTriple( x, y - 1 );
+        final int middle = blockedTriple( x, y );
+        final int bottom = blockedTriple( x, y + 1 );
+        final int blocked = top | ( middle & 1 ) << 3 | ( middle & 4 ) << 2 | bottom << 5;
+        return ~blocked & 0xff;
+    }
+
+    @Override
+    public int getNeighbours(int nodeId, int[] result)
+    {
+        final int x = extractX( nodeId );
+        final int y = extractY( nodeId );
+        int mask = getNeighbourMask( x, y );
+        int count = 0;
+        while ( mask != 0 )
+        {
+            final int dir = Integer.numberOfTrailingZeros( mask );
+            result[count++] = toNodeID( x + DX[dir], y + DY[dir] );
+            mask &= mask - 1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,127 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Modifiable grid nav mesh that keeps its bitset (see {@link AbstractBitGridNavMesh}) on the heap.
+ *
+ * Newly created meshes are completely walkable. Registered {@link ChangeListener}s get notified whenever
+ * cells change. Not thread-safe, the mesh must not be modified while searches are running.
+ */
+public class BitGridNavMesh extends AbstractBitGridNavMesh
+{
+    private final long[] bits;
+
+    /**
+     * Create a completely walkable grid.
+     *
+     * @param width
+     * @param height
+     */
+    public BitGridNavMesh(int width, int height)
+    {
+        super( width, height );
+        bits = new long[ getWordCount() ];
+        blockPadding();
+    }
+
+    /**
+     * Create a copy of another grid.
+     *
+     * @param other grid with known width and height
+     * @return copy
+     */
+    public static BitGridNavMesh copyOf(GridNavMesh other)
+    {
+        final BitGridNavMesh result = new BitGridNavMesh( other.getWidth(), other.getHeight() );
+        if ( other instanceof AbstractBitGridNavMesh )
+        {
+            final AbstractBitGridNavMesh bitMesh = (AbstractBitGridNavMesh) other;
+            for ( int i = 0 ; i < result.bits.length ; i++ ) {
+                result.bits[i] = bitMesh.getWord( i );
+            }
+            return result;
+        }
+        for ( int y = 0 ; y < result.getHeight() ; y++ )
+        {
+            for ( int x = 0 ; x < result.getWidth() ; x++ )
+            {
+                if ( ! other.isWalkable( x, y ) ) {
+                    result.setWalkable( x, y, false );
+                }
+            }
+        }
+        return result;
+    }
+
+    private void blockPadding()
+    {
+        final int paddedWidth = tilesX * TILE_SIZE;
+        final int paddedHeight = tilesY * TILE_SIZE;
+        if ( paddedWidth > getWidth() ) {
+            fill( getWidth(), 0, paddedWidth - 1, paddedHeight - 1, true );
+        }
+        if ( paddedHeight > getHeight() ) {
+            fill( 0, getHeight(), paddedWidth - 1, paddedHeight - 1, true );
+        }
+    }
+
+    @Override
+    public long getWord(int index) {
+        return bits[index];
+    }
+
+    public void setWalkable(int x, int y, boolean walkable)
+    {
+        Validate.isTrue( x >= 0 && y >= 0 && x < getWidth() && y < getHeight(), "Cell outside of grid: "+x+","+y );
+        final int idx = wordIndex( x, y );
+        final long mask = 1L << ( x & TILE_MASK );
+        final long oldValue = bits[idx];
+        bits[idx] = walkable ? oldValue & ~mask : oldValue | mask;
+        if ( bits[idx] != oldValue ) {
+            fireWalkabilityChanged( x, y, 1, 1 );
+        }
+    }
+
+    /**
+     * Changes all cells of a rectangle, parts outside the grid are ignored.
+     *
+     * @param x left column
+     * @param y top row
+     * @param width
+     * @param height
+     * @param walkable
+     */
+    public void setWalkable(int x, int y, int width, int height, boolean walkable)
+    {
+        Validate.isTrue( width >= 0 && height >= 0, "width and height must be >= 0" );
+        final int x0 = Math.max( 0, x );
+        final int y0 = Math.max( 0, y );
+        final int x1 = (int) Math.min( getWidth() - 1L, (long) x + width - 1 );
+        final int y1 = (int) Math.min( getHeight() - 1L, (long) y + height - 1 );
+        if ( x0 <= x1 && y0 <= y1 && fill( x0, y0, x1, y1, ! walkable ) ) {
+            fireWalkabilityChanged( x0, y0, x1 - x0 + 1, y1 - y0 + 1 );
+        }
+    }
+
+    // sets or clears bits x0...x1 of rows y0...y1 (inclusive), one long per tile row.
+    // Returns whether any bit changed.
+    private boolean fill(int x0, int y0, int x1, int y1, boolean set)
+    {
+        boolean changed = false;
+        for ( int y = y0 ; y <= y1 ; y++ )
+        {
+            for ( int tileStart = x0 & ~TILE_MASK ; tileStart <= x1 ; tileStart += TILE_SIZE )
+            {
+                final int from = Math.max( x0, tileStart ) & TILE_MASK;
+                final int to = Math.min( x1, tileStart + TILE_MASK ) & TILE_MASK;
+                final long mask = ( -1L >>> ( TILE_MASK - to ) ) & ( -1L << from );
+                final int idx = wordIndex( tileStart, y );
+                final long oldValue = bits[idx];
+                bits[idx] = set ? oldValue | mask : oldValue & ~mask;
+                changed |= bits[idx] != oldValue;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,496 @@
+package de.codesourcery.sim.pathfinding;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental path planner (D* Lite, Koenig &amp; Likhachev 2002) for a single agent moving to a fixed goal
+ * on a {@link GridNavMesh}.
+ *
+ * Searches backwards from the goal and keeps its state between queries. Register the planner as the mesh's
+ * {@link GridNavMesh.ChangeListener}, after cells changed the next {@link #findPath()} only updates nodes whose cost to
+ * the goal is affected by the change. The agent may move in between ({@link #setStart(int)}) without invalidating
+ * anything. Changes of cells that are neither known to the search nor next to one are ignored, the search
+ * sees their current walkability once it gets there. The mesh keeps registered planners alive, remove planners
+ * that are no longer needed with {@link GridNavMesh#removeChangeListener(GridNavMesh.ChangeListener)}.
+ *
+ * Uses the mesh's {@link GridNavMesh#calcG(int, int)} move costs and {@link GridNavMesh#calcLowerBound(int, int)}
+ * as heuristic, paths are optimal. State is kept in hash maps, memory use grows with the number of nodes
+ * the search touched and not with the size of the grid.
+ *
+ * Instances are not thread-safe.
+ */
+public class DStarLite implements GridNavMesh.ChangeListener
+{
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    private final GridNavMesh mesh;
+    private final int goal;
+    private int start;
+    private int lastStart;
+
+    // added to all keys so that existing keys stay valid when the start moves
+    private int keyModifier;
+
+    // cost to goal, 'rhs' is the one-step lookahead based on the neighbours' 'g' values.
+    // Nodes where both differ are on the open list.
+    private final Int2IntOpenHashMap g = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap rhs = new Int2IntOpenHashMap();
+
+    private final OpenList openList = new OpenList();
+
+    // cells that changed since the last search
+    private final IntOpenHashSet changedCells = new IntOpenHashSet();
+
+    private final int[] neighbours = new int[8];
+    private final int[] predecessors = new int[8];
+
+    private int updatedNodes;
+
+    /**
+     * Create planner.
+     *
+     * @param mesh
+     * @param startNodeId
+     * @param goalNodeId
+     */
+    public DStarLite(GridNavMesh mesh, int startNodeId, int goalNodeId)
+    {
+        Validate.notNull( mesh, "mesh must not be null" );
+        this.mesh = mesh;
+        this.start = this.lastStart = startNodeId;
+        this.goal = goalNodeId;
+
+        g.defaultReturnValue( INFINITY );
+        rhs.defaultReturnValue( INFINITY );
+        rhs.put( goal, 0 );
+        openList.insertOrUpdate( goal, calculateKey( goal ) );
+    }
+
+    public int getGoal() {
+        return goal;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Updates the agent's current position.
+     *
+     * @param startNodeId
+     */
+    public void setStart(int startNodeId) {
+        this.start = startNodeId;
+    }
+
+    @Override
+    public void walkabilityChanged(GridNavMesh changedMesh, int x, int y, int width, int height)
+    {
+        if ( changedMesh != mesh ) {
+            return;
+        }
+        // only cells next to nodes with search state matter, look at whichever is smaller
+        if ( (long) width * height <= g.size() + rhs.size() )
+        {
+            for ( int dy = 0 ; dy < height ; dy++ )
+            {
+                for ( int dx = 0 ; dx < width ; dx++ )
+                {
+                    if ( hasStateAround( x + dx, y + dy ) ) {
+                        changedCells.add( GridNavMesh.toNodeID( x + dx, y + dy ) );
+                    }
+                }
+            }
+        }
+        else
+        {
+            addChangedCellsAround( g.keySet().iterator(), x, y, width, height );
+            addChangedCellsAround( rhs.keySet().iterator(), x, y, width, height );
+        }
+    }
+
+    // whether the cell or any of its neighbours has search state
+    private boolean hasStateAround(int cellX, int cellY)
+    {
+        for ( int ny = cellY - 1 ; ny <= cellY + 1 ; ny++ )
+        {
+            for ( int nx = cellX - 1 ; nx <= cellX + 1 ; nx++ )
+            {
+                if ( nx >= 0 && ny >= 0 )
+                {
+                    final int nodeId = GridNavMesh.toNodeID( nx, ny );
+                    if ( g.containsKey( nodeId ) || rhs.containsKey( nodeId ) ) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // adds all cells of the changed rectangle that are next to one of the nodes
+    private void addChangedCellsAround(IntIterator nodes, int x, int y, int width, int height)
+    {
+        while ( nodes.hasNext() )
+        {
+            final int nodeId = nodes.nextInt();
+            final int nodeX = GridNavMesh.extractX( nodeId );
+            final int nodeY = GridNavMesh.extractY( nodeId );
+            final int minX = Math.max( x, nodeX - 1 );
+            final int maxX = Math.min( x + width - 1, nodeX + 1 );
+            final int minY = Math.max( y, nodeY - 1 );
+            final int maxY = Math.min( y + height - 1, nodeY + 1 );
+            for ( int cellY = minY ; cellY <= maxY ; cellY++ )
+            {
+                for ( int cellX = minX ; cellX <= maxX ; cellX++ ) {
+                    changedCells.add( GridNavMesh.toNodeID( cellX, cellY ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the shortest path from the current start to the goal, reusing the previous search's results.
+     *
+     * @return node IDs of all cells along the path (including start and goal) or an empty list if there is
+     * no path or the start is the goal
+     */
+    public List<Integer> findPath()
+    {
+        update();
+        if ( start == goal || g.get( start ) == INFINITY ) {
+            return Collections.emptyList();
+        }
+        final IntArrayList result = new IntArrayList();
+        result.add( start );
+        for ( int current = start ; current != goal ; )
+        {
+            current = bestNeighbour( current );
+            // every step decreases the cost to the goal, so the path can't be longer than the number of known nodes
+            if ( current == -1 || result.size() > g.size() ) {
+                throw new IllegalStateException( "Inconsistent search state, no path from " + start + " to " + goal );
+            }
+            result.add( current );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first step of the shortest path from the current start to the goal.
+     *
+     * @return node ID of the cell to move to or -1 if there is no path or the start is the goal
+     */
+    public int getNextNode()
+    {
+        update();
+        if ( start == goal || g.get( start ) == INFINITY ) {
+            return -1;
+        }
+        return bestNeighbour( start );
+    }
+
+    /**
+     * Returns the number of nodes taken off the open list while updating the search state for the
+     * last query.
+     */
+    public int getUpdatedNodeCount() {
+        return updatedNodes;
+    }
+
+    private void update()
+    {
+        if ( start != lastStart )
+        {
+            keyModifier += mesh.calcLowerBound( lastStart, start );
+            lastStart = start;
+        }
+        if ( ! changedCells.isEmpty() )
+        {
+            // a changed cell changes the cost of all moves from/to it
+            final IntOpenHashSet affected = new IntOpenHashSet();
+            for ( IntIterator it = changedCells.iterator() ; it.hasNext() ; )
+            {
+                final int cell = it.nextInt();
+                affected.add( cell );
+                final int count = mesh.getNeighbours( cell, neighbours );
+                for ( int i = 0 ; i < count ; i++ ) {
+                    affected.add( neighbours[i] );
+                }
+            }
+            changedCells.clear();
+            for ( IntIterator it = affected.iterator() ; it.hasNext() ; )
+            {
+                final int node = it.nextInt();
+                if ( node != goal ) {
+                    setRhs( node, calculateRhs( node ) );
+                }
+                updateVertex( node );
+            }
+        }
+        computeShortestPath();
+    }
+
+    private void computeShortestPath()
+    {
+        updatedNodes = 0;
+        while ( ! openList.isEmpty() &&
+                ( openList.topKey() < calculateKey( start ) || rhs.get( start ) != g.get( start ) ) )
+        {
+            final int u = openList.top();
+            final long oldKey = openList.topKey();
+            final long newKey = calculateKey( u );
+            updatedNodes++;
+
+            if ( oldKey < newKey )
+            {
+                openList.insertOrUpdate( u, newKey );
+                continue;
+            }
+
+            final int count = predecessors( u );
+            final int gOld = g.get( u );
+            if ( gOld > rhs.get( u ) )
+            {
+                // cost got smaller
+                setG( u, rhs.get( u ) );
+                openList.remove( u );
+                for ( int i = 0 ; i < count ; i++ )
+                {
+                    final int s = predecessors[i];
+                    if ( s != goal ) {
+                        setRhs( s, Math.min( rhs.get( s ), add( cost( s, u ), g.get( u ) ) ) );
+                    }
+                    updateVertex( s );
+                }
+            }
+            else
+            {
+                // cost got larger, nodes that depended on u need a different successor
+                setG( u, INFINITY );
+                for ( int i = 0 ; i < count ; i++ )
+                {
+                    final int s = predecessors[i];
+                    if ( s != goal && rhs.get( s ) == add( cost( s, u ), gOld ) ) {
+                        setRhs( s, calculateRhs( s ) );
+                    }
+                    updateVertex( s );
+                }
+                if ( u != goal ) {
+                    setRhs( u, calculateRhs( u ) );
+                }
+                updateVertex( u );
+            }
+        }
+    }
+
+    // moves are symmetric, so predecessors are the walkable neighbours
+    private int predecessors(int nodeId) {
+        return mesh.getNeighbours( nodeId, predecessors );
+    }
+
+    private int bestNeighbour(int nodeId)
+    {
+        if ( ! isWalkable( nodeId ) ) {
+            return -1;
+        }
+        int best = -1;
+        int bestCost = INFINITY;
+        final int count = mesh.getNeighbours( nodeId, neighbours );
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            final int c = add( mesh.calcG( nodeId, neighbours[i] ), g.get( neighbours[i] ) );
+            if ( c < bestCost )
+            {
+                bestCost = c;
+                best = neighbours[i];
+            }
+        }
+        return best;
+    }
+
+    private int calculateRhs(int nodeId)
+    {
+        if ( ! isWalkable( nodeId ) ) {
+            return INFINITY;
+        }
+        int result = INFINITY;
+        final int count = mesh.getNeighbours( nodeId, neighbours );
+        for ( int i = 0 ; i < count ; i++ ) {
+            result = Math.min( result, add( mesh.calcG( nodeId, neighbours[i] ), g.get( neighbours[i] ) ) );
+        }
+        return result;
+    }
+
+    private void updateVertex(int nodeId)
+    {
+        if ( g.get( nodeId ) != rhs.get( nodeId ) ) {
+            openList.insertOrUpdate( nodeId, calculateKey( nodeId ) );
+        } else {
+            openList.remove( nodeId );
+        }
+    }
+
+    // (min(g,rhs) + h + keyModifier, min(g,rhs)) packed into a long
+    private long calculateKey(int nodeId)
+    {
+        final int min = Math.min( g.get( nodeId ), rhs.get( nodeId ) );
+        if ( min == INFINITY ) {
+            return Long.MAX_VALUE;
+        }
+        return (long) ( min + mesh.calcLowerBound( start, nodeId ) + keyModifier ) << 32 | min;
+    }
+
+    // cost of moving from a to its neighbour b
+    private int cost(int a,int b) {
+        return isWalkable( a ) && isWalkable( b ) ? mesh.calcG( a, b ) : INFINITY;
+    }
+
+    private boolean isWalkable(int nodeId) {
+        return mesh.isWalkable( GridNavMesh.extractX( nodeId ), GridNavMesh.extractY( nodeId ) );
+    }
+
+    private static int add(int a,int b) {
+        return a == INFINITY || b == INFINITY ? INFINITY : a + b;
+    }
+
+    private void setG(int nodeId,int value)
+    {
+        if ( value == INFINITY ) {
+            g.remove( nodeId );
+        } else {
+            g.put( nodeId, value );
+        }
+    }
+
+    private void setRhs(int nodeId,int value)
+    {
+        if ( value == INFINITY ) {
+            rhs.remove( nodeId );
+        } else {
+            rhs.put( nodeId, value );
+        }
+    }
+
+    /*
+     * Binary min-heap of node IDs with their keys, keeping track of each node's
+     * position so that nodes can be updated and removed in O(log n).
+     */
+    private static final class OpenList
+    {
+        private int[] nodes = new int[64];
+        private long[] keys = new long[64];
+        private int size;
+
+        private final Int2IntOpenHashMap positions = new Int2IntOpenHashMap();
+
+        public OpenList() {
+            positions.defaultReturnValue( -1 );
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int top() {
+            return nodes[0];
+        }
+
+        public long topKey() {
+            return keys[0];
+        }
+
+        public void insertOrUpdate(int nodeId,long key)
+        {
+            final int pos = positions.get( nodeId );
+            if ( pos == -1 )
+            {
+                if ( size == nodes.length )
+                {
+                    nodes = Arrays.copyOf( nodes, size * 2 );
+                    keys = Arrays.copyOf( keys, size * 2 );
+                }
+                set( size, nodeId, key );
+                siftUp( size++ );
+                return;
+            }
+            final long oldKey = keys[pos];
+            keys[pos] = key;
+            if ( key < oldKey ) {
+                siftUp( pos );
+            } else {
+                siftDown( pos );
+            }
+        }
+
+        public void remove(int nodeId)
+        {
+            final int pos = positions.remove( nodeId );
+            if ( pos == -1 ) {
+                return;
+            }
+            if ( pos != --size )
+            {
+                final long oldKey = keys[pos];
+                set( pos, nodes[size], keys[size] );
+                if ( keys[pos] < oldKey ) {
+                    siftUp( pos );
+                } else {
+                    siftDown( pos );
+                }
+            }
+        }
+
+        private void set(int pos,int nodeId,long key)
+        {
+            nodes[pos] = nodeId;
+            keys[pos] = key;
+            positions.put( nodeId, pos );
+        }
+
+        private void siftUp(int pos)
+        {
+            final int nodeId = nodes[pos];
+            final long key = keys[pos];
+            while ( pos > 0 )
+            {
+                final int parent = ( pos - 1 ) >>> 1;
+                if ( keys[parent] <= key ) {
+                    break;
+                }
+                set( pos, nodes[parent], keys[parent] );
+                pos = parent;
+            }
+            set( pos, nodeId, key );
+        }
+
+        private void siftDown(int pos)
+        {
+            final int nodeId = nodes[pos];
+            final long key = keys[pos];
+            while ( true )
+            {
+                int child = 2 * pos + 1;
+                if ( child >= size ) {
+                    break;
+                }
+                if ( child + 1 < size && keys[child + 1] < keys[child] ) {
+                    child++;
+                }
+                if ( keys[child] >= key ) {
+                    break;
+                }
+                set( pos, nodes[child], keys[child] );
+                pos = child;
+            }
+            set( pos, nodeId, key );
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package de.codesourcery.sim.pathfinding;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Distances from every cell of a {@link GridNavMesh} to a single destination cell, together with
+ * the direction to move in to get closer.
+ *
+ * Computed once with Dijkstra's algorithm starting at the destination, afterwards the next step
+ * towards the destination can be looked up in constant time from any cell. Uses the same
+ * 8-way connectivity as {@link GridNavMesh#getNeighbours(int, int[])} (diagonal moves may cut corners)
+ * with uniform straight/diagonal move costs, the mesh must not change while the field is in use.
+ *
+ * Needs 5 bytes per cell of the mesh. Instances are immutable and may be shared between threads.
+ */
+public class FlowField
+{
+    /**
+     * Distance of cells the destination cannot be reached from.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final byte NO_DIRECTION = -1;
+
+    // opposite of each of the directions GridNavMesh.DX/DY move in
+    private static final byte[] OPPOSITE = { 7, 6, 5, 4, 3, 2, 1, 0 };
+
+    private final int destination;
+    private final int width;
+    private final int height;
+    private final int[] distance;
+    private final byte[] direction;
+
+    private FlowField(int destination, int width, int height)
+    {
+        this.destination = destination;
+        this.width = width;
+        this.height = height;
+        this.distance = new int[ width * height ];
+        this.direction = new byte[ width * height ];
+        Arrays.fill( distance, UNREACHABLE );
+        Arrays.fill( direction, NO_DIRECTION );
+    }
+
+    /**
+     * Computes the flow field for a destination.
+     *
+     * @param mesh mesh with known width and height
+     * @param dstNodeId destination, must be walkable
+     * @return flow field
+     */
+    public static FlowField compute(GridNavMesh mesh, int dstNodeId)
+    {
+        Validate.notNull( mesh, "mesh must not be null" );
+        final int width = mesh.getWidth();
+        final int height = mesh.getHeight();
+        Validate.isTrue( width > 0 && height > 0, "mesh needs to have a known size" );
+        final int dstX = GridNavMesh.extractX( dstNodeId );
+        final int dstY = GridNavMesh.extractY( dstNodeId );
+        Validate.isTrue( dstX < width && dstY < height && mesh.isWalkable( dstX, dstY ),
+            "destination must be a walkable cell" );
+
+        final FlowField field = new FlowField( dstNodeId, width, height );
+        final int[] distance = field.distance;
+        final byte[] direction = field.direction;
+
+        final boolean[] walkable = new boolean[ width * height ];
+        for ( int y = 0, idx = 0 ; y < height ; y++ )
+        {
+            for ( int x = 0 ; x < width ; x++ ) {
+                walkable[ idx++ ] = mesh.isWalkable( x, y );
+            }
+        }
+
+        // move costs are small integers so a bucket queue (Dial's algorithm) can be used instead of a heap,
+        // all queued cells have a distance between the current one and current + GridNavMesh.DIAGONAL_COST.
+        // Cells get queued again when their distance decreases, outdated entries are skipped.
+        final IntArrayList[] buckets = new IntArrayList[ GridNavMesh.DIAGONAL_COST + 1 ];
+        for ( int i = 0 ; i < buckets.length ; i++ ) {
+            buckets[i] = new IntArrayList();
+        }
+        final int dstIdx = dstY * width + dstX;
+        distance[ dstIdx ] = 0;
+        buckets[0].add( dstIdx );
+        int queued = 1;
+
+        for ( int dist = 0 ; queued > 0 ; dist++ )
+        {
+            final IntArrayList bucket = buckets[ dist % buckets.length ];
+            for ( int b = 0, len = bucket.size() ; b < len ; b++ )
+            {
+                queued--;
+                final int idx = bucket.getInt( b );
+                if ( distance[ idx ] != dist ) {
+                    continue;
+                }
+                final int x = idx % width;
+                final int y = idx / width;
+                for ( int dir = 0 ; dir < GridNavMesh.DX.length ; dir++ )
+                {
+                    final int nx = x + GridNavMesh.DX[dir];
+                    final int ny = y + GridNavMesh.DY[dir];
+                    if ( nx < 0 || ny < 0 || nx >= width || ny >= height ) {
+                        continue;
+                    }
+                    final int nIdx = ny * width + nx;
+                    final int newDist = dist + GridNavMesh.STEP_COST[dir];
+                    if ( walkable[ nIdx ] && newDist < distance[ nIdx ] )
+                    {
+                        distance[ nIdx ] = newDist;
+                        // neighbour needs to move back to the current cell
+                        direction[ nIdx ] = OPPOSITE[ dir ];
+                        buckets[ newDist % buckets.length ].add( nIdx );
+                        queued++;
+                    }
+                }
+            }
+            bucket.clear();
+        }
+        return field;
+    }
+
+    private int toIndex(int nodeId)
+    {
+        final int x = GridNavMesh.extractX( nodeId );
+        final int y = GridNavMesh.extractY( nodeId );
+        return x < width && y < height ? y * width + x : -1;
+    }
+
+    public int getDestination() {
+        return destination;
+    }
+
+    /**
+     * Returns the cost of moving from a cell to the destination.
+     *
+     * @param nodeId
+     * @return cost or {@link #UNREACHABLE}
+     */
+    public int getDistance(int nodeId)
+    {
+        final int idx = toIndex( nodeId );
+        return idx == -1 ? UNREACHABLE : distance[ idx ];
+    }
+
+    public boolean isReachable(int nodeId) {
+        return getDistance( nodeId ) != UNREACHABLE;
+    }
+
+    /**
+     * Returns the cell to move to next.
+     *
+     * @param nodeId
+     * @return node ID of the next cell or -1 if the cell is the destination or the destination cannot be reached from it
+     */
+    public int getNextNode(int nodeId)
+    {
+        final int idx = toIndex( nodeId );
+        if ( idx == -1 || direction[ idx ] == NO_DIRECTION ) {
+            return -1;
+        }
+        final int dir = direction[ idx ];
+        return GridNavMesh.toNodeID( GridNavMesh.extractX( nodeId ) + GridNavMesh.DX[dir], GridNavMesh.extractY( nodeId ) + GridNavMesh.DY[dir] );
+    }
+
+    /**
+     * Follows the field from a cell to the destination.
+     *
+     * @param startNodeId
+     * @return node IDs of all cells along the path (including start and destination) or an empty list if
+     * the destination cannot be reached or the start already is the destination
+     */
+    public List<Integer> getPath(int startNodeId)
+    {
+        if ( startNodeId == destination || ! isReachable( startNodeId ) ) {
+            return Collections.emptyList();
+        }
+        final IntArrayList result = new IntArrayList();
+        for ( int current = startNodeId ; current != -1 ; current = getNextNode( current ) ) {
+            result.add( current );
+        }
+        return result;
+    }
+}
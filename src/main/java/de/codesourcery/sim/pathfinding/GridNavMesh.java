@@ -1,10 +1,131 @@
 package de.codesourcery.sim.pathfinding;
 
 import de.codesourcery.sim.Vec2D;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.apache.commons.lang3.Validate;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class GridNavMesh implements NavMesh
 {
+    /**
+     * Cost of moving to a horizontal or vertical neighbour.
+     */
+    public static final int STRAIGHT_COST = 10;
+
+    /**
+     * Cost of moving to a diagonal neighbour, {@link #STRAIGHT_COST} times sqrt(2) rounded.
+     */
+    public static final int DIAGONAL_COST = 14;
+
+    // direction i moves by (DX[i],DY[i]), same order as getNeighbours() (top-left, top, top-right,
+    // left, right, bottom-left, bottom, bottom-right)
+    static final int[] DX = { -1,  0,  1, -1, 1, -1, 0, 1 };
+    static final int[] DY = { -1, -1, -1,  0, 0,  1, 1, 1 };
+    // cost of moving in direction i
+    static final int[] STEP_COST = { DIAGONAL_COST, STRAIGHT_COST, DIAGONAL_COST,
+        STRAIGHT_COST, STRAIGHT_COST,
+        DIAGONAL_COST, STRAIGHT_COST, DIAGONAL_COST };
+
+    /**
+     * Gets notified when cells of a grid change their walkability.
+     */
+    public interface ChangeListener
+    {
+        /**
+         * Invoked after cells changed.
+         *
+         * @param mesh
+         * @param x left column of the changed rectangle
+         * @param y top row of the changed rectangle
+         * @param width
+         * @param height
+         */
+        void walkabilityChanged(GridNavMesh mesh, int x, int y, int width, int height);
+    }
+
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    // grid size or 0 if unknown
+    private final int width;
+    private final int height;
+
+    private final int maxX;
+    private final int maxY;
+
+    /**
+     * Create grid of unknown size, {@link #isWalkable(int, int)} needs
+     * to handle all coordinates between 0 and 65535.
+     */
+    protected GridNavMesh()
+    {
+        this.width = this.height = 0;
+        this.maxX = this.maxY = 65535;
+    }
+
+    /**
+     * Create grid with a given size, enabling dense node indices (see {@link #toIndex(int)}).
+     *
+     * @param width
+     * @param height
+     */
+    protected GridNavMesh(int width, int height)
+    {
+        Validate.isTrue( width > 0 && width <= 65536, "width must be 1...65536" );
+        Validate.isTrue( height > 0 && height <= 65536, "height must be 1...65536" );
+        Validate.isTrue( (long) width * height <= Integer.MAX_VALUE, "Grid too large" );
+        this.width = width;
+        this.height = height;
+        this.maxX = width - 1;
+        this.maxY = height - 1;
+    }
+
+    /**
+     * Returns the grid width or 0 if unknown.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the grid height or 0 if unknown.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Registers a listener to be notified about walkability changes.
+     *
+     * Only subclasses that can be modified send notifications.
+     *
+     * @param listener
+     */
+    public void addChangeListener(ChangeListener listener)
+    {
+        Validate.notNull( listener, "listener must not be null" );
+        changeListeners.add( listener );
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove( listener );
+    }
+
+    /**
+     * To be called by subclasses after cells changed their walkability.
+     *
+     * @param x left column of the changed rectangle
+     * @param y top row of the changed rectangle
+     * @param width
+     * @param height
+     */
+    protected void fireWalkabilityChanged(int x, int y, int width, int height)
+    {
+        for ( ChangeListener listener : changeListeners ) {
+            listener.walkabilityChanged( this, x, y, width, height );
+        }
+    }
+
     public static int toNodeID(int x, int y) {
         return x << 16 | (y & 0xffff);
     }
@@ -25,28 +146,68 @@ public abstract class GridNavMesh implements NavMesh
 
     public abstract boolean isWalkable(int x,int y);
 
+    /**
+     * Returns the cost of the cheapest path between two cells on a grid without obstacles.
+     *
+     * @param dx horizontal distance in cells
+     * @param dy vertical distance in cells
+     * @return cost in units of {@link #STRAIGHT_COST}/{@link #DIAGONAL_COST}
+     */
+    public static int octile(int dx, int dy)
+    {
+        dx = Math.abs( dx );
+        dy = Math.abs( dy );
+        return dx > dy ?
+            STRAIGHT_COST * ( dx - dy ) + DIAGONAL_COST * dy :
+            STRAIGHT_COST * ( dy - dx ) + DIAGONAL_COST * dx;
+    }
+
+    /**
+     * Returns the {@link #octile(int, int)} distance between two cells.
+     */
+    public static int octileDistance(int nodeA, int nodeB) {
+        return octile( extractX( nodeB ) - extractX( nodeA ), extractY( nodeB ) - extractY( nodeA ) );
+    }
+
     @Override
     public int calcH(int nodeStart, int nodeEnd)
     {
         return 2* calcG(nodeStart,nodeEnd);
     }
 
+    /**
+     * Returns the octile distance, no path between the cells can be cheaper.
+     */
+    @Override
+    public int calcLowerBound(int nodeStart, int nodeEnd) {
+        return octileDistance( nodeStart, nodeEnd );
+    }
+
+    /**
+     * Moves cost {@link #STRAIGHT_COST} or {@link #DIAGONAL_COST}, the same costs {@link FlowField},
+     * {@link JumpPointSearch} and {@link HierarchicalPathFinder} use.
+     */
+    @Override
+    public int calcG(int nodeA, int nodeB) {
+        return octileDistance( nodeA, nodeB );
+    }
+
+    @Override
+    public int getIndexCount() {
+        return width * height;
+    }
+
     @Override
-    public int calcG(int nodeA, int nodeB)
+    public int toIndex(int nodeId)
     {
-        final int x0 = extractX( nodeA );
-        final int y0 = extractY( nodeA );
-        final int x1 = extractX( nodeB );
-        final int y1 = extractY( nodeB );
-        final int dx = x1-x0;
-        final int dy = y1-y0;
-        return (dx*dx+dy*dy);
+        if ( width == 0 ) {
+            throw new UnsupportedOperationException( "Grid of unknown size has no dense indices" );
+        }
+        return extractY( nodeId ) * width + extractX( nodeId );
     }
 
     @Override
-    public int getNeighbours(int nodeId,
-                             IntOpenHashSet visitedNodeIds,
-                             int[] result)
+    public int getNeighbours(int nodeId, int[] result)
     {
         int neighbourCount=0;
 
@@ -54,88 +215,51 @@ public abstract class GridNavMesh implements NavMesh
         int y = extractY(nodeId);
 
         boolean hasLeft = x-1 >= 0;
-        boolean hasRight = x+1 <= 65535;
+        boolean hasRight = x+1 <= maxX;
         boolean hasTop = y-1 >= 0;
-        boolean hasBottom = y+1 <= 65535;
+        boolean hasBottom = y+1 <= maxY;
 
-        int dx;
-        int dy;
-        int externalNodeId;
         if ( hasTop )
         {
             // top-left
-            dx = x-1;
-            dy = y-1;
-            externalNodeId = toNodeID(dx,dy);
-            if (hasLeft && isWalkable(dx,dy ) && ! visitedNodeIds.contains(externalNodeId) )
-            {
-                result[neighbourCount++] = externalNodeId;
+            if (hasLeft && isWalkable(x-1,y-1 ) ) {
+                result[neighbourCount++] = toNodeID(x-1,y-1);
             }
-
             // top
-            dx = x;
-            dy = y-1;
-            externalNodeId = toNodeID(dx,dy);
-            if ( isWalkable(dx, dy) && ! visitedNodeIds.contains(externalNodeId))
-            {
-                result[neighbourCount++] = externalNodeId;
+            if ( isWalkable(x, y-1) ) {
+                result[neighbourCount++] = toNodeID(x,y-1);
             }
             // top-right
-            dx = x+1;
-            dy = y-1;
-            externalNodeId = toNodeID(dx,dy);
-            if (hasRight && isWalkable(dx,dy) && ! visitedNodeIds.contains(externalNodeId) )
-            {
-                result[neighbourCount++] = externalNodeId;
+            if (hasRight && isWalkable(x+1,y-1) ) {
+                result[neighbourCount++] = toNodeID(x+1,y-1);
             }
         }
 
         // left
-        dx = x-1;
-        dy = y;
-        externalNodeId = toNodeID(dx,dy);
-        if ( hasLeft && isWalkable(dx,dy ) && ! visitedNodeIds.contains(externalNodeId) )
-        {
-            result[neighbourCount++] = externalNodeId;
+        if ( hasLeft && isWalkable(x-1,y ) ) {
+            result[neighbourCount++] = toNodeID(x-1,y);
         }
 
         // right
-        dx = x+1;
-        dy = y;
-        externalNodeId = toNodeID(dx,dy);
-        if ( hasRight && isWalkable(dx,dy) && ! visitedNodeIds.contains(externalNodeId) )
-        {
-            result[neighbourCount++] = externalNodeId;
+        if ( hasRight && isWalkable(x+1,y) ) {
+            result[neighbourCount++] = toNodeID(x+1,y);
         }
 
         if ( hasBottom )
         {
             // bottom-left
-            dx = x-1;
-            dy = y+1;
-            externalNodeId = toNodeID(dx,dy);
-            if (hasLeft && isWalkable(dx,dy) && ! visitedNodeIds.contains(externalNodeId) )
-            {
-                result[neighbourCount++] = externalNodeId;
+            if (hasLeft && isWalkable(x-1,y+1) ) {
+                result[neighbourCount++] = toNodeID(x-1,y+1);
             }
-
             // bottom
-            dx = x;
-            dy = y+1;
-            externalNodeId = toNodeID(dx,dy);
-            if ( isWalkable(dx,dy) && ! visitedNodeIds.contains(externalNodeId))
-            {
-                result[neighbourCount++] = externalNodeId;
+            if ( isWalkable(x,y+1) ) {
+                result[neighbourCount++] = toNodeID(x,y+1);
             }
             // bottom-right
-            dx = x+1;
-            dy = y+1;
-            externalNodeId = toNodeID(dx,dy);
-            if (hasRight && isWalkable(dx,dy) && ! visitedNodeIds.contains(externalNodeId))
-            {
-                result[neighbourCount++] = externalNodeId;
+            if (hasRight && isWalkable(x+1,y+1) ) {
+                result[neighbourCount++] = toNodeID(x+1,y+1);
             }
         }
         return neighbourCount;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,1369 @@
+package de.codesourcery.sim.pathfinding;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hierarchical path-finding (HPA*) on a {@link GridNavMesh}.
+ *
+ * The grid is split into square clusters. Wherever two adjacent clusters share a run of walkable
+ * border cells (or cells that are only connected diagonally, also across the corner where four clusters meet),
+ * an entrance is placed and connected to all other entrances of the same cluster, using
+ * the cost of the shortest path inside that cluster. Queries search this (much smaller) abstract graph
+ * first and then refine each step with a search that never leaves a single cluster, so the resulting paths
+ * are close to but not necessarily optimal.
+ *
+ * On large grids, blocks of clusters are grouped into super-clusters that form a second level: a single
+ * entrance per cluster border on the boundary of a super-cluster is connected to all other such entrances
+ * of the same super-cluster. Queries between super-clusters that are not neighbours search this level first
+ * and then refine each step on the first level, without leaving the super-cluster. Because the second level
+ * only keeps some of the entrances, its paths can take detours and if it has no path at all, the first level
+ * is searched instead.
+ *
+ * Moves cost {@link GridNavMesh#STRAIGHT_COST} or {@link GridNavMesh#DIAGONAL_COST}, neighbours are the same 8 cells
+ * {@link GridNavMesh#getNeighbours(int, int[])} returns.
+ *
+ * After changing the walkability of a cell, call {@link #cellChanged(int, int)} (or register the instance
+ * as the mesh's {@link GridNavMesh.ChangeListener}). Only the affected clusters get rebuilt, lazily before the next query.
+ *
+ * Instances are not thread-safe.
+ */
+public class HierarchicalPathFinder implements GridNavMesh.ChangeListener
+{
+    public static final int DEFAULT_CLUSTER_SIZE = 32;
+
+    // width and height of a super-cluster in clusters
+    public static final int DEFAULT_SUPER_CLUSTER_SIZE = 8;
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    // runs of walkable border cells at least this long get an entrance at
+    // each end instead of a single one in the middle
+    private static final int MIN_RUN_FOR_TWO_ENTRANCES = 6;
+
+    private final GridNavMesh mesh;
+
+    public final int width;
+    public final int height;
+    public final int clusterSize;
+    public final int superClusterSize;
+
+    private final int clustersX;
+    private final int clustersY;
+    private final int superClustersX;
+    private final int superClustersY;
+
+    // abstract nodes (entrance cells), slots of removed nodes are recycled
+    private int[] nodeCell = new int[1024];
+    private int[] nodeCluster = new int[1024];
+    private int[] nodePartner = new int[1024]; // node on the other side of the border
+    private int[] nodeSlot = new int[1024]; // index in clusterNodes
+    private int[] nodeComponent = new int[1024]; // nodes are connected if and only if they have the same component
+    private int[] nodeSuperSlot = new int[1024]; // index among all nodes of the super-cluster, see superReach
+    private int[] nodeLevel2Slot = new int[1024]; // index in superNodes, -1 if the node is not on the second level
+    private int nodeCount;
+    private final IntArrayList freeNodes = new IntArrayList();
+
+    // abstract nodes of each cluster
+    private final IntArrayList[] clusterNodes;
+    // k*k matrix with costs between the nodes of each cluster, in the order of clusterNodes
+    private final int[][] clusterCosts;
+
+    // entrance nodes on the left/top side of the border to the right/bottom neighbour of each cluster
+    private final IntArrayList[] rightBorderNodes;
+    private final IntArrayList[] bottomBorderNodes;
+    // entrance nodes of diagonal steps across the corner at the bottom right of each cluster
+    private final IntArrayList[] cornerNodes;
+
+    // second level nodes of each super-cluster (first level nodes on its boundary)
+    private final IntArrayList[] superNodes;
+    // k*k matrix with costs between the second level nodes of each super-cluster, in the order of superNodes
+    private final int[][] superCosts;
+    // costs from each first level node of a super-cluster to its k second level nodes, at nodeSuperSlot * k
+    private final int[][] superReach;
+
+    private final BitSet dirtyClusters = new BitSet();
+
+    private final LocalSearch localSearch;
+
+    // abstract search state, indexed by node
+    private int[] g = new int[0];
+    private int[] parent = new int[0];
+    private int[] openStamp = new int[0];
+    private int[] closedStamp = new int[0];
+    private int generation;
+    private final LongHeapPriorityQueue openList = new LongHeapPriorityQueue();
+
+    private final IntArrayList startEdgeNodes = new IntArrayList();
+    private final IntArrayList startEdgeCosts = new IntArrayList();
+    private final IntArrayList goalEdgeCosts = new IntArrayList(); // in order of goal cluster's nodes
+    private final IntArrayList startLevel2Costs = new IntArrayList(); // in order of start super-cluster's superNodes
+    private final IntArrayList goalLevel2Costs = new IntArrayList(); // in order of goal super-cluster's superNodes
+
+    // what the last search() returned: 0 = complete path, 1 = first level nodes, 2 = second level nodes
+    private int pathLevel;
+
+    public HierarchicalPathFinder(GridNavMesh mesh, int width, int height) {
+        this( mesh, width, height, DEFAULT_CLUSTER_SIZE );
+    }
+
+    public HierarchicalPathFinder(GridNavMesh mesh, int width, int height, int clusterSize) {
+        this( mesh, width, height, clusterSize, DEFAULT_SUPER_CLUSTER_SIZE );
+    }
+
+    /**
+     * Create instance and build the abstract graph.
+     *
+     * @param mesh
+     * @param width grid width, cells with x &gt;= width are treated as not walkable
+     * @param height grid height, cells with y &gt;= height are treated as not walkable
+     * @param clusterSize width and height of each cluster in cells
+     * @param superClusterSize width and height of each super-cluster in clusters, there is no second level
+     *                         if the whole grid fits into a single super-cluster
+     */
+    public HierarchicalPathFinder(GridNavMesh mesh, int width, int height, int clusterSize, int superClusterSize)
+    {
+        Validate.notNull( mesh, "mesh must not be null" );
+        Validate.isTrue( width > 0 && width <= 65536, "width must be 1...65536" );
+        Validate.isTrue( height > 0 && height <= 65536, "height must be 1...65536" );
+        Validate.isTrue( clusterSize >= 2, "clusterSize must be >= 2" );
+        Validate.isTrue( superClusterSize >= 2, "superClusterSize must be >= 2" );
+
+        this.mesh = mesh;
+        this.width = width;
+        this.height = height;
+        this.clusterSize = clusterSize;
+        this.superClusterSize = superClusterSize;
+        this.clustersX = ( width + clusterSize - 1 ) / clusterSize;
+        this.clustersY = ( height + clusterSize - 1 ) / clusterSize;
+        this.superClustersX = ( clustersX + superClusterSize - 1 ) / superClusterSize;
+        this.superClustersY = ( clustersY + superClusterSize - 1 ) / superClusterSize;
+
+        final int superClusterCount = superClustersX * superClustersY;
+        superNodes = new IntArrayList[ superClusterCount ];
+        superCosts = new int[ superClusterCount ][];
+        superReach = new int[ superClusterCount ][];
+        for ( int i = 0 ; i < superClusterCount ; i++ )
+        {
+            superNodes[i] = new IntArrayList();
+            superCosts[i] = new int[0];
+            superReach[i] = new int[0];
+        }
+
+        final int clusterCount = clustersX * clustersY;
+        clusterNodes = new IntArrayList[ clusterCount ];
+        clusterCosts = new int[ clusterCount ][];
+        rightBorderNodes = new IntArrayList[ clusterCount ];
+        bottomBorderNodes = new IntArrayList[ clusterCount ];
+        cornerNodes = new IntArrayList[ clusterCount ];
+        for ( int i = 0 ; i < clusterCount ; i++ )
+        {
+            clusterNodes[i] = new IntArrayList();
+            clusterCosts[i] = new int[0];
+            rightBorderNodes[i] = new IntArrayList();
+            bottomBorderNodes[i] = new IntArrayList();
+            cornerNodes[i] = new IntArrayList();
+        }
+        localSearch = new LocalSearch();
+
+        dirtyClusters.set( 0, clusterCount );
+        rebuildDirtyClusters();
+    }
+
+    /**
+     * Marks the cluster containing a cell for rebuilding, to be called whenever the cell's
+     * walkability changed.
+     *
+     * @param x
+     * @param y
+     */
+    public void cellChanged(int x, int y)
+    {
+        Validate.isTrue( x >= 0 && x < width && y >= 0 && y < height, "Cell out of bounds: " + x + "," + y );
+        dirtyClusters.set( clusterOf( x, y ) );
+    }
+
+    @Override
+    public void walkabilityChanged(GridNavMesh changedMesh, int x, int y, int width, int height)
+    {
+        if ( changedMesh != mesh ) {
+            return;
+        }
+        final int x1 = Math.min( x + width, this.width ) - 1;
+        final int y1 = Math.min( y + height, this.height ) - 1;
+        for ( int cy = y ; cy <= y1 ; cy += clusterSize - cy % clusterSize )
+        {
+            for ( int cx = x ; cx <= x1 ; cx += clusterSize - cx % clusterSize ) {
+                cellChanged( cx, cy );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the abstract graph.
+     */
+    public int getAbstractNodeCount()
+    {
+        return nodeCount - freeNodes.size();
+    }
+
+    /**
+     * Finds a path.
+     *
+     * @param startNodeId start cell as returned by {@link GridNavMesh#toNodeID(int, int)}
+     * @param dstNodeId destination cell
+     * @return node IDs of all cells along the path (including start and destination) or an empty list if there is no path
+     */
+    public List<Integer> findPath(int startNodeId, int dstNodeId)
+    {
+        final IntArrayList abstractPath = search( startNodeId, dstNodeId );
+        if ( abstractPath == null ) {
+            return Collections.emptyList();
+        }
+        if ( pathLevel == 0 ) {
+            return abstractPath;
+        }
+
+        final IntArrayList result = new IntArrayList();
+        result.add( startNodeId );
+        if ( pathLevel == 1 ) {
+            appendLevel1Path( abstractPath, startNodeId, dstNodeId, result );
+            return result;
+        }
+
+        // refine each step of the second level path on the first level, these searches
+        // do not change the abstract node IDs of start and destination
+        int previous = abstractPath.getInt( 0 );
+        for ( int i = 1, len = abstractPath.size() ; i < len ; i++ )
+        {
+            final int current = abstractPath.getInt( i );
+            final int fromCell = cellOf( previous, startNodeId, dstNodeId );
+            final int toCell = cellOf( current, startNodeId, dstNodeId );
+            if ( fromCell != toCell )
+            {
+                if ( previous < nodeCount && nodePartner[ previous ] == current ) {
+                    result.add( toCell );
+                } else if ( previous < nodeCount && current < nodeCount ) {
+                    appendPathBetweenNodes( previous, current, result );
+                } else {
+                    appendPathInSuperCluster( fromCell, toCell, result );
+                }
+            }
+            previous = current;
+        }
+        return result;
+    }
+
+    /**
+     * Finds a path but only returns the start cell, the cells where the path crosses cluster
+     * borders and the destination cell. Consecutive waypoints are either adjacent or
+     * connected by a path that stays inside a single cluster, except for long paths that
+     * get planned on the second level: there consecutive waypoints are only guaranteed to be connected
+     * by a path that stays inside a single super-cluster.
+     *
+     * @param startNodeId start cell as returned by {@link GridNavMesh#toNodeID(int, int)}
+     * @param dstNodeId destination cell
+     * @return node IDs of the waypoints or an empty list if there is no path
+     */
+    public List<Integer> findWaypoints(int startNodeId, int dstNodeId)
+    {
+        final IntArrayList abstractPath = search( startNodeId, dstNodeId );
+        if ( abstractPath == null ) {
+            return Collections.emptyList();
+        }
+        if ( pathLevel == 0 ) {
+            return abstractPath;
+        }
+        final IntArrayList result = new IntArrayList( abstractPath.size() );
+        for ( int i = 0, len = abstractPath.size() ; i < len ; i++ )
+        {
+            final int cell = cellOf( abstractPath.getInt( i ), startNodeId, dstNodeId );
+            if ( result.isEmpty() || result.getInt( result.size() - 1 ) != cell ) {
+                result.add( cell );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends the cells along a first level path, excluding the start cell.
+     */
+    private void appendLevel1Path(IntArrayList abstractPath, int startNodeId, int dstNodeId, IntArrayList result)
+    {
+        int previous = abstractPath.getInt( 0 );
+        for ( int i = 1, len = abstractPath.size() ; i < len ; i++ )
+        {
+            final int current = abstractPath.getInt( i );
+            final int fromCell = cellOf( previous, startNodeId, dstNodeId );
+            final int toCell = cellOf( current, startNodeId, dstNodeId );
+            if ( fromCell != toCell )
+            {
+                if ( previous < nodeCount && nodePartner[ previous ] == current ) {
+                    result.add( toCell );
+                }
+                else
+                {
+                    final int cluster = previous < nodeCount ? nodeCluster[ previous ] : clusterOf( fromCell );
+                    localSearch.init( cluster );
+                    if ( ! localSearch.search( fromCell, toCell ) ) {
+                        throw new IllegalStateException( "Abstract graph is out of sync with nav mesh" );
+                    }
+                    localSearch.appendPath( toCell, result );
+                }
+            }
+            previous = current;
+        }
+    }
+
+    /**
+     * Appends the cells along a path between two cells of the same super-cluster
+     * that never leaves the super-cluster, excluding the start cell.
+     */
+    private void appendPathInSuperCluster(int fromCell, int toCell, IntArrayList result)
+    {
+        final int fromCluster = clusterOf( fromCell );
+        final int toCluster = clusterOf( toCell );
+        if ( fromCluster == toCluster )
+        {
+            localSearch.init( fromCluster );
+            if ( localSearch.search( fromCell, toCell ) ) {
+                localSearch.appendPath( toCell, result );
+                return;
+            }
+        }
+        connectEndpoints( fromCell, toCell, fromCluster, toCluster );
+        final IntArrayList path = searchLevel1( fromCell, toCell, toCluster, superClusterOf( fromCluster ) );
+        if ( path == null ) {
+            throw new IllegalStateException( "Abstract graph is out of sync with nav mesh" );
+        }
+        appendLevel1Path( path, fromCell, toCell, result );
+    }
+
+    /**
+     * Appends the cells along a path between two first level nodes of the same super-cluster
+     * that never leaves the super-cluster, excluding the start cell.
+     */
+    private void appendPathBetweenNodes(int fromNode, int toNode, IntArrayList result)
+    {
+        startEdgeNodes.clear();
+        startEdgeCosts.clear();
+        startEdgeNodes.add( fromNode );
+        startEdgeCosts.add( 0 );
+        final int toCluster = nodeCluster[ toNode ];
+        goalEdgeCosts.clear();
+        for ( int i = 0, len = clusterNodes[ toCluster ].size() ; i < len ; i++ ) {
+            goalEdgeCosts.add( UNREACHABLE );
+        }
+        goalEdgeCosts.set( nodeSlot[ toNode ], 0 );
+
+        final int fromCell = nodeCell[ fromNode ];
+        final int toCell = nodeCell[ toNode ];
+        final IntArrayList path = searchLevel1( fromCell, toCell, toCluster, superClusterOf( nodeCluster[ fromNode ] ) );
+        if ( path == null ) {
+            throw new IllegalStateException( "Abstract graph is out of sync with nav mesh" );
+        }
+        appendLevel1Path( path, fromCell, toCell, result );
+    }
+
+    /**
+     * Searches the abstract graph.
+     *
+     * Start and destination are represented by the node IDs <code>nodeCount</code> and <code>nodeCount+1</code>.
+     * If both are in the same cluster and connected inside it, the complete path (cell IDs) is returned
+     * instead. {@link #pathLevel} tells which kind of path was returned.
+     *
+     * @return path or <code>null</code> if there is no path
+     */
+    private IntArrayList search(int startNodeId, int dstNodeId)
+    {
+        if ( startNodeId == dstNodeId ) {
+            throw new IllegalArgumentException( "start = destination?" );
+        }
+        checkBounds( startNodeId );
+        checkBounds( dstNodeId );
+
+        rebuildDirtyClusters();
+
+        pathLevel = 0;
+        if ( ! mesh.isWalkable( GridNavMesh.extractX( startNodeId ), GridNavMesh.extractY( startNodeId ) ) ||
+             ! mesh.isWalkable( GridNavMesh.extractX( dstNodeId ), GridNavMesh.extractY( dstNodeId ) ) )
+        {
+            return null;
+        }
+
+        final int startCluster = clusterOf( startNodeId );
+        final int goalCluster = clusterOf( dstNodeId );
+        if ( startCluster == goalCluster )
+        {
+            localSearch.init( startCluster );
+            if ( localSearch.search( startNodeId, dstNodeId ) )
+            {
+                final IntArrayList path = new IntArrayList();
+                path.add( startNodeId );
+                localSearch.appendPath( dstNodeId, path );
+                return path;
+            }
+        }
+
+        connectEndpoints( startNodeId, dstNodeId, startCluster, goalCluster );
+        if ( ! connected( clusterNodes[ goalCluster ] ) ) {
+            return null;
+        }
+
+        // the second level's detours through its few entrances would be too long on short paths
+        if ( superClusterDistance( startCluster, goalCluster ) > 1 )
+        {
+            final IntArrayList path = searchLevel2( startNodeId, dstNodeId, startCluster, goalCluster );
+            if ( path != null ) {
+                pathLevel = 2;
+                return path;
+            }
+        }
+        pathLevel = 1;
+        return searchLevel1( startNodeId, dstNodeId, goalCluster, -1 );
+    }
+
+    /**
+     * Calculates the costs of reaching the first level nodes of the start cluster
+     * from the start cell and of reaching the destination cell from those of the goal cluster.
+     */
+    private void connectEndpoints(int startNodeId, int dstNodeId, int startCluster, int goalCluster)
+    {
+        startEdgeNodes.clear();
+        startEdgeCosts.clear();
+        localSearch.init( startCluster );
+        localSearch.search( startNodeId, -1 );
+        final IntArrayList startClusterNodes = clusterNodes[ startCluster ];
+        for ( int i = 0, len = startClusterNodes.size() ; i < len ; i++ )
+        {
+            final int node = startClusterNodes.getInt( i );
+            final int cost = localSearch.cost( nodeCell[ node ] );
+            if ( cost != UNREACHABLE ) {
+                startEdgeNodes.add( node );
+                startEdgeCosts.add( cost );
+            }
+        }
+
+        goalEdgeCosts.clear();
+        localSearch.init( goalCluster );
+        localSearch.search( dstNodeId, -1 );
+        final IntArrayList goalClusterNodes = clusterNodes[ goalCluster ];
+        for ( int i = 0, len = goalClusterNodes.size() ; i < len ; i++ ) {
+            goalEdgeCosts.add( localSearch.cost( nodeCell[ goalClusterNodes.getInt( i ) ] ) );
+        }
+    }
+
+    private void prepareSearch()
+    {
+        final int size = nodeCount + 2;
+        if ( g.length < size )
+        {
+            final int newSize = Math.max( size, g.length * 2 );
+            g = new int[ newSize ];
+            parent = new int[ newSize ];
+            openStamp = new int[ newSize ];
+            closedStamp = new int[ newSize ];
+            generation = 0;
+        }
+        if ( ++generation == 0 )
+        {
+            Arrays.fill( openStamp, 0 );
+            Arrays.fill( closedStamp, 0 );
+            generation = 1;
+        }
+        openList.clear();
+    }
+
+    /**
+     * A* on the first level, start and destination must have been connected by {@link #connectEndpoints(int, int, int, int)}.
+     *
+     * @param superCluster super-cluster the path must not leave or -1
+     * @return path or <code>null</code> if there is no path
+     */
+    private IntArrayList searchLevel1(int startNodeId, int dstNodeId, int goalCluster, int superCluster)
+    {
+        prepareSearch();
+        final int startNode = nodeCount;
+        final int goalNode = nodeCount + 1;
+        g[ startNode ] = 0;
+        parent[ startNode ] = -1;
+        openStamp[ startNode ] = generation;
+        openList.enqueue( (long) GridNavMesh.octileDistance( startNodeId, dstNodeId ) << 32 | startNode );
+
+        while ( ! openList.isEmpty() )
+        {
+            final int node = (int) openList.dequeueLong();
+            if ( closedStamp[ node ] == generation ) {
+                continue; // stale entry
+            }
+            closedStamp[ node ] = generation;
+            if ( node == goalNode ) {
+                return buildPath( goalNode );
+            }
+
+            final int nodeG = g[ node ];
+            if ( node == startNode )
+            {
+                for ( int i = 0, len = startEdgeNodes.size() ; i < len ; i++ ) {
+                    relax( node, startEdgeNodes.getInt( i ), nodeG + startEdgeCosts.getInt( i ), dstNodeId, goalNode );
+                }
+                continue;
+            }
+
+            final int partner = nodePartner[ node ];
+            if ( superCluster == -1 || superClusterOf( nodeCluster[ partner ] ) == superCluster ) {
+                relax( node, partner, nodeG + GridNavMesh.octileDistance( nodeCell[ node ], nodeCell[ partner ] ), dstNodeId, goalNode );
+            }
+
+            final int cluster = nodeCluster[ node ];
+            final IntArrayList nodes = clusterNodes[ cluster ];
+            final int[] costs = clusterCosts[ cluster ];
+            final int k = nodes.size();
+            final int slot = nodeSlot[ node ];
+            for ( int j = 0, ptr = slot * k ; j < k ; j++, ptr++ )
+            {
+                final int cost = costs[ ptr ];
+                if ( j != slot && cost != UNREACHABLE ) {
+                    relax( node, nodes.getInt( j ), nodeG + cost, dstNodeId, goalNode );
+                }
+            }
+            if ( cluster == goalCluster )
+            {
+                final int cost = goalEdgeCosts.getInt( slot );
+                if ( cost != UNREACHABLE ) {
+                    relax( node, goalNode, nodeG + cost, dstNodeId, goalNode );
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A* on the second level, start and destination must have been connected by {@link #connectEndpoints(int, int, int, int)}.
+     *
+     * @return path or <code>null</code> if there is no path
+     */
+    private IntArrayList searchLevel2(int startNodeId, int dstNodeId, int startCluster, int goalCluster)
+    {
+        final int startSuper = superClusterOf( startCluster );
+        final int goalSuper = superClusterOf( goalCluster );
+        if ( ! level2Costs( startSuper, startEdgeNodes, startEdgeCosts, startLevel2Costs ) ||
+             ! level2Costs( goalSuper, clusterNodes[ goalCluster ], goalEdgeCosts, goalLevel2Costs ) )
+        {
+            return null;
+        }
+
+        prepareSearch();
+        final int startNode = nodeCount;
+        final int goalNode = nodeCount + 1;
+        g[ startNode ] = 0;
+        parent[ startNode ] = -1;
+        openStamp[ startNode ] = generation;
+        openList.enqueue( (long) GridNavMesh.octileDistance( startNodeId, dstNodeId ) << 32 | startNode );
+
+        while ( ! openList.isEmpty() )
+        {
+            final int node = (int) openList.dequeueLong();
+            if ( closedStamp[ node ] == generation ) {
+                continue; // stale entry
+            }
+            closedStamp[ node ] = generation;
+            if ( node == goalNode ) {
+                return buildPath( goalNode );
+            }
+
+            final int nodeG = g[ node ];
+            if ( node == startNode )
+            {
+                relaxAll( node, nodeG, superNodes[ startSuper ], startLevel2Costs, dstNodeId, goalNode );
+                continue;
+            }
+
+            // entrances are picked the same way on both sides of a border, so partners are on the second level, too
+            final int partner = nodePartner[ node ];
+            relax( node, partner, nodeG + GridNavMesh.octileDistance( nodeCell[ node ], nodeCell[ partner ] ), dstNodeId, goalNode );
+
+            final int superCluster = superClusterOf( nodeCluster[ node ] );
+            final IntArrayList nodes = superNodes[ superCluster ];
+            final int[] costs = superCosts[ superCluster ];
+            final int k = nodes.size();
+            final int slot = nodeLevel2Slot[ node ];
+            for ( int j = 0, ptr = slot * k ; j < k ; j++, ptr++ )
+            {
+                final int cost = costs[ ptr ];
+                if ( j != slot && cost != UNREACHABLE ) {
+                    relax( node, nodes.getInt( j ), nodeG + cost, dstNodeId, goalNode );
+                }
+            }
+            if ( superCluster == goalSuper )
+            {
+                final int cost = goalLevel2Costs.getInt( slot );
+                if ( cost != UNREACHABLE ) {
+                    relax( node, goalNode, nodeG + cost, dstNodeId, goalNode );
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calculates the costs of reaching each second level node of a super-cluster from a cell inside it,
+     * given the costs of reaching the first level nodes of the cell's cluster.
+     *
+     * @param superCluster
+     * @param nodes first level nodes of the cell's cluster
+     * @param costs cost of reaching each of the nodes
+     * @param result receives the costs, in order of superNodes
+     * @return whether any second level node can be reached
+     */
+    private boolean level2Costs(int superCluster, IntArrayList nodes, IntArrayList costs, IntArrayList result)
+    {
+        final int k = superNodes[ superCluster ].size();
+        final int[] reach = superReach[ superCluster ];
+        result.clear();
+        boolean reachable = false;
+        for ( int j = 0 ; j < k ; j++ )
+        {
+            int best = UNREACHABLE;
+            for ( int i = 0, len = nodes.size() ; i < len ; i++ )
+            {
+                final int cost = costs.getInt( i );
+                final int toLevel2 = reach[ nodeSuperSlot[ nodes.getInt( i ) ] * k + j ];
+                if ( cost != UNREACHABLE && toLevel2 != UNREACHABLE ) {
+                    best = Math.min( best, cost + toLevel2 );
+                }
+            }
+            result.add( best );
+            reachable |= best != UNREACHABLE;
+        }
+        return reachable;
+    }
+
+    private void relaxAll(int from, int fromG, IntArrayList nodes, IntArrayList costs, int dstNodeId, int goalNode)
+    {
+        for ( int i = 0, len = nodes.size() ; i < len ; i++ )
+        {
+            final int cost = costs.getInt( i );
+            if ( cost != UNREACHABLE ) {
+                relax( from, nodes.getInt( i ), fromG + cost, dstNodeId, goalNode );
+            }
+        }
+    }
+
+    private IntArrayList buildPath(int goalNode)
+    {
+        final IntArrayList path = new IntArrayList();
+        for ( int node = goalNode ; node != -1 ; node = parent[ node ] ) {
+            path.add( node );
+        }
+        Collections.reverse( path );
+        return path;
+    }
+
+    private boolean connected(IntArrayList goalClusterNodes)
+    {
+        for ( int i = 0, len = startEdgeNodes.size() ; i < len ; i++ )
+        {
+            final int component = nodeComponent[ startEdgeNodes.getInt( i ) ];
+            for ( int j = 0, k = goalClusterNodes.size() ; j < k ; j++ )
+            {
+                if ( goalEdgeCosts.getInt( j ) != UNREACHABLE && nodeComponent[ goalClusterNodes.getInt( j ) ] == component ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+     * dstNodeId -1 searches without heuristic (Dijkstra).
+     */
+    private void relax(int from, int to, int newG, int dstNodeId, int goalNode)
+    {
+        if ( closedStamp[ to ] == generation ) {
+            return;
+        }
+        if ( openStamp[ to ] != generation || newG < g[ to ] )
+        {
+            g[ to ] = newG;
+            parent[ to ] = from;
+            openStamp[ to ] = generation;
+            final int h = to == goalNode || dstNodeId == -1 ? 0 : GridNavMesh.octileDistance( nodeCell[ to ], dstNodeId );
+            openList.enqueue( (long) ( newG + h ) << 32 | to );
+        }
+    }
+
+    private int cellOf(int node, int startNodeId, int dstNodeId)
+    {
+        if ( node == nodeCount ) {
+            return startNodeId;
+        }
+        if ( node == nodeCount + 1 ) {
+            return dstNodeId;
+        }
+        return nodeCell[ node ];
+    }
+
+    private void checkBounds(int nodeId)
+    {
+        final int x = GridNavMesh.extractX( nodeId );
+        final int y = GridNavMesh.extractY( nodeId );
+        if ( x >= width || y >= height ) {
+            throw new IllegalArgumentException( "Cell out of bounds: " + x + "," + y );
+        }
+    }
+
+    private int clusterOf(int nodeId) {
+        return clusterOf( GridNavMesh.extractX( nodeId ), GridNavMesh.extractY( nodeId ) );
+    }
+
+    private int clusterOf(int x, int y) {
+        return ( y / clusterSize ) * clustersX + ( x / clusterSize );
+    }
+
+    private boolean isWalkable(int x, int y) {
+        return x < width && y < height && mesh.isWalkable( x, y );
+    }
+
+    // ---------------- abstract graph construction ---------------------
+
+    private void rebuildDirtyClusters()
+    {
+        if ( dirtyClusters.isEmpty() ) {
+            return;
+        }
+        // borders are shared between two clusters and corners between four, rebuild each one only once
+        final BitSet rebuiltBorders = new BitSet();
+        final BitSet changedClusters = new BitSet();
+        for ( int c = dirtyClusters.nextSetBit( 0 ) ; c >= 0 ; c = dirtyClusters.nextSetBit( c + 1 ) )
+        {
+            final int cx = c % clustersX;
+            final int cy = c / clustersX;
+            if ( cx + 1 < clustersX ) {
+                rebuildRightBorder( c, rebuiltBorders, changedClusters );
+            }
+            if ( cx > 0 ) {
+                rebuildRightBorder( c - 1, rebuiltBorders, changedClusters );
+            }
+            if ( cy + 1 < clustersY ) {
+                rebuildBottomBorder( c, rebuiltBorders, changedClusters );
+            }
+            if ( cy > 0 ) {
+                rebuildBottomBorder( c - clustersX, rebuiltBorders, changedClusters );
+            }
+            for ( int ny = Math.max( 0, cy - 1 ) ; ny <= cy && ny + 1 < clustersY ; ny++ )
+            {
+                for ( int nx = Math.max( 0, cx - 1 ) ; nx <= cx && nx + 1 < clustersX ; nx++ ) {
+                    rebuildCorner( ny * clustersX + nx, rebuiltBorders, changedClusters );
+                }
+            }
+            // the paths inside the cluster itself may have changed even if its entrances did not
+            changedClusters.set( c );
+        }
+        dirtyClusters.clear();
+
+        for ( int c = changedClusters.nextSetBit( 0 ) ; c >= 0 ; c = changedClusters.nextSetBit( c + 1 ) ) {
+            computeClusterCosts( c );
+        }
+        computeComponents();
+
+        if ( superClustersX * superClustersY > 1 )
+        {
+            final BitSet dirtySupers = new BitSet();
+            for ( int c = changedClusters.nextSetBit( 0 ) ; c >= 0 ; c = changedClusters.nextSetBit( c + 1 ) ) {
+                dirtySupers.set( superClusterOf( c ) );
+            }
+            // removed nodes may have been recycled by a different super-cluster, clear all old slots first
+            for ( int s = dirtySupers.nextSetBit( 0 ) ; s >= 0 ; s = dirtySupers.nextSetBit( s + 1 ) )
+            {
+                final IntArrayList nodes = superNodes[ s ];
+                for ( int i = 0, len = nodes.size() ; i < len ; i++ ) {
+                    nodeLevel2Slot[ nodes.getInt( i ) ] = -1;
+                }
+                nodes.clear();
+            }
+            for ( int s = dirtySupers.nextSetBit( 0 ) ; s >= 0 ; s = dirtySupers.nextSetBit( s + 1 ) ) {
+                rebuildSuperCluster( s );
+            }
+        }
+    }
+
+    private int superClusterOf(int cluster)
+    {
+        return ( ( cluster / clustersX ) / superClusterSize ) * superClustersX +
+               ( cluster % clustersX ) / superClusterSize;
+    }
+
+    private int superClusterDistance(int clusterA, int clusterB)
+    {
+        final int dx = Math.abs( clusterA % clustersX / superClusterSize - clusterB % clustersX / superClusterSize );
+        final int dy = Math.abs( clusterA / clustersX / superClusterSize - clusterB / clustersX / superClusterSize );
+        return Math.max( dx, dy );
+    }
+
+    /**
+     * Picks the second level nodes of a super-cluster and calculates
+     * the costs of reaching them from all its first level nodes.
+     */
+    private void rebuildSuperCluster(int superCluster)
+    {
+        final int sx0 = ( superCluster % superClustersX ) * superClusterSize;
+        final int sy0 = ( superCluster / superClustersX ) * superClusterSize;
+        final int sx1 = Math.min( sx0 + superClusterSize, clustersX ) - 1;
+        final int sy1 = Math.min( sy0 + superClusterSize, clustersY ) - 1;
+
+        int memberCount = 0;
+        for ( int cy = sy0 ; cy <= sy1 ; cy++ )
+        {
+            for ( int cx = sx0 ; cx <= sx1 ; cx++ )
+            {
+                final IntArrayList nodes = clusterNodes[ cy * clustersX + cx ];
+                for ( int i = 0, len = nodes.size() ; i < len ; i++ ) {
+                    nodeSuperSlot[ nodes.getInt( i ) ] = memberCount++;
+                }
+            }
+        }
+
+        // one entrance per cluster border keeps the second level small
+        final IntArrayList nodes = superNodes[ superCluster ];
+        for ( int cy = sy0 ; cy <= sy1 ; cy++ )
+        {
+            if ( sx0 > 0 ) {
+                addLevel2Node( rightBorderNodes[ cy * clustersX + sx0 - 1 ], superCluster, nodes );
+            }
+            if ( sx1 + 1 < clustersX ) {
+                addLevel2Node( rightBorderNodes[ cy * clustersX + sx1 ], superCluster, nodes );
+            }
+        }
+        for ( int cx = sx0 ; cx <= sx1 ; cx++ )
+        {
+            if ( sy0 > 0 ) {
+                addLevel2Node( bottomBorderNodes[ ( sy0 - 1 ) * clustersX + cx ], superCluster, nodes );
+            }
+            if ( sy1 + 1 < clustersY ) {
+                addLevel2Node( bottomBorderNodes[ sy1 * clustersX + cx ], superCluster, nodes );
+            }
+        }
+        // diagonal steps between super-clusters are rare, keep all of them
+        for ( int cy = Math.max( 0, sy0 - 1 ) ; cy <= sy1 && cy + 1 < clustersY ; cy++ )
+        {
+            for ( int cx = Math.max( 0, sx0 - 1 ) ; cx <= sx1 && cx + 1 < clustersX ; cx++ )
+            {
+                final IntArrayList corner = cornerNodes[ cy * clustersX + cx ];
+                for ( int i = 0, len = corner.size() ; i < len ; i++ )
+                {
+                    final int a = corner.getInt( i );
+                    final int b = nodePartner[ a ];
+                    final int superA = superClusterOf( nodeCluster[ a ] );
+                    final int superB = superClusterOf( nodeCluster[ b ] );
+                    if ( superA != superB && ( superA == superCluster || superB == superCluster ) ) {
+                        nodes.add( superA == superCluster ? a : b );
+                    }
+                }
+            }
+        }
+
+        final int k = nodes.size();
+        for ( int j = 0 ; j < k ; j++ ) {
+            nodeLevel2Slot[ nodes.getInt( j ) ] = j;
+        }
+        int[] reach = superReach[ superCluster ];
+        if ( reach.length != memberCount * k ) {
+            reach = superReach[ superCluster ] = new int[ memberCount * k ];
+        }
+        int[] costs = superCosts[ superCluster ];
+        if ( costs.length != k * k ) {
+            costs = superCosts[ superCluster ] = new int[ k * k ];
+        }
+
+        // first level paths are symmetric, so searching from each second level node yields the costs in both directions
+        for ( int j = 0 ; j < k ; j++ )
+        {
+            searchSuperCluster( nodes.getInt( j ), superCluster );
+            for ( int cy = sy0 ; cy <= sy1 ; cy++ )
+            {
+                for ( int cx = sx0 ; cx <= sx1 ; cx++ )
+                {
+                    final IntArrayList members = clusterNodes[ cy * clustersX + cx ];
+                    for ( int i = 0, len = members.size() ; i < len ; i++ )
+                    {
+                        final int node = members.getInt( i );
+                        reach[ nodeSuperSlot[ node ] * k + j ] = closedStamp[ node ] == generation ? g[ node ] : UNREACHABLE;
+                    }
+                }
+            }
+        }
+        for ( int i = 0 ; i < k ; i++ )
+        {
+            final int row = nodeSuperSlot[ nodes.getInt( i ) ] * k;
+            for ( int j = 0 ; j < k ; j++ ) {
+                costs[ i * k + j ] = reach[ row + j ];
+            }
+        }
+    }
+
+    /*
+     * Picks the entrance closest to the middle of a border, the same one for both super-clusters.
+     */
+    private void addLevel2Node(IntArrayList borderNodes, int superCluster, IntArrayList result)
+    {
+        final int mid = clusterSize / 2;
+        int best = -1;
+        int bestDist = Integer.MAX_VALUE;
+        for ( int i = 0, len = borderNodes.size() ; i < len ; i++ )
+        {
+            final int cell = nodeCell[ borderNodes.getInt( i ) ];
+            // one of the two terms is the same for all nodes of a border
+            final int dist = Math.abs( GridNavMesh.extractX( cell ) % clusterSize - mid ) +
+                             Math.abs( GridNavMesh.extractY( cell ) % clusterSize - mid );
+            if ( dist < bestDist ) {
+                best = borderNodes.getInt( i );
+                bestDist = dist;
+            }
+        }
+        if ( best != -1 ) {
+            result.add( superClusterOf( nodeCluster[ best ] ) == superCluster ? best : nodePartner[ best ] );
+        }
+    }
+
+    /*
+     * Dijkstra on the first level, restricted to a super-cluster.
+     */
+    private void searchSuperCluster(int fromNode, int superCluster)
+    {
+        prepareSearch();
+        g[ fromNode ] = 0;
+        parent[ fromNode ] = -1;
+        openStamp[ fromNode ] = generation;
+        openList.enqueue( fromNode );
+        while ( ! openList.isEmpty() )
+        {
+            final int node = (int) openList.dequeueLong();
+            if ( closedStamp[ node ] == generation ) {
+                continue; // stale entry
+            }
+            closedStamp[ node ] = generation;
+
+            final int nodeG = g[ node ];
+            final int partner = nodePartner[ node ];
+            if ( superClusterOf( nodeCluster[ partner ] ) == superCluster ) {
+                relax( node, partner, nodeG + GridNavMesh.octileDistance( nodeCell[ node ], nodeCell[ partner ] ), -1, -1 );
+            }
+            final int cluster = nodeCluster[ node ];
+            final IntArrayList nodes = clusterNodes[ cluster ];
+            final int[] costs = clusterCosts[ cluster ];
+            final int k = nodes.size();
+            final int slot = nodeSlot[ node ];
+            for ( int j = 0, ptr = slot * k ; j < k ; j++, ptr++ )
+            {
+                final int cost = costs[ ptr ];
+                if ( j != slot && cost != UNREACHABLE ) {
+                    relax( node, nodes.getInt( j ), nodeG + cost, -1, -1 );
+                }
+            }
+        }
+    }
+
+    /*
+     * Labels connected components of the abstract graph (union-find), so
+     * that queries without a path do not need to search the whole graph.
+     */
+    private void computeComponents()
+    {
+        for ( int i = 0 ; i < nodeCount ; i++ ) {
+            nodeComponent[i] = i;
+        }
+        for ( int c = 0 ; c < clusterNodes.length ; c++ )
+        {
+            final IntArrayList nodes = clusterNodes[ c ];
+            final int[] costs = clusterCosts[ c ];
+            final int k = nodes.size();
+            for ( int i = 0 ; i < k ; i++ )
+            {
+                final int node = nodes.getInt( i );
+                union( node, nodePartner[ node ] );
+                for ( int j = i + 1 ; j < k ; j++ )
+                {
+                    if ( costs[ i * k + j ] != UNREACHABLE ) {
+                        union( node, nodes.getInt( j ) );
+                    }
+                }
+            }
+        }
+        for ( int i = 0 ; i < nodeCount ; i++ ) {
+            nodeComponent[i] = find( i );
+        }
+    }
+
+    private int find(int node)
+    {
+        while ( nodeComponent[ node ] != node )
+        {
+            nodeComponent[ node ] = nodeComponent[ nodeComponent[ node ] ];
+            node = nodeComponent[ node ];
+        }
+        return node;
+    }
+
+    private void union(int nodeA, int nodeB)
+    {
+        final int rootA = find( nodeA );
+        final int rootB = find( nodeB );
+        if ( rootA != rootB ) {
+            nodeComponent[ Math.max( rootA, rootB ) ] = Math.min( rootA, rootB );
+        }
+    }
+
+    private void rebuildRightBorder(int cluster, BitSet rebuiltBorders, BitSet changedClusters)
+    {
+        if ( rebuiltBorders.get( cluster * 3 ) ) {
+            return;
+        }
+        rebuiltBorders.set( cluster * 3 );
+        final int x = ( cluster % clustersX + 1 ) * clusterSize - 1;
+        final int y = ( cluster / clustersX ) * clusterSize;
+        final int length = Math.min( clusterSize, height - y );
+        rebuildBorder( cluster, cluster + 1, x, y, 0, 1, 1, 0, length, rightBorderNodes[ cluster ] );
+        changedClusters.set( cluster );
+        changedClusters.set( cluster + 1 );
+    }
+
+    private void rebuildBottomBorder(int cluster, BitSet rebuiltBorders, BitSet changedClusters)
+    {
+        if ( rebuiltBorders.get( cluster * 3 + 1 ) ) {
+            return;
+        }
+        rebuiltBorders.set( cluster * 3 + 1 );
+        final int x = ( cluster % clustersX ) * clusterSize;
+        final int y = ( cluster / clustersX + 1 ) * clusterSize - 1;
+        final int length = Math.min( clusterSize, width - x );
+        rebuildBorder( cluster, cluster + clustersX, x, y, 1, 0, 0, 1, length, bottomBorderNodes[ cluster ] );
+        changedClusters.set( cluster );
+        changedClusters.set( cluster + clustersX );
+    }
+
+    /**
+     * Places entrances for diagonal steps across the corner at the bottom right of a cluster,
+     * where the two cells on either side of the step are blocked (otherwise the step is
+     * also possible through the entrances on the borders).
+     */
+    private void rebuildCorner(int cluster, BitSet rebuiltBorders, BitSet changedClusters)
+    {
+        if ( rebuiltBorders.get( cluster * 3 + 2 ) ) {
+            return;
+        }
+        rebuiltBorders.set( cluster * 3 + 2 );
+
+        final IntArrayList nodes = cornerNodes[ cluster ];
+        removeEntrances( nodes );
+
+        // first cell of the bottom right neighbour
+        final int x = ( cluster % clustersX + 1 ) * clusterSize;
+        final int y = ( cluster / clustersX + 1 ) * clusterSize;
+        final int right = cluster + 1;
+        final int bottom = cluster + clustersX;
+        final int bottomRight = bottom + 1;
+        if ( isWalkable( x - 1, y - 1 ) && isWalkable( x, y ) && ! isWalkable( x, y - 1 ) && ! isWalkable( x - 1, y ) ) {
+            addCornerEntrance( cluster, x - 1, y - 1, bottomRight, x, y, nodes );
+        }
+        if ( isWalkable( x, y - 1 ) && isWalkable( x - 1, y ) && ! isWalkable( x - 1, y - 1 ) && ! isWalkable( x, y ) ) {
+            addCornerEntrance( right, x, y - 1, bottom, x - 1, y, nodes );
+        }
+        changedClusters.set( cluster );
+        changedClusters.set( right );
+        changedClusters.set( bottom );
+        changedClusters.set( bottomRight );
+    }
+
+    private void addCornerEntrance(int clusterA, int xA, int yA, int clusterB, int xB, int yB, IntArrayList nodes)
+    {
+        final int a = createNode( clusterA, GridNavMesh.toNodeID( xA, yA ) );
+        final int b = createNode( clusterB, GridNavMesh.toNodeID( xB, yB ) );
+        nodePartner[ a ] = b;
+        nodePartner[ b ] = a;
+        nodes.add( a );
+    }
+
+    /**
+     * Places entrances along the border between two clusters.
+     *
+     * @param clusterA
+     * @param clusterB
+     * @param x first border cell inside cluster A
+     * @param y first border cell inside cluster A
+     * @param stepX direction along the border
+     * @param stepY direction along the border
+     * @param dx offset from a border cell in cluster A to its neighbour in cluster B
+     * @param dy offset from a border cell in cluster A to its neighbour in cluster B
+     * @param length number of border cells
+     * @param borderNodes entrance nodes on cluster A's side
+     */
+    private void rebuildBorder(int clusterA, int clusterB, int x, int y, int stepX, int stepY, int dx, int dy,
+                               int length, IntArrayList borderNodes)
+    {
+        removeEntrances( borderNodes );
+
+        final boolean[] open = new boolean[ length ];
+        for ( int i = 0 ; i < length ; i++ ) {
+            open[i] = isWalkable( x + i * stepX, y + i * stepY ) && isWalkable( x + i * stepX + dx, y + i * stepY + dy );
+        }
+
+        int runStart = -1;
+        for ( int i = 0 ; i <= length ; i++ )
+        {
+            if ( i < length && open[i] )
+            {
+                if ( runStart == -1 ) {
+                    runStart = i;
+                }
+            }
+            else if ( runStart != -1 )
+            {
+                final int runEnd = i - 1;
+                if ( runEnd - runStart + 1 >= MIN_RUN_FOR_TWO_ENTRANCES )
+                {
+                    addEntrance( clusterA, clusterB, x, y, stepX, stepY, dx, dy, runStart, runStart, borderNodes );
+                    addEntrance( clusterA, clusterB, x, y, stepX, stepY, dx, dy, runEnd, runEnd, borderNodes );
+                } else {
+                    final int mid = ( runStart + runEnd ) / 2;
+                    addEntrance( clusterA, clusterB, x, y, stepX, stepY, dx, dy, mid, mid, borderNodes );
+                }
+                runStart = -1;
+            }
+        }
+
+        // cells that are only connected diagonally
+        for ( int i = 0 ; i + 1 < length ; i++ )
+        {
+            if ( ! open[i] && ! open[i+1] )
+            {
+                if ( isWalkable( x + i * stepX, y + i * stepY ) &&
+                     isWalkable( x + ( i + 1 ) * stepX + dx, y + ( i + 1 ) * stepY + dy ) )
+                {
+                    addEntrance( clusterA, clusterB, x, y, stepX, stepY, dx, dy, i, i + 1, borderNodes );
+                }
+                if ( isWalkable( x + ( i + 1 ) * stepX, y + ( i + 1 ) * stepY ) &&
+                     isWalkable( x + i * stepX + dx, y + i * stepY + dy ) )
+                {
+                    addEntrance( clusterA, clusterB, x, y, stepX, stepY, dx, dy, i + 1, i, borderNodes );
+                }
+            }
+        }
+    }
+
+    private void addEntrance(int clusterA, int clusterB, int x, int y, int stepX, int stepY, int dx, int dy,
+                             int offsetA, int offsetB, IntArrayList borderNodes)
+    {
+        final int a = createNode( clusterA, GridNavMesh.toNodeID( x + offsetA * stepX, y + offsetA * stepY ) );
+        final int b = createNode( clusterB, GridNavMesh.toNodeID( x + offsetB * stepX + dx, y + offsetB * stepY + dy ) );
+        nodePartner[ a ] = b;
+        nodePartner[ b ] = a;
+        borderNodes.add( a );
+    }
+
+    private void removeEntrances(IntArrayList borderNodes)
+    {
+        for ( int i = 0, len = borderNodes.size() ; i < len ; i++ )
+        {
+            final int node = borderNodes.getInt( i );
+            removeNode( nodePartner[ node ] );
+            removeNode( node );
+        }
+        borderNodes.clear();
+    }
+
+    private int createNode(int cluster, int cell)
+    {
+        final int node;
+        if ( freeNodes.isEmpty() )
+        {
+            if ( nodeCount == nodeCell.length )
+            {
+                final int newSize = nodeCount * 2;
+                nodeCell = Arrays.copyOf( nodeCell, newSize );
+                nodeCluster = Arrays.copyOf( nodeCluster, newSize );
+                nodePartner = Arrays.copyOf( nodePartner, newSize );
+                nodeSlot = Arrays.copyOf( nodeSlot, newSize );
+                nodeComponent = Arrays.copyOf( nodeComponent, newSize );
+                nodeSuperSlot = Arrays.copyOf( nodeSuperSlot, newSize );
+                nodeLevel2Slot = Arrays.copyOf( nodeLevel2Slot, newSize );
+            }
+            node = nodeCount++;
+        } else {
+            node = freeNodes.popInt();
+        }
+        nodeLevel2Slot[ node ] = -1;
+        nodeCell[ node ] = cell;
+        nodeCluster[ node ] = cluster;
+        clusterNodes[ cluster ].add( node );
+        return node;
+    }
+
+    private void removeNode(int node)
+    {
+        clusterNodes[ nodeCluster[ node ] ].rem( node );
+        freeNodes.add( node );
+    }
+
+    private void computeClusterCosts(int cluster)
+    {
+        final IntArrayList nodes = clusterNodes[ cluster ];
+        final int k = nodes.size();
+        int[] costs = clusterCosts[ cluster ];
+        if ( costs.length != k * k ) {
+            costs = clusterCosts[ cluster ] = new int[ k * k ];
+        }
+        Arrays.fill( costs, UNREACHABLE );
+        localSearch.init( cluster );
+        for ( int i = 0 ; i < k ; i++ )
+        {
+            nodeSlot[ nodes.getInt( i ) ] = i;
+            costs[ i * k + i ] = 0;
+            if ( i + 1 < k )
+            {
+                localSearch.reset();
+                localSearch.search( nodeCell[ nodes.getInt( i ) ], -1 );
+                for ( int j = i + 1 ; j < k ; j++ )
+                {
+                    final int cost = localSearch.cost( nodeCell[ nodes.getInt( j ) ] );
+                    costs[ i * k + j ] = cost;
+                    costs[ j * k + i ] = cost;
+                }
+            }
+        }
+    }
+
+    /**
+     * A* (or Dijkstra when searching without a destination) restricted to a single cluster.
+     */
+    private final class LocalSearch
+    {
+        private final int[] cost = new int[ clusterSize * clusterSize ];
+        private final int[] parent = new int[ clusterSize * clusterSize ];
+        private final int[] stamp = new int[ clusterSize * clusterSize ];
+        private int generation;
+
+        // walkability of the current cluster's cells, copied from the nav mesh by init()
+        private final boolean[] walkable = new boolean[ clusterSize * clusterSize ];
+
+        private final LongHeapPriorityQueue queue = new LongHeapPriorityQueue();
+
+        // bounds of current cluster
+        private int x0,y0,w,h;
+
+        public void init(int cluster)
+        {
+            x0 = ( cluster % clustersX ) * clusterSize;
+            y0 = ( cluster / clustersX ) * clusterSize;
+            w = Math.min( clusterSize, width - x0 );
+            h = Math.min( clusterSize, height - y0 );
+            for ( int y = 0, i = 0 ; y < h ; y++ )
+            {
+                for ( int x = 0 ; x < w ; x++ ) {
+                    walkable[ i++ ] = mesh.isWalkable( x0 + x, y0 + y );
+                }
+            }
+            reset();
+        }
+
+        public void reset()
+        {
+            if ( ++generation == 0 )
+            {
+                Arrays.fill( stamp, 0 );
+                generation = 1;
+            }
+        }
+
+        private int toIndex(int cell) {
+            return ( GridNavMesh.extractX( cell ) - x0 ) + ( GridNavMesh.extractY( cell ) - y0 ) * w;
+        }
+
+        private int toCell(int idx) {
+            return GridNavMesh.toNodeID( x0 + idx % w, y0 + idx / w );
+        }
+
+        /**
+         * Searches from a cell inside the current cluster.
+         *
+         * @param fromCell
+         * @param toCell destination cell or -1 to calculate the costs of reaching all cells
+         * @return <code>true</code> if the destination was reached (always <code>true</code> if there is none)
+         */
+        public boolean search(int fromCell, int toCell)
+        {
+            final int start = toIndex( fromCell );
+            final int goal = toCell == -1 ? -1 : toIndex( toCell );
+            final int goalX = goal == -1 ? 0 : goal % w;
+            final int goalY = goal == -1 ? 0 : goal / w;
+
+            cost[ start ] = 0;
+            parent[ start ] = -1;
+            stamp[ start ] = generation;
+            queue.clear();
+            final int startH = goal == -1 ? 0 : GridNavMesh.octile( start % w - goalX, start / w - goalY );
+            queue.enqueue( (long) startH << 32 | start );
+            while ( ! queue.isEmpty() )
+            {
+                final long entry = queue.dequeueLong();
+                final int idx = (int) entry;
+                final int x = idx % w;
+                final int y = idx / w;
+                final int c = cost[ idx ];
+                final int heuristic = goal == -1 ? 0 : GridNavMesh.octile( x - goalX, y - goalY );
+                if ( (int) ( entry >>> 32 ) != c + heuristic ) {
+                    continue; // stale entry
+                }
+                if ( idx == goal ) {
+                    return true;
+                }
+                for ( int i = 0 ; i < 8 ; i++ )
+                {
+                    final int nx = x + GridNavMesh.DX[i];
+                    final int ny = y + GridNavMesh.DY[i];
+                    final int n = nx + ny * w;
+                    if ( nx >= 0 && ny >= 0 && nx < w && ny < h && walkable[ n ] )
+                    {
+                        final int newCost = c + GridNavMesh.STEP_COST[i];
+                        if ( stamp[ n ] != generation || newCost < cost[ n ] )
+                        {
+                            cost[ n ] = newCost;
+                            parent[ n ] = idx;
+                            stamp[ n ] = generation;
+                            final int f = goal == -1 ? newCost : newCost + GridNavMesh.octile( nx - goalX, ny - goalY );
+                            queue.enqueue( (long) f << 32 | n );
+                        }
+                    }
+                }
+            }
+            return goal == -1;
+        }
+
+        /**
+         * Returns the cost of reaching a cell in the last search.
+         */
+        public int cost(int cell)
+        {
+            final int idx = toIndex( cell );
+            return stamp[ idx ] == generation ? cost[ idx ] : UNREACHABLE;
+        }
+
+        /**
+         * Appends the path to a cell found by the last search, excluding the start cell.
+         */
+        public void appendPath(int toCell, IntArrayList result)
+        {
+            final int offset = result.size();
+            for ( int idx = toIndex( toCell ) ; parent[ idx ] != -1 ; idx = parent[ idx ] ) {
+                result.add( toCell( idx ) );
+            }
+            Collections.reverse( result.subList( offset, result.size() ) );
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package de.codesourcery.sim.pathfinding;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Jump Point Search (Harabor &amp; Grastien, 2011) on a {@link GridNavMesh}.
+ *
+ * Instead of putting all neighbours of a cell on the open list, the search "jumps" along straight and
+ * diagonal lines until it reaches a cell where an obstacle forces a turn, so only those jump points get expanded.
+ * Uses the same 8-way connectivity as {@link GridNavMesh#getNeighbours(int, int[])}
+ * (diagonal moves may cut corners) with uniform straight/diagonal move costs, the resulting paths are optimal.
+ *
+ * If the mesh provides dense node indices (see {@link NavMesh#getIndexCount()}), the search state is kept in
+ * generation-stamped arrays indexed by cell so that starting a new search does not need to clear anything.
+ *
+ * Instances are not thread-safe.
+ */
+public class JumpPointSearch
+{
+    private static final int MAX_COORDINATE = 65535;
+
+    // meshes with more cells use the hash map instead, the dense arrays take 16 bytes per cell
+    private static final int MAX_DENSE_INDICES = 1 << 22;
+
+    private GridNavMesh mesh;
+    private int goalX;
+    private int goalY;
+
+    // search state by slot, which is the cell's dense index if the mesh provides them and
+    // otherwise assigned through slotByNode. Only valid where the stamp matches the current generation.
+    private int[] parent = new int[0]; // slot of parent or -1
+    private int[] g = new int[0];
+    private int[] stamp = new int[0];
+    private int[] closedStamp = new int[0];
+    private int generation;
+
+    private boolean useIndices;
+
+    // only used if the mesh has no dense indices
+    private final Int2IntOpenHashMap slotByNode = new Int2IntOpenHashMap();
+    private int[] nodeBySlot = new int[0];
+    private int slotCount;
+
+    // priority is (f << 32 | slot), outdated entries are skipped
+    private final LongHeapPriorityQueue openList = new LongHeapPriorityQueue();
+
+    private int expandedNodes;
+
+    public JumpPointSearch() {
+        slotByNode.defaultReturnValue( -1 );
+    }
+
+    /**
+     * Finds a path.
+     *
+     * @param startNodeId
+     * @param dstNodeId
+     * @param mesh
+     * @param spy optional, invoked for every jump point that gets expanded
+     * @return node IDs of all cells along the path (including start and destination) or an empty list if there is no path
+     */
+    public List<Integer> findPath(int startNodeId, int dstNodeId, GridNavMesh mesh, AStar.Spy spy)
+    {
+        if ( startNodeId == dstNodeId ) {
+            throw new IllegalArgumentException( "start = destination?" );
+        }
+        this.mesh = mesh;
+        this.goalX = GridNavMesh.extractX( dstNodeId );
+        this.goalY = GridNavMesh.extractY( dstNodeId );
+        reset();
+
+        if ( ! isWalkable( goalX, goalY ) ) {
+            return Collections.emptyList();
+        }
+
+        final int startSlot = createSlot( startNodeId, -1, 0 );
+        openList.enqueue( (long) heuristic( startNodeId ) << 32 | startSlot );
+
+        while ( ! openList.isEmpty() )
+        {
+            final int current = (int) openList.dequeueLong();
+            if ( closedStamp[ current ] == generation ) {
+                continue;
+            }
+            closedStamp[ current ] = generation;
+            expandedNodes++;
+
+            final int currentNode = nodeOf( current );
+            if ( spy != null )
+            {
+                final int h = heuristic( currentNode );
+                spy.visit( currentNode, g[ current ] + h, g[ current ], h,
+                    parent[ current ] == -1 ? -1 : nodeOf( parent[ current ] ) );
+            }
+            if ( currentNode == dstNodeId ) {
+                return toPath( current );
+            }
+
+            final int x = GridNavMesh.extractX( currentNode );
+            final int y = GridNavMesh.extractY( currentNode );
+            if ( parent[ current ] == -1 )
+            {
+                for ( int dy = -1 ; dy <= 1 ; dy++ )
+                {
+                    for ( int dx = -1 ; dx <= 1 ; dx++ )
+                    {
+                        if ( dx != 0 || dy != 0 ) {
+                            jumpFrom( current, x, y, dx, dy );
+                        }
+                    }
+                }
+                continue;
+            }
+
+            final int parentNode = nodeOf( parent[ current ] );
+            final int dx = Integer.signum( x - GridNavMesh.extractX( parentNode ) );
+            final int dy = Integer.signum( y - GridNavMesh.extractY( parentNode ) );
+            if ( dx != 0 && dy != 0 )
+            {
+                // natural neighbours
+                jumpFrom( current, x, y, 0, dy );
+                jumpFrom( current, x, y, dx, 0 );
+                jumpFrom( current, x, y, dx, dy );
+                // forced neighbours
+                if ( ! isWalkable( x - dx, y ) && isWalkable( x - dx, y + dy ) ) {
+                    jumpFrom( current, x, y, -dx, dy );
+                }
+                if ( ! isWalkable( x, y - dy ) && isWalkable( x + dx, y - dy ) ) {
+                    jumpFrom( current, x, y, dx, -dy );
+                }
+            }
+            else if ( dx != 0 )
+            {
+                jumpFrom( current, x, y, dx, 0 );
+                if ( ! isWalkable( x, y + 1 ) && isWalkable( x + dx, y + 1 ) ) {
+                    jumpFrom( current, x, y, dx, 1 );
+                }
+                if ( ! isWalkable( x, y - 1 ) && isWalkable( x + dx, y - 1 ) ) {
+                    jumpFrom( current, x, y, dx, -1 );
+                }
+            }
+            else
+            {
+                jumpFrom( current, x, y, 0, dy );
+                if ( ! isWalkable( x + 1, y ) && isWalkable( x + 1, y + dy ) ) {
+                    jumpFrom( current, x, y, 1, dy );
+                }
+                if ( ! isWalkable( x - 1, y ) && isWalkable( x - 1, y + dy ) ) {
+                    jumpFrom( current, x, y, -1, dy );
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the number of jump points expanded by the last search.
+     */
+    public int getExpandedNodeCount() {
+        return expandedNodes;
+    }
+
+    private void jumpFrom(int current, int x, int y, int dx, int dy)
+    {
+        final int jumpPoint = jump( x, y, dx, dy );
+        if ( jumpPoint == -1 ) {
+            return;
+        }
+        final int steps = Math.max( Math.abs( GridNavMesh.extractX( jumpPoint ) - x ), Math.abs( GridNavMesh.extractY( jumpPoint ) - y ) );
+        final int newG = g[ current ] + steps * ( dx != 0 && dy != 0 ? GridNavMesh.DIAGONAL_COST : GridNavMesh.STRAIGHT_COST );
+
+        int slot = slotOf( jumpPoint );
+        if ( slot == -1 ) {
+            slot = createSlot( jumpPoint, current, newG );
+        }
+        else if ( closedStamp[ slot ] == generation || newG >= g[ slot ] ) {
+            return;
+        }
+        else
+        {
+            g[ slot ] = newG;
+            parent[ slot ] = current;
+        }
+        openList.enqueue( (long) ( newG + heuristic( jumpPoint ) ) << 32 | slot );
+    }
+
+    /**
+     * Moves from a cell in a given direction until reaching the goal, a dead end or
+     * a cell with a forced neighbour.
+     *
+     * @return node ID of jump point or -1 if there is none
+     */
+    private int jump(int x, int y, int dx, int dy)
+    {
+        if ( dx == 0 || dy == 0 ) {
+            return jumpStraight( x, y, dx, dy );
+        }
+        while ( true )
+        {
+            x += dx;
+            y += dy;
+            if ( ! isWalkable( x, y ) ) {
+                return -1;
+            }
+            if ( x == goalX && y == goalY ) {
+                return GridNavMesh.toNodeID( x, y );
+            }
+            if ( ( isWalkable( x - dx, y + dy ) && ! isWalkable( x - dx, y ) ) ||
+                 ( isWalkable( x + dx, y - dy ) && ! isWalkable( x, y - dy ) ) )
+            {
+                return GridNavMesh.toNodeID( x, y );
+            }
+            // cell is a jump point if a straight move from here leads to one
+            if ( jumpStraight( x, y, dx, 0 ) != -1 || jumpStraight( x, y, 0, dy ) != -1 ) {
+                return GridNavMesh.toNodeID( x, y );
+            }
+        }
+    }
+
+    private int jumpStraight(int x, int y, int dx, int dy)
+    {
+        // offset to the cells on either side
+        final int sideX = dy != 0 ? 1 : 0;
+        final int sideY = dx != 0 ? 1 : 0;
+
+        // walkability of the cells beside the current cell, carried over from the previous step
+        boolean left = isWalkable( x + dx + sideX, y + dy + sideY );
+        boolean right = isWalkable( x + dx - sideX, y + dy - sideY );
+        while ( true )
+        {
+            x += dx;
+            y += dy;
+            if ( ! isWalkable( x, y ) ) {
+                return -1;
+            }
+            if ( x == goalX && y == goalY ) {
+                return GridNavMesh.toNodeID( x, y );
+            }
+            final boolean leftAhead = isWalkable( x + dx + sideX, y + dy + sideY );
+            final boolean rightAhead = isWalkable( x + dx - sideX, y + dy - sideY );
+            if ( ( leftAhead && ! left ) || ( rightAhead && ! right ) ) {
+                return GridNavMesh.toNodeID( x, y );
+            }
+            left = leftAhead;
+            right = rightAhead;
+        }
+    }
+
+    private boolean isWalkable(int x, int y) {
+        return x >= 0 && y >= 0 && x <= MAX_COORDINATE && y <= MAX_COORDINATE && mesh.isWalkable( x, y );
+    }
+
+    private int heuristic(int nodeId) {
+        return GridNavMesh.octile( GridNavMesh.extractX( nodeId ) - goalX, GridNavMesh.extractY( nodeId ) - goalY );
+    }
+
+    private void reset()
+    {
+        openList.clear();
+        expandedNodes = 0;
+
+        final int indexCount = mesh.getIndexCount();
+        useIndices = indexCount > 0 && indexCount <= MAX_DENSE_INDICES;
+        if ( useIndices ) {
+            ensureCapacity( indexCount );
+        } else {
+            slotByNode.clear();
+            slotCount = 0;
+        }
+        if ( ++generation == 0 )
+        {
+            Arrays.fill( stamp, 0 );
+            Arrays.fill( closedStamp, 0 );
+            generation = 1;
+        }
+    }
+
+    private void ensureCapacity(int slots)
+    {
+        if ( stamp.length < slots )
+        {
+            parent = Arrays.copyOf( parent, slots );
+            g = Arrays.copyOf( g, slots );
+            stamp = Arrays.copyOf( stamp, slots );
+            closedStamp = Arrays.copyOf( closedStamp, slots );
+        }
+    }
+
+    /**
+     * Returns the slot of a cell discovered during the current search or -1.
+     */
+    private int slotOf(int nodeId)
+    {
+        if ( useIndices )
+        {
+            final int idx = mesh.toIndex( nodeId );
+            return stamp[ idx ] == generation ? idx : -1;
+        }
+        return slotByNode.get( nodeId );
+    }
+
+    private int nodeOf(int slot)
+    {
+        if ( useIndices ) {
+            final int width = mesh.getWidth();
+            return GridNavMesh.toNodeID( slot % width, slot / width );
+        }
+        return nodeBySlot[ slot ];
+    }
+
+    private int createSlot(int nodeId, int parentSlot, int nodeG)
+    {
+        final int slot;
+        if ( useIndices ) {
+            slot = mesh.toIndex( nodeId );
+        }
+        else
+        {
+            if ( slotCount == nodeBySlot.length )
+            {
+                final int newSize = Math.max( 256, slotCount * 2 );
+                nodeBySlot = Arrays.copyOf( nodeBySlot, newSize );
+                ensureCapacity( newSize );
+            }
+            slot = slotCount++;
+            nodeBySlot[ slot ] = nodeId;
+            slotByNode.put( nodeId, slot );
+        }
+        parent[ slot ] = parentSlot;
+        g[ slot ] = nodeG;
+        stamp[ slot ] = generation;
+        return slot;
+    }
+
+    /**
+     * Turns the jump points leading to a node into a list of all cells along the way.
+     */
+    private List<Integer> toPath(int goalSlot)
+    {
+        final IntArrayList result = new IntArrayList();
+        int current = goalSlot;
+        result.add( nodeOf( current ) );
+        while ( parent[ current ] != -1 )
+        {
+            final int from = nodeOf( parent[ current ] );
+            final int to = nodeOf( current );
+            int x = GridNavMesh.extractX( to );
+            int y = GridNavMesh.extractY( to );
+            final int dx = Integer.signum( GridNavMesh.extractX( from ) - x );
+            final int dy = Integer.signum( GridNavMesh.extractY( from ) - y );
+            do
+            {
+                x += dx;
+                y += dy;
+                result.add( GridNavMesh.toNodeID( x, y ) );
+            } while ( GridNavMesh.toNodeID( x, y ) != from );
+            current = parent[ current ];
+        }
+        Collections.reverse( result );
+        return result;
+    }
+}
@@ -0,0 +1,172 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only grid nav mesh backed by a memory-mapped map file.
+ *
+ * Opening a map only maps the file, cells get paged in by the OS when they are first accessed and
+ * processes mapping the same file share its pages. The bitset never lives on the heap.
+ *
+ * File format (all values little-endian):
+ * <pre>
+ * offset  size  contents
+ * 0       4     magic 'NAVG' (0x4e415647)
+ * 4       4     version (1)
+ * 8       4     width in cells
+ * 12      4     height in cells
+ * 16      4     tile size (64)
+ * 20      44    reserved, zero
+ * 64      8*n   bitset as described in {@link AbstractBitGridNavMesh}, n = {@link #getWordCount(int, int)}
+ * </pre>
+ *
+ * Instances are immutable and may be used by several threads at once. The mapping
+ * is released once the instance has been garbage-collected.
+ */
+public class MappedGridNavMesh extends AbstractBitGridNavMesh
+{
+    public static final int MAGIC = 0x4e415647;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    private final LongBuffer bits;
+
+    private MappedGridNavMesh(int width, int height, LongBuffer bits)
+    {
+        super( width, height );
+        this.bits = bits;
+    }
+
+    /**
+     * Maps a map file.
+     *
+     * @param file
+     * @return mesh
+     * @throws IOException
+     * @throws IllegalArgumentException if the file is no valid map file, this includes files
+     * with walkable padding cells
+     */
+    public static MappedGridNavMesh open(Path file) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            final long size = channel.size();
+            if ( size < HEADER_SIZE ) {
+                throw new IllegalArgumentException( "Not a map file (too short): " + file );
+            }
+            final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+            if ( buffer.getInt( 0 ) != MAGIC ) {
+                throw new IllegalArgumentException( "Not a map file (bad magic): " + file );
+            }
+            final int version = buffer.getInt( 4 );
+            if ( version != VERSION ) {
+                throw new IllegalArgumentException( "Unsupported map file version " + version + ": " + file );
+            }
+            final int width = buffer.getInt( 8 );
+            final int height = buffer.getInt( 12 );
+            final int tileSize = buffer.getInt( 16 );
+            if ( tileSize != TILE_SIZE ) {
+                throw new IllegalArgumentException( "Unsupported tile size " + tileSize + ": " + file );
+            }
+            Validate.isTrue( width > 0 && width <= 65536 && height > 0 && height <= 65536,
+                "Invalid map size %d x %d: %s", width, height, file );
+            final long expectedSize = HEADER_SIZE + 8L * getWordCount( width, height );
+            if ( size != expectedSize ) {
+                throw new IllegalArgumentException( "Map file has " + size + " bytes, expected " + expectedSize + ": " + file );
+            }
+            // mapping stays valid after the channel got closed
+            final LongBuffer bits = buffer.position( HEADER_SIZE ).slice().order( ByteOrder.LITTLE_ENDIAN ).asLongBuffer();
+            final MappedGridNavMesh mesh = new MappedGridNavMesh( width, height, bits );
+            if ( ! mesh.isPaddingBlocked() ) {
+                throw new IllegalArgumentException( "Map file has walkable padding cells: " + file );
+            }
+            return mesh;
+        }
+    }
+
+    // neighbour lookups rely on padding cells being blocked, only touches the words of the last tile column and row
+    private boolean isPaddingBlocked()
+    {
+        final int paddingColumns = getWidth() & TILE_MASK;
+        if ( paddingColumns != 0 )
+        {
+            final long mask = -1L << paddingColumns;
+            for ( int y = 0, rows = tilesY * TILE_SIZE ; y < rows ; y++ )
+            {
+                if ( ( getWord( wordIndex( getWidth(), y ) ) & mask ) != mask ) {
+                    return false;
+                }
+            }
+        }
+        for ( int y = getHeight(), rows = tilesY * TILE_SIZE ; y < rows ; y++ )
+        {
+            for ( int x = 0 ; x < getWidth() ; x += TILE_SIZE )
+            {
+                if ( getWord( wordIndex( x, y ) ) != -1L ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a grid to a map file, replacing any existing file.
+     *
+     * @param mesh grid with known width and height
+     * @param file
+     * @throws IOException
+     */
+    public static void write(GridNavMesh mesh, Path file) throws IOException
+    {
+        Validate.notNull( mesh, "mesh must not be null" );
+        Validate.isTrue( mesh.getWidth() > 0 && mesh.getHeight() > 0, "mesh needs to have a known size" );
+
+        // padding cells need to be blocked
+        final AbstractBitGridNavMesh bitMesh = mesh instanceof AbstractBitGridNavMesh ?
+            (AbstractBitGridNavMesh) mesh : BitGridNavMesh.copyOf( mesh );
+
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            final ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 ).order( ByteOrder.LITTLE_ENDIAN );
+            buffer.putInt( MAGIC ).putInt( VERSION )
+                .putInt( bitMesh.getWidth() ).putInt( bitMesh.getHeight() ).putInt( TILE_SIZE );
+            buffer.position( HEADER_SIZE );
+
+            for ( int i = 0, count = bitMesh.getWordCount() ; i < count ; i++ )
+            {
+                if ( buffer.remaining() < 8 ) {
+                    writeFully( buffer, channel );
+                }
+                buffer.putLong( bitMesh.getWord( i ) );
+            }
+            writeFully( buffer, channel );
+        }
+    }
+
+    private static void writeFully(ByteBuffer buffer,FileChannel channel) throws IOException
+    {
+        buffer.flip();
+        while ( buffer.hasRemaining() ) {
+            channel.write( buffer );
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public long getWord(int index) {
+        return bits.get( index );
+    }
+}
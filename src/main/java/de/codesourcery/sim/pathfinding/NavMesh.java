@@ -30,6 +30,21 @@ public interface NavMesh
      */
     int calcH(int nodeStart, int nodeEnd);
 
+    /**
+     * Returns a lower bound for the cost of reaching a destination node from some start node.
+     *
+     * Unlike {@link #calcH(int, int)} this must never overestimate the cost (and must not
+     * decrease by more than the cost of a single move between neighbours),
+     * searches that need to prove a path is optimal use this instead.
+     *
+     * @param nodeStart ID of start node
+     * @param nodeEnd ID of destination node
+     * @return lower bound, the default implementation returns 0
+     */
+    default int calcLowerBound(int nodeStart, int nodeEnd) {
+        return 0;
+    }
+
     /**
      * Calculates the distance between two nodes.
      * @param nodeA
@@ -38,6 +53,15 @@ public interface NavMesh
      */
     int calcG(int nodeA, int nodeB);
 
+    /**
+     * Returns all neighbours for a given node that are walkable.
+     *
+     * @param node ID of node to check neighbours of
+     * @param result array where to store neighbour node IDs in
+     * @return number of neighbour node IDs written to the result list
+     */
+    int getNeighbours(int node, int[] result);
+
     /**
      * Returns all neighbours for a given node that are walkable
      * and NOT on the close list.
@@ -47,5 +71,38 @@ public interface NavMesh
      * @param result array where to store neighbour node IDs in
      * @return number of neighbour node IDs written to the result list
      */
-    int getNeighbours(int node, IntOpenHashSet visitedNodeIds, int[] result);
+    default int getNeighbours(int node, IntOpenHashSet visitedNodeIds, int[] result)
+    {
+        final int count = getNeighbours( node, result );
+        int kept = 0;
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            if ( ! visitedNodeIds.contains( result[i] ) ) {
+                result[kept++] = result[i];
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the number of dense node indices, see {@link #toIndex(int)}.
+     *
+     * Path finders use dense indices to keep per-node state in arrays instead of hash maps.
+     *
+     * @return number of indices or 0 if nodes have no dense indices
+     */
+    default int getIndexCount() {
+        return 0;
+    }
+
+    /**
+     * Maps a node ID to a dense index in the range <code>[0, getIndexCount())</code>.
+     *
+     * @param nodeId
+     * @return index
+     * @throws UnsupportedOperationException if {@link #getIndexCount()} returns 0
+     */
+    default int toIndex(int nodeId) {
+        throw new UnsupportedOperationException( "Nodes have no dense indices" );
+    }
 }
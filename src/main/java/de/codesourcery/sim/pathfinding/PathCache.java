@@ -0,0 +1,265 @@
+package de.codesourcery.sim.pathfinding;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntLists;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.apache.commons.lang3.Validate;
+
+import java.util.List;
+
+/**
+ * Bounded cache of paths keyed by start and destination node IDs, evicting the least recently used path
+ * when full.
+ *
+ * Whoever changes the walkability of a node needs to call {@link #invalidate(int)} so that
+ * all cached paths leading through this node get discarded (caches of {@link GridNavMesh} paths can
+ * instead be registered as the mesh's {@link GridNavMesh.ChangeListener}). Paths that do not touch the node
+ * stay valid (though there might be a shorter path now if the node became walkable).
+ * Failed searches are not cached, neither are paths from searches that ran while nodes got invalidated
+ * (see {@link #put(int, int, List, long)}).
+ *
+ * All methods are thread-safe.
+ */
+public final class PathCache implements GridNavMesh.ChangeListener
+{
+    private final int capacity;
+
+    // key is (start node ID, destination node ID), iteration order is least-recently-used first
+    private final Long2ObjectLinkedOpenHashMap<int[]> paths = new Long2ObjectLinkedOpenHashMap<>();
+
+    // keys of all cached paths leading through a node, key is node ID
+    private final Int2ObjectOpenHashMap<LongOpenHashSet> pathsByNode = new Int2ObjectOpenHashMap<>();
+
+    // incremented whenever nodes get invalidated
+    private long epoch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public PathCache(int capacity)
+    {
+        Validate.isTrue( capacity > 0, "capacity must be > 0" );
+        this.capacity = capacity;
+    }
+
+    private static long key(int startNodeId, int dstNodeId) {
+        return (long) startNodeId << 32 | ( dstNodeId & 0xffffffffL );
+    }
+
+    /**
+     * Looks up a path.
+     *
+     * @param startNodeId
+     * @param dstNodeId
+     * @return unmodifiable path (including start and destination node) or <code>null</code> if not cached
+     */
+    public synchronized List<Integer> get(int startNodeId, int dstNodeId)
+    {
+        final int[] path = paths.getAndMoveToLast( key( startNodeId, dstNodeId ) );
+        if ( path == null ) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return IntLists.unmodifiable( IntArrayList.wrap( path ) );
+    }
+
+    /**
+     * Adds a path, evicting the least recently used one if the cache is full.
+     *
+     * @param startNodeId
+     * @param dstNodeId
+     * @param path path as returned by {@link AStar#findPath(int, int, NavMesh, AStar.Spy)}, empty paths are ignored
+     */
+    public synchronized void put(int startNodeId, int dstNodeId, List<Integer> path) {
+        put( startNodeId, dstNodeId, path, epoch );
+    }
+
+    /**
+     * Adds a path found by a search that started at the given epoch. The path is dropped if any
+     * node got invalidated since, it might lead through a node that is no longer walkable.
+     *
+     * @param startNodeId
+     * @param dstNodeId
+     * @param path path as returned by {@link AStar#findPath(int, int, NavMesh, AStar.Spy)}, empty paths are ignored
+     * @param epoch value of {@link #getEpoch()} before the search started
+     */
+    public synchronized void put(int startNodeId, int dstNodeId, List<Integer> path, long epoch)
+    {
+        if ( path.isEmpty() || epoch != this.epoch ) {
+            return;
+        }
+        final long key = key( startNodeId, dstNodeId );
+        if ( paths.containsKey( key ) ) {
+            remove( key );
+        }
+        if ( paths.size() == capacity )
+        {
+            remove( paths.firstLongKey() );
+            evictions++;
+        }
+        final int[] nodes = new int[ path.size() ];
+        for (int i = 0; i < nodes.length; i++)
+        {
+            nodes[i] = path.get( i );
+            LongOpenHashSet keys = pathsByNode.get( nodes[i] );
+            if ( keys == null ) {
+                keys = new LongOpenHashSet();
+                pathsByNode.put( nodes[i], keys );
+            }
+            keys.add( key );
+        }
+        paths.putAndMoveToLast( key, nodes );
+    }
+
+    /**
+     * Looks up a path, searching and caching it on a cache miss.
+     *
+     * @param startNodeId
+     * @param dstNodeId
+     * @param navMesh
+     * @param astar used to search paths not in the cache
+     * @return path or an empty list if there is none
+     */
+    public List<Integer> findPath(int startNodeId, int dstNodeId, NavMesh navMesh, AStar astar)
+    {
+        final long epochBeforeSearch = getEpoch();
+        final List<Integer> cached = get( startNodeId, dstNodeId );
+        if ( cached != null ) {
+            return cached;
+        }
+        final List<Integer> path = astar.findPath( startNodeId, dstNodeId, navMesh, null );
+        put( startNodeId, dstNodeId, path, epochBeforeSearch );
+        return path;
+    }
+
+    /**
+     * Returns a counter that changes whenever nodes get invalidated or the cache gets cleared.
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Discards all paths leading through a node, to be called whenever the node's walkability changes.
+     *
+     * @param nodeId
+     */
+    public synchronized void invalidate(int nodeId)
+    {
+        epoch++;
+        final LongOpenHashSet keys = pathsByNode.get( nodeId );
+        if ( keys != null )
+        {
+            final long[] toRemove = keys.toLongArray();
+            for ( long key : toRemove ) {
+                remove( key );
+            }
+            invalidations += toRemove.length;
+        }
+    }
+
+    @Override
+    public synchronized void walkabilityChanged(GridNavMesh mesh, int x, int y, int width, int height)
+    {
+        // look at whichever is smaller, the changed cells or the nodes of cached paths
+        if ( (long) width * height <= pathsByNode.size() )
+        {
+            for ( int dy = 0 ; dy < height ; dy++ )
+            {
+                for ( int dx = 0 ; dx < width ; dx++ ) {
+                    invalidate( GridNavMesh.toNodeID( x + dx, y + dy ) );
+                }
+            }
+            return;
+        }
+        final IntArrayList changed = new IntArrayList();
+        for ( IntIterator it = pathsByNode.keySet().iterator() ; it.hasNext() ; )
+        {
+            final int nodeId = it.nextInt();
+            final int nodeX = GridNavMesh.extractX( nodeId );
+            final int nodeY = GridNavMesh.extractY( nodeId );
+            if ( nodeX >= x && nodeY >= y && nodeX - x < width && nodeY - y < height ) {
+                changed.add( nodeId );
+            }
+        }
+        // searches in progress might have found paths through the changed cells
+        epoch++;
+        for ( int i = 0, len = changed.size() ; i < len ; i++ ) {
+            invalidate( changed.getInt( i ) );
+        }
+    }
+
+    private void remove(long key)
+    {
+        final int[] nodes = paths.remove( key );
+        for ( int node : nodes )
+        {
+            final LongOpenHashSet keys = pathsByNode.get( node );
+            keys.remove( key );
+            if ( keys.isEmpty() ) {
+                pathsByNode.remove( node );
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        epoch++;
+        paths.clear();
+        pathsByNode.clear();
+    }
+
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of paths discarded because the cache was full.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of paths discarded by {@link #invalidate(int)}.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized float getHitRate()
+    {
+        final long total = hits + misses;
+        return total == 0 ? 0 : hits / (float) total;
+    }
+
+    public synchronized void resetStatistics()
+    {
+        hits = misses = evictions = invalidations = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "PathCache[ "+paths.size()+"/"+capacity+" paths, hits: "+hits+", misses: "+misses+
+                   ", evictions: "+evictions+", invalidations: "+invalidations+" ]";
+    }
+}
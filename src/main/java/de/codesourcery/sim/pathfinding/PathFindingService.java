@@ -0,0 +1,156 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs path searches on a pool of worker threads.
+ *
+ * Each worker thread uses its own {@link AStar} instance, so searches never share state. Paths are optionally
+ * looked up in / added to a {@link PathCache} shared by all workers.
+ *
+ * The nav mesh must not change while searches are running.
+ */
+public class PathFindingService implements AutoCloseable
+{
+    // batches get split into this many chunks per thread so that
+    // threads finishing early can pick up more work
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final NavMesh navMesh;
+    private final PathCache cache;
+    private final ForkJoinPool pool;
+
+    private final ThreadLocal<AStar> searchers = ThreadLocal.withInitial( AStar::new );
+
+    public PathFindingService(NavMesh navMesh, int threadCount) {
+        this( navMesh, threadCount, null );
+    }
+
+    /**
+     * Create service.
+     *
+     * @param navMesh
+     * @param threadCount number of worker threads
+     * @param cache cache to use, may be <code>null</code>
+     */
+    public PathFindingService(NavMesh navMesh, int threadCount, PathCache cache)
+    {
+        Validate.notNull( navMesh, "navMesh must not be null" );
+        Validate.isTrue( threadCount > 0, "threadCount must be > 0" );
+        this.navMesh = navMesh;
+        this.cache = cache;
+        this.pool = new ForkJoinPool( threadCount );
+    }
+
+    /**
+     * Searches a path in the background.
+     *
+     * @param startNodeId
+     * @param dstNodeId
+     * @return future that completes with the path as returned by {@link AStar#findPath(int, int, NavMesh, AStar.Spy)}
+     */
+    public CompletableFuture<List<Integer>> findPath(int startNodeId, int dstNodeId)
+    {
+        final CompletableFuture<List<Integer>> result = new CompletableFuture<>();
+        pool.execute( () -> search( startNodeId, dstNodeId, result ) );
+        return result;
+    }
+
+    /**
+     * Searches many paths in parallel.
+     *
+     * @param startNodeIds
+     * @param dstNodeIds
+     * @return one future per path, in the same order as the arguments
+     */
+    public List<CompletableFuture<List<Integer>>> findPaths(int[] startNodeIds, int[] dstNodeIds)
+    {
+        Validate.isTrue( startNodeIds.length == dstNodeIds.length, "Need as many destinations as start nodes" );
+
+        final int count = startNodeIds.length;
+        final List<CompletableFuture<List<Integer>>> result = new ArrayList<>( count );
+        for ( int i = 0 ; i < count ; i++ ) {
+            result.add( new CompletableFuture<>() );
+        }
+        if ( count == 0 ) {
+            return result;
+        }
+
+        // caller may reuse the arrays
+        final int[] starts = startNodeIds.clone();
+        final int[] destinations = dstNodeIds.clone();
+        final int chunks = Math.min( count, pool.getParallelism() * CHUNKS_PER_THREAD );
+        for ( int chunk = 0 ; chunk < chunks ; chunk++ )
+        {
+            final int from = (int) ( (long) count * chunk / chunks );
+            final int to = (int) ( (long) count * ( chunk + 1 ) / chunks );
+            pool.execute( () ->
+            {
+                for ( int i = from ; i < to ; i++ ) {
+                    search( starts[i], destinations[i], result.get( i ) );
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Computes flow fields for many destinations in parallel, the nav mesh must be a {@link GridNavMesh}.
+     *
+     * @param dstNodeIds
+     * @return one future per destination, in the same order as the argument
+     * @see FlowField#compute(GridNavMesh, int)
+     */
+    public List<CompletableFuture<FlowField>> computeFlowFields(int... dstNodeIds)
+    {
+        if ( ! ( navMesh instanceof GridNavMesh ) ) {
+            throw new IllegalStateException( "Flow fields need a GridNavMesh" );
+        }
+        final GridNavMesh mesh = (GridNavMesh) navMesh;
+        final List<CompletableFuture<FlowField>> result = new ArrayList<>( dstNodeIds.length );
+        for ( int dstNodeId : dstNodeIds ) {
+            result.add( CompletableFuture.supplyAsync( () -> FlowField.compute( mesh, dstNodeId ), pool ) );
+        }
+        return result;
+    }
+
+    private void search(int startNodeId, int dstNodeId, CompletableFuture<List<Integer>> result)
+    {
+        try
+        {
+            final AStar astar = searchers.get();
+            if ( cache != null ) {
+                result.complete( cache.findPath( startNodeId, dstNodeId, navMesh, astar ) );
+            } else {
+                result.complete( astar.findPath( startNodeId, dstNodeId, navMesh, null ) );
+            }
+        }
+        catch (Throwable t)
+        {
+            // also errors like StackOverflowError, callers would wait forever otherwise
+            result.completeExceptionally( t );
+        }
+    }
+
+    public NavMesh getNavMesh() {
+        return navMesh;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stops the worker threads after all pending searches completed.
+     */
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+}
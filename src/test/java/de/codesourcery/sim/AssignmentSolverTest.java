@@ -0,0 +1,114 @@
+package de.codesourcery.sim;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AssignmentSolverTest
+{
+    // one instance for all matrices, the solver re-uses its working arrays
+    private final AssignmentSolver solver = new AssignmentSolver();
+
+    @Test
+    public void testRandomMatricesAgainstBruteForce()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        for ( int i = 0 ; i < 2000 ; i++ )
+        {
+            final int rows = 1 + rnd.nextInt( 6 );
+            final int columns = 1 + rnd.nextInt( 6 );
+            // few distinct values so that many assignments tie
+            final int maxCost = rnd.nextBoolean() ? 3 : 1000;
+            final float[] cost = new float[ rows * columns ];
+            for ( int j = 0 ; j < cost.length ; j++ ) {
+                cost[j] = rnd.nextInt( maxCost + 1 );
+            }
+            check( cost, rows, columns );
+        }
+    }
+
+    @Test
+    public void testAllCostsEqual()
+    {
+        check( new float[] { 5, 5, 5, 5, 5, 5 }, 2, 3 );
+        check( new float[] { 5, 5, 5, 5, 5, 5 }, 3, 2 );
+        check( new float[] { 0, 0, 0, 0 }, 2, 2 );
+    }
+
+    @Test
+    public void testInfeasiblePairsAreAvoided()
+    {
+        final float X = AssignmentSolver.INFEASIBLE;
+        final float[] cost = {
+            X, 1, X,
+            2, X, X,
+            X, X, 3
+        };
+        final int[] result = new int[3];
+        solver.solve( cost, 3, 3, result );
+        assertEquals( 1, result[0] );
+        assertEquals( 0, result[1] );
+        assertEquals( 2, result[2] );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoreRowsThanColumnsAreRejected() {
+        solver.solve( new float[6], 3, 2, new int[3] );
+    }
+
+    /*
+     * Solves the matrix, transposing it first if it has more rows than columns
+     * (like AssignmentDispatcher does), and compares the total cost with the
+     * cheapest assignment found by trying all of them.
+     */
+    private void check(float[] cost, int rows, int columns)
+    {
+        final boolean transpose = rows > columns;
+        final int n = transpose ? columns : rows;
+        final int m = transpose ? rows : columns;
+        final float[] matrix = new float[ n * m ];
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            for ( int j = 0 ; j < m ; j++ ) {
+                matrix[ i * m + j ] = transpose ? cost[ j * columns + i ] : cost[ i * columns + j ];
+            }
+        }
+
+        final int[] result = new int[n];
+        solver.solve( matrix, n, m, result );
+
+        final boolean[] used = new boolean[m];
+        float total = 0;
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            assertTrue( result[i] >= 0 && result[i] < m );
+            assertFalse( "Column assigned twice: " + result[i], used[ result[i] ] );
+            used[ result[i] ] = true;
+            total += matrix[ i * m + result[i] ];
+        }
+        assertEquals( bruteForce( matrix, n, m, 0, new boolean[m] ), total, 0 );
+    }
+
+    // cheapest cost of assigning rows [row, rows) to distinct unused columns
+    private static float bruteForce(float[] matrix, int rows, int columns, int row, boolean[] used)
+    {
+        if ( row == rows ) {
+            return 0;
+        }
+        float best = Float.POSITIVE_INFINITY;
+        for ( int j = 0 ; j < columns ; j++ )
+        {
+            if ( ! used[j] )
+            {
+                used[j] = true;
+                best = Math.min( best, matrix[ row * columns + j ] + bruteForce( matrix, rows, columns, row + 1, used ) );
+                used[j] = false;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,131 @@
+package de.codesourcery.sim;
+
+import de.codesourcery.sim.pathfinding.BitGridNavMesh;
+import de.codesourcery.sim.pathfinding.FlowField;
+import de.codesourcery.sim.pathfinding.GridNavMesh;
+import de.codesourcery.sim.pathfinding.PathFindingService;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class WorldNavigationTest
+{
+    @Test(timeout = 10_000)
+    public void testSlowSearchDoesNotBlockTick()
+    {
+        final CountDownLatch searchMayProceed = new CountDownLatch( 1 );
+        final GridNavMesh mesh = new GridNavMesh( 100, 100 )
+        {
+            @Override
+            public boolean isWalkable(int x, int y)
+            {
+                try {
+                    searchMayProceed.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+        final World world = new World();
+        try ( PathFindingService service = new PathFindingService( mesh, 1 ) )
+        {
+            final WorldNavigation navigation = new WorldNavigation( mesh, new Vec2D( 0, 0 ), 0.01f, service );
+            world.setNavigation( navigation );
+
+            final Robot robot = new Robot( new Vec2D( 0.005f, 0.005f ) );
+            final Depot src = new Depot( new Vec2D( 0.9f, 0.9f ), ItemType.STONE );
+            final Depot dst = new Depot( new Vec2D( 0.9f, 0.005f ), ItemType.STONE );
+            world.add( new Controller( new Vec2D( 0.5f, 0.5f ) ) );
+            world.add( robot );
+            world.add( src );
+            world.add( dst );
+            robot.transfer( src, new ItemAndAmount( ItemType.STONE, 1 ), dst );
+
+            for ( int i = 0 ; i < navigation.routeLatencyTicks * 5 ; i++ ) {
+                world.tick( 1 / 60f );
+            }
+            // moved towards the destination while waiting
+            assertTrue( robot.position.x > 0.005f );
+            searchMayProceed.countDown();
+        }
+        finally {
+            searchMayProceed.countDown();
+        }
+    }
+
+    @Test
+    public void testMeshChangeWhileComputingFlowFields()
+    {
+        final Thread testThread = Thread.currentThread();
+        final AtomicBoolean changeMesh = new AtomicBoolean( true );
+        final BitGridNavMesh mesh = new BitGridNavMesh( 20, 20 )
+        {
+            @Override
+            public boolean isWalkable(int x, int y)
+            {
+                final boolean result = super.isWalkable( x, y );
+                // block the cell right after the flow field computation has read it
+                if ( x == 0 && y == 0 && Thread.currentThread() != testThread && changeMesh.compareAndSet( true, false ) ) {
+                    setWalkable( x, y, false );
+                }
+                return result;
+            }
+        };
+        try ( PathFindingService service = new PathFindingService( mesh, 1 ) )
+        {
+            final WorldNavigation navigation = new WorldNavigation( mesh, new Vec2D( 0, 0 ), 1f, service );
+            final Vec2D destination = new Vec2D( 10.5f, 10.5f );
+            navigation.addFlowFields( List.of( destination ) );
+
+            assertFalse( changeMesh.get() );
+            final FlowField field = navigation.getFlowField( destination );
+            assertNotNull( field );
+            assertFalse( field.isReachable( GridNavMesh.toNodeID( 0, 0 ) ) );
+            assertTrue( field.isReachable( GridNavMesh.toNodeID( 1, 0 ) ) );
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testUnreachableDestinationAbortsTransfer()
+    {
+        // source depot is walled in
+        final BitGridNavMesh mesh = new BitGridNavMesh( 100, 100 );
+        mesh.setWalkable( 80, 80, 20, 20, false );
+        mesh.setWalkable( 85, 85, 10, 10, true );
+        final World world = new World();
+        try ( PathFindingService service = new PathFindingService( mesh, 1 ) )
+        {
+            final WorldNavigation navigation = new WorldNavigation( mesh, new Vec2D( 0, 0 ), 0.01f, service );
+            // moving straight while waiting would get there if the search is slow
+            navigation.moveWhileWaiting = false;
+            world.setNavigation( navigation );
+
+            final Robot robot = new Robot( new Vec2D( 0.005f, 0.005f ) );
+            final Depot src = new Depot( new Vec2D( 0.9f, 0.9f ), ItemType.STONE );
+            final Depot dst = new Depot( new Vec2D( 0.9f, 0.005f ), ItemType.STONE );
+            world.add( new Controller( new Vec2D( 0.5f, 0.5f ) ) );
+            world.add( robot );
+            world.add( src );
+            world.add( dst );
+            robot.transfer( src, new ItemAndAmount( ItemType.STONE, 1 ), dst );
+
+            // robot stands still until the search is done
+            while ( robot.isBusy() )
+            {
+                world.tick( 1 / 60f );
+                world.robotTable.writeBack( robot );
+                assertFalse( "Walked through the wall", robot.position.x > 0.8f && robot.position.y > 0.8f );
+            }
+            assertEquals( 0, world.robotTable.size() );
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BidirectionalAStarTest
+{
+    private static final int STRAIGHT = GridNavMesh.STRAIGHT_COST;
+    private static final int DIAGONAL = GridNavMesh.DIAGONAL_COST;
+
+    private final AStar astar = new AStar();
+
+    @Test
+    public void testRandomGridsAgainstDijkstra()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        checkRandomQueries( TestGrids.randomGrid( 130, 97, 0.45f, rnd ), 300, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 100, 100, 0.3f, rnd ), 300, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 200, 150, 0.1f, rnd ), 200, rnd );
+    }
+
+    @Test
+    public void testGridOfUnknownSize()
+    {
+        // no dense indices, node mapping is kept in the hash map
+        final Random rnd = new Random( 42 );
+        final BitGridNavMesh grid = TestGrids.randomGrid( 80, 60, 0.3f, rnd );
+        final GridNavMesh mesh = new GridNavMesh()
+        {
+            @Override
+            public boolean isWalkable(int x, int y) {
+                return x >= 0 && y >= 0 && x < grid.getWidth() && y < grid.getHeight() && grid.isWalkable( x, y );
+            }
+        };
+        for ( int i = 0 ; i < 200 ; i++ )
+        {
+            final int start = TestGrids.randomWalkableCell( grid, rnd );
+            final int goal = TestGrids.randomWalkableCell( grid, rnd );
+            if ( start != goal ) {
+                checkQuery( grid, mesh, start, goal );
+            }
+        }
+    }
+
+    @Test
+    public void testGridsOfDifferentSizes()
+    {
+        final Random rnd = new Random( 7 );
+        final BitGridNavMesh small = TestGrids.randomGrid( 40, 30, 0.3f, rnd );
+        final BitGridNavMesh large = TestGrids.randomGrid( 150, 120, 0.3f, rnd );
+        for ( int i = 0 ; i < 20 ; i++ )
+        {
+            checkRandomQueries( small, 5, rnd );
+            checkRandomQueries( large, 5, rnd );
+        }
+    }
+
+    @Test
+    public void testUnreachableGoal()
+    {
+        final BitGridNavMesh mesh = TestGrids.blockedGrid( 5, 5, 0,0, 1,1, 3,3, 4,4 );
+        assertTrue( astar.findPathBidirectional( GridNavMesh.toNodeID( 0, 0 ), GridNavMesh.toNodeID( 4, 4 ), mesh, null ).isEmpty() );
+        assertTrue( astar.findPathBidirectional( GridNavMesh.toNodeID( 4, 4 ), GridNavMesh.toNodeID( 0, 0 ), mesh, null ).isEmpty() );
+    }
+
+    @Test
+    public void testNeighbours()
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( 5, 5 );
+        final int start = GridNavMesh.toNodeID( 2, 2 );
+        final int goal = GridNavMesh.toNodeID( 3, 3 );
+        assertEquals( List.of( start, goal ), astar.findPathBidirectional( start, goal, mesh, null ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStartIsDestination()
+    {
+        final int node = GridNavMesh.toNodeID( 2, 2 );
+        astar.findPathBidirectional( node, node, new BitGridNavMesh( 5, 5 ), null );
+    }
+
+    private void checkRandomQueries(BitGridNavMesh mesh, int queries, Random rnd)
+    {
+        for ( int i = 0 ; i < queries ; i++ )
+        {
+            final int start = TestGrids.randomWalkableCell( mesh, rnd );
+            final int goal = TestGrids.randomWalkableCell( mesh, rnd );
+            if ( start != goal ) {
+                checkQuery( mesh, mesh, start, goal );
+            }
+        }
+    }
+
+    private void checkQuery(BitGridNavMesh grid, GridNavMesh mesh, int start, int goal)
+    {
+        final int optimal = TestGrids.shortestPathCost( grid, start, goal, STRAIGHT, DIAGONAL );
+        final List<Integer> path = astar.findPathBidirectional( start, goal, mesh, null );
+        if ( optimal == TestGrids.NO_PATH ) {
+            assertTrue( "Found path although there is none: " + path, path.isEmpty() );
+        } else {
+            assertEquals( optimal, TestGrids.checkPath( grid, path, start, goal, STRAIGHT, DIAGONAL ) );
+        }
+        // unidirectional search is not optimal but needs to agree on reachability
+        assertEquals( optimal == TestGrids.NO_PATH, astar.findPath( start, goal, mesh, null ).isEmpty() );
+    }
+}
@@ -0,0 +1,197 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitGridNavMeshTest
+{
+    // neither is a multiple of the tile size, rows/columns 63/64 and 127/128 are tile borders
+    private static final int WIDTH = 131;
+    private static final int HEIGHT = 197;
+
+    /*
+     * Reference grid that stores one boolean per cell and uses GridNavMesh's neighbour lookup.
+     */
+    private static final class BooleanGridNavMesh extends GridNavMesh
+    {
+        private final boolean[] walkable;
+
+        BooleanGridNavMesh(int width, int height)
+        {
+            super( width, height );
+            walkable = new boolean[ width * height ];
+            Arrays.fill( walkable, true );
+        }
+
+        @Override
+        public boolean isWalkable(int x, int y) {
+            return x >= 0 && y >= 0 && x < getWidth() && y < getHeight() && walkable[ y * getWidth() + x ];
+        }
+
+        void setWalkable(int x, int y, boolean value) {
+            walkable[ y * getWidth() + x ] = value;
+        }
+    }
+
+    @Test
+    public void testNeighboursAgainstReference()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        for ( float density : new float[] { 0f, 0.1f, 0.5f, 0.9f, 1f } )
+        {
+            final BitGridNavMesh mesh = new BitGridNavMesh( WIDTH, HEIGHT );
+            final BooleanGridNavMesh reference = new BooleanGridNavMesh( WIDTH, HEIGHT );
+            for ( int y = 0 ; y < HEIGHT ; y++ )
+            {
+                for ( int x = 0 ; x < WIDTH ; x++ )
+                {
+                    if ( rnd.nextFloat() < density )
+                    {
+                        mesh.setWalkable( x, y, false );
+                        reference.setWalkable( x, y, false );
+                    }
+                }
+            }
+            assertSameCells( reference, mesh );
+        }
+    }
+
+    @Test
+    public void testRectangleMatchesSingleCells()
+    {
+        final Random rnd = new Random( 42 );
+        final BitGridNavMesh mesh = new BitGridNavMesh( WIDTH, HEIGHT );
+        final BitGridNavMesh singleCells = new BitGridNavMesh( WIDTH, HEIGHT );
+        final BooleanGridNavMesh reference = new BooleanGridNavMesh( WIDTH, HEIGHT );
+        for ( int i = 0 ; i < 200 ; i++ )
+        {
+            // spans up to three tiles, may extend past the grid on any side
+            final int x = rnd.nextInt( WIDTH + 20 ) - 10;
+            final int y = rnd.nextInt( HEIGHT + 20 ) - 10;
+            final int width = rnd.nextInt( 150 );
+            final int height = rnd.nextInt( 150 );
+            final boolean walkable = rnd.nextBoolean();
+            mesh.setWalkable( x, y, width, height, walkable );
+            for ( int cy = Math.max( 0, y ) ; cy < Math.min( HEIGHT, y + height ) ; cy++ )
+            {
+                for ( int cx = Math.max( 0, x ) ; cx < Math.min( WIDTH, x + width ) ; cx++ )
+                {
+                    singleCells.setWalkable( cx, cy, walkable );
+                    reference.setWalkable( cx, cy, walkable );
+                }
+            }
+            if ( i % 20 == 0 ) {
+                assertSameCells( reference, mesh );
+            }
+        }
+        assertSameCells( reference, mesh );
+        for ( int i = 0 ; i < mesh.getWordCount() ; i++ ) {
+            assertEquals( "Word " + i, singleCells.getWord( i ), mesh.getWord( i ) );
+        }
+    }
+
+    @Test
+    public void testChangeNotifications()
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( WIDTH, HEIGHT );
+        final List<int[]> events = new ArrayList<>();
+        mesh.addChangeListener( (changedMesh, x, y, width, height) ->
+        {
+            assertTrue( changedMesh == mesh );
+            events.add( new int[] { x, y, width, height } );
+        });
+
+        mesh.setWalkable( 63, 64, false );
+        assertEvents( events, new int[] { 63, 64, 1, 1 } );
+        mesh.setWalkable( 63, 64, false );
+        assertEvents( events );
+        mesh.setWalkable( 63, 64, true );
+        assertEvents( events, new int[] { 63, 64, 1, 1 } );
+        mesh.setWalkable( 63, 64, true );
+        assertEvents( events );
+
+        // notifies about the whole rectangle if any cell changed, clipped to the grid
+        mesh.setWalkable( 100, 60, false );
+        mesh.setWalkable( 60, 50, 80, 20, true );
+        assertEvents( events, new int[] { 100, 60, 1, 1 }, new int[] { 60, 50, 71, 20 } );
+        mesh.setWalkable( 60, 50, 80, 20, false );
+        assertEvents( events, new int[] { 60, 50, 71, 20 } );
+        mesh.setWalkable( 60, 50, 80, 20, false );
+        assertEvents( events );
+        mesh.setWalkable( -5, -5, 10, 10, false );
+        assertEvents( events, new int[] { 0, 0, 5, 5 } );
+        // outside of the grid and empty rectangles
+        mesh.setWalkable( WIDTH, 0, 10, 10, false );
+        mesh.setWalkable( 0, 0, 0, 10, false );
+        assertEvents( events );
+    }
+
+    @Test
+    public void testPaddingIsBlocked()
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( WIDTH, HEIGHT );
+        for ( int y = -1 ; y <= HEIGHT ; y++ )
+        {
+            assertFalse( mesh.isWalkable( -1, y ) );
+            assertFalse( mesh.isWalkable( WIDTH, y ) );
+        }
+        for ( int x = -1 ; x <= WIDTH ; x++ )
+        {
+            assertFalse( mesh.isWalkable( x, -1 ) );
+            assertFalse( mesh.isWalkable( x, HEIGHT ) );
+        }
+        // cells on the right/bottom edge must not see padding cells as neighbours
+        assertEquals( 0b00001011, mesh.getNeighbourMask( WIDTH - 1, HEIGHT - 1 ) );
+        assertEquals( 0b11010000, mesh.getNeighbourMask( 0, 0 ) );
+    }
+
+    private static void assertEvents(List<int[]> actual, int[]... expected)
+    {
+        assertEquals( expected.length, actual.size() );
+        for ( int i = 0 ; i < expected.length ; i++ ) {
+            assertArrayEquals( expected[i], actual.get( i ) );
+        }
+        actual.clear();
+    }
+
+    private static void assertSameCells(BooleanGridNavMesh reference, BitGridNavMesh mesh)
+    {
+        final int[] expected = new int[8];
+        final int[] actual = new int[8];
+        for ( int y = 0 ; y < HEIGHT ; y++ )
+        {
+            for ( int x = 0 ; x < WIDTH ; x++ )
+            {
+                final String cell = x + "," + y;
+                assertEquals( cell, reference.isWalkable( x, y ), mesh.isWalkable( x, y ) );
+                final int nodeId = GridNavMesh.toNodeID( x, y );
+                final int count = reference.getNeighbours( nodeId, expected );
+                assertEquals( cell, count, mesh.getNeighbours( nodeId, actual ) );
+                assertArrayEquals( cell, Arrays.copyOf( expected, count ), Arrays.copyOf( actual, count ) );
+                assertEquals( cell, referenceMask( reference, x, y ), mesh.getNeighbourMask( x, y ) );
+            }
+        }
+    }
+
+    // bit i set if the i-th neighbour (top-left, top, top-right, left, right, bottom-left, bottom, bottom-right) is walkable
+    private static int referenceMask(BooleanGridNavMesh reference, int x, int y)
+    {
+        int mask = 0;
+        for ( int i = 0 ; i < 8 ; i++ )
+        {
+            if ( reference.isWalkable( x + GridNavMesh.DX[i], y + GridNavMesh.DY[i] ) ) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,97 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DStarLiteTest
+{
+    private static final int STRAIGHT = GridNavMesh.STRAIGHT_COST;
+    private static final int DIAGONAL = GridNavMesh.DIAGONAL_COST;
+
+    @Test
+    public void testChangingGridsAgainstDijkstra()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        for ( int i = 0 ; i < 5 ; i++ ) {
+            checkChangingGrid( TestGrids.randomGrid( 100, 100, 0.25f, rnd ), 30, rnd );
+        }
+        checkChangingGrid( TestGrids.randomGrid( 130, 97, 0.45f, rnd ), 30, rnd );
+    }
+
+    @Test
+    public void testUnreachableGoal()
+    {
+        final BitGridNavMesh mesh = TestGrids.blockedGrid( 5, 5, 0,0, 1,1, 3,3, 4,4 );
+        final DStarLite planner = new DStarLite( mesh, GridNavMesh.toNodeID( 0, 0 ), GridNavMesh.toNodeID( 4, 4 ) );
+        mesh.addChangeListener( planner );
+        assertTrue( planner.findPath().isEmpty() );
+        assertEquals( -1, planner.getNextNode() );
+
+        mesh.setWalkable( 2, 2, true );
+        assertEquals( 5, planner.findPath().size() );
+        assertEquals( GridNavMesh.toNodeID( 1, 1 ), planner.getNextNode() );
+    }
+
+    @Test(timeout = 10_000)
+    public void testHugeChangeOutsideOfSearchIsCheap()
+    {
+        final Random rnd = new Random( 42 );
+        final BitGridNavMesh mesh = TestGrids.randomGrid( 100, 100, 0.2f, rnd );
+        final DStarLite planner = new DStarLite( mesh, TestGrids.randomWalkableCell( mesh, rnd ), TestGrids.randomWalkableCell( mesh, rnd ) );
+        checkAgainstDijkstra( mesh, planner );
+        // only cells next to the search state get recorded, not all 4 billion
+        planner.walkabilityChanged( mesh, 0, 0, 65535, 65535 );
+        checkAgainstDijkstra( mesh, planner );
+    }
+
+    private void checkChangingGrid(BitGridNavMesh mesh, int rounds, Random rnd)
+    {
+        final int goal = TestGrids.randomWalkableCell( mesh, rnd );
+        final DStarLite planner = new DStarLite( mesh, TestGrids.randomWalkableCell( mesh, rnd ), goal );
+        mesh.addChangeListener( planner );
+        for ( int round = 0 ; round < rounds ; round++ )
+        {
+            final List<Integer> path = checkAgainstDijkstra( mesh, planner );
+            // move along the path
+            if ( path.size() > 5 ) {
+                planner.setStart( path.get( 5 ) );
+            }
+            for ( int i = 0 ; i < 20 ; i++ ) {
+                mesh.setWalkable( rnd.nextInt( mesh.getWidth() ), rnd.nextInt( mesh.getHeight() ), rnd.nextFloat() >= 0.3f );
+            }
+            mesh.setWalkable( rnd.nextInt( mesh.getWidth() - 5 ), rnd.nextInt( mesh.getHeight() - 5 ), 5, 5, rnd.nextBoolean() );
+            setWalkable( mesh, planner.getStart() );
+            setWalkable( mesh, goal );
+        }
+        checkAgainstDijkstra( mesh, planner );
+        mesh.removeChangeListener( planner );
+    }
+
+    private static void setWalkable(BitGridNavMesh mesh, int nodeId) {
+        mesh.setWalkable( GridNavMesh.extractX( nodeId ), GridNavMesh.extractY( nodeId ), true );
+    }
+
+    private List<Integer> checkAgainstDijkstra(BitGridNavMesh mesh, DStarLite planner)
+    {
+        final int start = planner.getStart();
+        final int goal = planner.getGoal();
+        final List<Integer> path = planner.findPath();
+        if ( start == goal ) {
+            assertTrue( path.isEmpty() );
+            return path;
+        }
+        final int optimal = TestGrids.shortestPathCost( mesh, start, goal, STRAIGHT, DIAGONAL );
+        if ( optimal == TestGrids.NO_PATH ) {
+            assertTrue( "Found path although there is none: " + path, path.isEmpty() );
+        } else {
+            assertEquals( optimal, TestGrids.checkPath( mesh, path, start, goal, STRAIGHT, DIAGONAL ) );
+            assertEquals( (int) path.get( 1 ), planner.getNextNode() );
+        }
+        return path;
+    }
+}
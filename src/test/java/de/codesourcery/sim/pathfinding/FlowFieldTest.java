@@ -0,0 +1,85 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlowFieldTest
+{
+    private static final int STRAIGHT = GridNavMesh.STRAIGHT_COST;
+    private static final int DIAGONAL = GridNavMesh.DIAGONAL_COST;
+
+    @Test
+    public void testRandomGridsAgainstDijkstra()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        checkRandomQueries( TestGrids.randomGrid( 130, 97, 0.45f, rnd ), 5, 100, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 100, 100, 0.3f, rnd ), 5, 100, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 200, 150, 0.1f, rnd ), 3, 100, rnd );
+    }
+
+    @Test
+    public void testDestination()
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( 10, 10 );
+        final int destination = GridNavMesh.toNodeID( 3, 4 );
+        final FlowField field = FlowField.compute( mesh, destination );
+        assertEquals( destination, field.getDestination() );
+        assertEquals( 0, field.getDistance( destination ) );
+        assertEquals( -1, field.getNextNode( destination ) );
+        assertTrue( field.getPath( destination ).isEmpty() );
+        // outside of the grid
+        assertFalse( field.isReachable( GridNavMesh.toNodeID( 10, 4 ) ) );
+    }
+
+    @Test
+    public void testUnreachableCells()
+    {
+        final BitGridNavMesh mesh = TestGrids.blockedGrid( 5, 5, 0,0, 1,1, 3,3, 4,4 );
+        final FlowField field = FlowField.compute( mesh, GridNavMesh.toNodeID( 0, 0 ) );
+        assertEquals( DIAGONAL, field.getDistance( GridNavMesh.toNodeID( 1, 1 ) ) );
+        assertFalse( field.isReachable( GridNavMesh.toNodeID( 4, 4 ) ) );
+        assertEquals( -1, field.getNextNode( GridNavMesh.toNodeID( 4, 4 ) ) );
+        assertTrue( field.getPath( GridNavMesh.toNodeID( 4, 4 ) ).isEmpty() );
+        // blocked cell
+        assertFalse( field.isReachable( GridNavMesh.toNodeID( 2, 2 ) ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockedDestination() {
+        FlowField.compute( TestGrids.blockedGrid( 5, 5, 0,0 ), GridNavMesh.toNodeID( 2, 2 ) );
+    }
+
+    private void checkRandomQueries(BitGridNavMesh mesh, int destinations, int queries, Random rnd)
+    {
+        for ( int d = 0 ; d < destinations ; d++ )
+        {
+            final int destination = TestGrids.randomWalkableCell( mesh, rnd );
+            final FlowField field = FlowField.compute( mesh, destination );
+            for ( int i = 0 ; i < queries ; i++ )
+            {
+                final int start = TestGrids.randomWalkableCell( mesh, rnd );
+                if ( start == destination ) {
+                    continue;
+                }
+                final int optimal = TestGrids.shortestPathCost( mesh, start, destination, STRAIGHT, DIAGONAL );
+                final List<Integer> path = field.getPath( start );
+                if ( optimal == TestGrids.NO_PATH )
+                {
+                    assertFalse( field.isReachable( start ) );
+                    assertTrue( "Found path although there is none: " + path, path.isEmpty() );
+                }
+                else
+                {
+                    assertEquals( optimal, field.getDistance( start ) );
+                    assertEquals( optimal, TestGrids.checkPath( mesh, path, start, destination, STRAIGHT, DIAGONAL ) );
+                }
+            }
+        }
+    }
+}
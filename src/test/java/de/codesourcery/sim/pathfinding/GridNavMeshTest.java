@@ -0,0 +1,33 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class GridNavMeshTest
+{
+    @Test
+    public void testDenseIndices()
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( 7, 5 );
+        assertEquals( 35, mesh.getIndexCount() );
+        assertEquals( 0, mesh.toIndex( GridNavMesh.toNodeID( 0, 0 ) ) );
+        assertEquals( 6, mesh.toIndex( GridNavMesh.toNodeID( 6, 0 ) ) );
+        assertEquals( 7, mesh.toIndex( GridNavMesh.toNodeID( 0, 1 ) ) );
+        assertEquals( 34, mesh.toIndex( GridNavMesh.toNodeID( 6, 4 ) ) );
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNoDenseIndicesForUnknownSize()
+    {
+        final GridNavMesh mesh = new GridNavMesh()
+        {
+            @Override
+            public boolean isWalkable(int x, int y) {
+                return true;
+            }
+        };
+        assertEquals( 0, mesh.getIndexCount() );
+        mesh.toIndex( GridNavMesh.toNodeID( 3, 4 ) );
+    }
+}
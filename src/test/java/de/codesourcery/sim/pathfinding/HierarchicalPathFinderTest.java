@@ -0,0 +1,195 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalPathFinderTest
+{
+    private static final int STRAIGHT = GridNavMesh.STRAIGHT_COST;
+    private static final int DIAGONAL = GridNavMesh.DIAGONAL_COST;
+
+    private final AStar astar = new AStar();
+
+    @Test
+    public void testDiagonalStepAcrossClusterCorner()
+    {
+        final BitGridNavMesh mesh = TestGrids.blockedGrid( 8, 8, 2,3, 3,3, 4,4, 5,4 );
+        final int start = GridNavMesh.toNodeID( 2, 3 );
+        final int goal = GridNavMesh.toNodeID( 5, 4 );
+        assertEquals( 4, astar.findPath( start, goal, mesh, null ).size() );
+
+        final HierarchicalPathFinder hpa = new HierarchicalPathFinder( mesh, 8, 8, 4 );
+        final List<Integer> path = hpa.findPath( start, goal );
+        assertEquals( 4, path.size() );
+        TestGrids.checkPath( mesh, path, start, goal, STRAIGHT, DIAGONAL );
+        assertEquals( List.of( start, GridNavMesh.toNodeID( 3, 3 ), GridNavMesh.toNodeID( 4, 4 ), goal ),
+                      hpa.findWaypoints( start, goal ) );
+    }
+
+    @Test
+    public void testMirroredDiagonalStepAcrossClusterCorner()
+    {
+        final BitGridNavMesh mesh = TestGrids.blockedGrid( 8, 8, 5,3, 4,3, 3,4, 2,4 );
+        final int start = GridNavMesh.toNodeID( 5, 3 );
+        final int goal = GridNavMesh.toNodeID( 2, 4 );
+        assertEquals( 4, astar.findPath( start, goal, mesh, null ).size() );
+
+        final HierarchicalPathFinder hpa = new HierarchicalPathFinder( mesh, 8, 8, 4 );
+        TestGrids.checkPath( mesh, hpa.findPath( start, goal ), start, goal, STRAIGHT, DIAGONAL );
+        TestGrids.checkPath( mesh, hpa.findPath( goal, start ), goal, start, STRAIGHT, DIAGONAL );
+    }
+
+    @Test
+    public void testCornerEntranceFollowsChanges()
+    {
+        final BitGridNavMesh mesh = TestGrids.blockedGrid( 8, 8, 2,3, 3,3, 4,4, 5,4 );
+        final HierarchicalPathFinder hpa = new HierarchicalPathFinder( mesh, 8, 8, 4 );
+        mesh.addChangeListener( hpa );
+        final int start = GridNavMesh.toNodeID( 2, 3 );
+        final int goal = GridNavMesh.toNodeID( 5, 4 );
+
+        mesh.setWalkable( 4, 4, false );
+        assertTrue( hpa.findPath( start, goal ).isEmpty() );
+        mesh.setWalkable( 4, 4, true );
+        assertEquals( 4, hpa.findPath( start, goal ).size() );
+        // step now also possible through the borders
+        mesh.setWalkable( 4, 3, true );
+        TestGrids.checkPath( mesh, hpa.findPath( start, goal ), start, goal, STRAIGHT, DIAGONAL );
+    }
+
+    @Test
+    public void testChangesToOtherMeshesAreIgnored()
+    {
+        final int[] lookups = { 0 };
+        final BitGridNavMesh mesh = new BitGridNavMesh( 16, 16 )
+        {
+            @Override
+            public boolean isWalkable(int x, int y)
+            {
+                lookups[0]++;
+                return super.isWalkable( x, y );
+            }
+        };
+        final BitGridNavMesh other = new BitGridNavMesh( 16, 16 );
+        final HierarchicalPathFinder hpa = new HierarchicalPathFinder( mesh, 16, 16, 4 );
+        mesh.addChangeListener( hpa );
+        other.addChangeListener( hpa );
+        final int start = GridNavMesh.toNodeID( 0, 0 );
+        final int goal = GridNavMesh.toNodeID( 15, 15 );
+
+        hpa.findPath( start, goal );
+        lookups[0] = 0;
+        hpa.findPath( start, goal );
+        final int lookupsWithoutRebuild = lookups[0];
+
+        other.setWalkable( 0, 0, 16, 16, false );
+        lookups[0] = 0;
+        final List<Integer> path = hpa.findPath( start, goal );
+        assertEquals( lookupsWithoutRebuild, lookups[0] );
+        TestGrids.checkPath( mesh, path, start, goal, STRAIGHT, DIAGONAL );
+    }
+
+    @Test
+    public void testRandomGridsAgainstAStar()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        checkRandomQueries( TestGrids.randomGrid( 130, 97, 0.45f, rnd ), 8, 300, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 100, 100, 0.3f, rnd ), 8, 300, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 200, 150, 0.2f, rnd ), 16, 200, rnd );
+    }
+
+    @Test
+    public void testSecondLevelAgainstAStar()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        // the second level keeps a single entrance per border, which takes detours through mazes like the first grid
+        checkRandomQueries( TestGrids.randomGrid( 130, 97, 0.45f, rnd ), 4, 2, 300, 2.0, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 200, 150, 0.2f, rnd ), 8, 2, 300, 1.5, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 256, 256, 0.1f, rnd ), 8, 4, 200, 1.5, rnd );
+    }
+
+    @Test
+    public void testIncrementalRebuildMatchesFreshInstance() {
+        checkIncrementalRebuild( HierarchicalPathFinder.DEFAULT_SUPER_CLUSTER_SIZE );
+    }
+
+    @Test
+    public void testIncrementalRebuildOfSecondLevelMatchesFreshInstance() {
+        checkIncrementalRebuild( 2 );
+    }
+
+    private void checkIncrementalRebuild(int superClusterSize)
+    {
+        final Random rnd = new Random( 42 );
+        final BitGridNavMesh mesh = TestGrids.randomGrid( 120, 90, 0.3f, rnd );
+        final HierarchicalPathFinder hpa = new HierarchicalPathFinder( mesh, 120, 90, 8, superClusterSize );
+        mesh.addChangeListener( hpa );
+        for ( int round = 0 ; round < 20 ; round++ )
+        {
+            for ( int i = 0 ; i < 30 ; i++ ) {
+                mesh.setWalkable( rnd.nextInt( 120 ), rnd.nextInt( 90 ), rnd.nextFloat() >= 0.3f );
+            }
+            mesh.setWalkable( rnd.nextInt( 110 ), rnd.nextInt( 80 ), 10, 10, rnd.nextBoolean() );
+
+            final HierarchicalPathFinder fresh = new HierarchicalPathFinder( mesh, 120, 90, 8, superClusterSize );
+            for ( int i = 0 ; i < 20 ; i++ )
+            {
+                final int start = TestGrids.randomWalkableCell( mesh, rnd );
+                final int goal = TestGrids.randomWalkableCell( mesh, rnd );
+                if ( start != goal )
+                {
+                    final List<Integer> path = hpa.findPath( start, goal );
+                    final List<Integer> expected = fresh.findPath( start, goal );
+                    assertEquals( expected.isEmpty(), path.isEmpty() );
+                    if ( ! path.isEmpty() ) {
+                        assertEquals( TestGrids.checkPath( mesh, expected, start, goal, STRAIGHT, DIAGONAL ),
+                                      TestGrids.checkPath( mesh, path, start, goal, STRAIGHT, DIAGONAL ) );
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkRandomQueries(BitGridNavMesh mesh, int clusterSize, int queries, Random rnd) {
+        // HPA* paths are near-optimal only
+        checkRandomQueries( mesh, clusterSize, HierarchicalPathFinder.DEFAULT_SUPER_CLUSTER_SIZE, queries, 1.5, rnd );
+    }
+
+    private void checkRandomQueries(BitGridNavMesh mesh, int clusterSize, int superClusterSize, int queries,
+                                    double maxCostRatio, Random rnd)
+    {
+        final HierarchicalPathFinder hpa = new HierarchicalPathFinder( mesh, mesh.getWidth(), mesh.getHeight(), clusterSize, superClusterSize );
+        for ( int i = 0 ; i < queries ; i++ )
+        {
+            final int start = TestGrids.randomWalkableCell( mesh, rnd );
+            final int goal = TestGrids.randomWalkableCell( mesh, rnd );
+            if ( start == goal ) {
+                continue;
+            }
+            final boolean reachable = ! astar.findPath( start, goal, mesh, null ).isEmpty();
+            final List<Integer> path = hpa.findPath( start, goal );
+            assertEquals( "Reachability differs from A* for " + cell( start ) + " -> " + cell( goal ), reachable, ! path.isEmpty() );
+            assertEquals( reachable, ! hpa.findWaypoints( start, goal ).isEmpty() );
+            if ( reachable )
+            {
+                final int cost = TestGrids.checkPath( mesh, path, start, goal, STRAIGHT, DIAGONAL );
+                final int optimal = TestGrids.shortestPathCost( mesh, start, goal, STRAIGHT, DIAGONAL );
+                assertTrue( cost >= optimal );
+                assertTrue( "Path cost " + cost + " vs. optimal " + optimal, cost <= optimal * maxCostRatio );
+            }
+            else {
+                assertFalse( TestGrids.shortestPathCost( mesh, start, goal, STRAIGHT, DIAGONAL ) != TestGrids.NO_PATH );
+            }
+        }
+    }
+
+    private static String cell(int nodeId) {
+        return GridNavMesh.extractX( nodeId ) + "," + GridNavMesh.extractY( nodeId );
+    }
+}
@@ -0,0 +1,98 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JumpPointSearchTest
+{
+    private static final int STRAIGHT = GridNavMesh.STRAIGHT_COST;
+    private static final int DIAGONAL = GridNavMesh.DIAGONAL_COST;
+
+    private final JumpPointSearch jps = new JumpPointSearch();
+
+    @Test
+    public void testRandomGridsAgainstDijkstra()
+    {
+        final Random rnd = new Random( 0xdeadbeefL );
+        checkRandomQueries( TestGrids.randomGrid( 130, 97, 0.45f, rnd ), 300, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 100, 100, 0.3f, rnd ), 300, rnd );
+        checkRandomQueries( TestGrids.randomGrid( 200, 150, 0.1f, rnd ), 200, rnd );
+    }
+
+    @Test
+    public void testGridOfUnknownSize()
+    {
+        // no dense indices, search state is kept in the hash map
+        final Random rnd = new Random( 42 );
+        final BitGridNavMesh grid = TestGrids.randomGrid( 80, 60, 0.3f, rnd );
+        final GridNavMesh mesh = new GridNavMesh()
+        {
+            @Override
+            public boolean isWalkable(int x, int y) {
+                return grid.isWalkable( x, y );
+            }
+        };
+        for ( int i = 0 ; i < 200 ; i++ )
+        {
+            final int start = TestGrids.randomWalkableCell( grid, rnd );
+            final int goal = TestGrids.randomWalkableCell( grid, rnd );
+            if ( start != goal )
+            {
+                final int optimal = TestGrids.shortestPathCost( grid, start, goal, STRAIGHT, DIAGONAL );
+                final List<Integer> path = jps.findPath( start, goal, mesh, null );
+                if ( optimal == TestGrids.NO_PATH ) {
+                    assertTrue( path.isEmpty() );
+                } else {
+                    assertEquals( optimal, TestGrids.checkPath( grid, path, start, goal, STRAIGHT, DIAGONAL ) );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGridsOfDifferentSizes()
+    {
+        // search state of the larger grid must not leak into searches on the smaller one and vice versa
+        final Random rnd = new Random( 7 );
+        final BitGridNavMesh small = TestGrids.randomGrid( 40, 30, 0.3f, rnd );
+        final BitGridNavMesh large = TestGrids.randomGrid( 150, 120, 0.3f, rnd );
+        for ( int i = 0 ; i < 20 ; i++ )
+        {
+            checkRandomQueries( small, 5, rnd );
+            checkRandomQueries( large, 5, rnd );
+        }
+    }
+
+    @Test
+    public void testUnreachableGoal()
+    {
+        final BitGridNavMesh mesh = TestGrids.blockedGrid( 5, 5, 0,0, 1,1, 3,3, 4,4 );
+        assertTrue( jps.findPath( GridNavMesh.toNodeID( 0, 0 ), GridNavMesh.toNodeID( 4, 4 ), mesh, null ).isEmpty() );
+        // blocked goal
+        assertTrue( jps.findPath( GridNavMesh.toNodeID( 0, 0 ), GridNavMesh.toNodeID( 2, 2 ), mesh, null ).isEmpty() );
+    }
+
+    private void checkRandomQueries(BitGridNavMesh mesh, int queries, Random rnd)
+    {
+        for ( int i = 0 ; i < queries ; i++ )
+        {
+            final int start = TestGrids.randomWalkableCell( mesh, rnd );
+            final int goal = TestGrids.randomWalkableCell( mesh, rnd );
+            if ( start == goal ) {
+                continue;
+            }
+            final int optimal = TestGrids.shortestPathCost( mesh, start, goal, STRAIGHT, DIAGONAL );
+            final List<Integer> path = jps.findPath( start, goal, mesh, null );
+            if ( optimal == TestGrids.NO_PATH ) {
+                assertTrue( "Found path although there is none: " + path, path.isEmpty() );
+            } else {
+                assertEquals( optimal, TestGrids.checkPath( mesh, path, start, goal, STRAIGHT, DIAGONAL ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedGridNavMeshTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndOpen() throws IOException
+    {
+        final BitGridNavMesh expected = TestGrids.randomGrid( 70, 130, 0.3f, new Random( 42 ) );
+        final Path file = folder.newFile().toPath();
+        MappedGridNavMesh.write( expected, file );
+
+        final MappedGridNavMesh mesh = MappedGridNavMesh.open( file );
+        assertEquals( 70, mesh.getWidth() );
+        assertEquals( 130, mesh.getHeight() );
+        for ( int y = 0 ; y < 130 ; y++ )
+        {
+            for ( int x = 0 ; x < 70 ; x++ )
+            {
+                assertEquals( expected.isWalkable( x, y ), mesh.isWalkable( x, y ) );
+                assertEquals( expected.getNeighbourMask( x, y ), mesh.getNeighbourMask( x, y ) );
+            }
+        }
+    }
+
+    @Test
+    public void testWalkablePaddingColumnIsRejected() throws IOException
+    {
+        // 70x70 map, column 70 of row 5 is bit 6 of the first word in the second tile
+        checkRejected( 70, 70, 64 + 5, 6 );
+    }
+
+    @Test
+    public void testWalkablePaddingRowIsRejected() throws IOException
+    {
+        // 64x70 map has no padding columns, row 70 is the 7th word in the second tile
+        checkRejected( 64, 70, 64 + 6, 0 );
+    }
+
+    private void checkRejected(int width, int height, int wordIndex, int bit) throws IOException
+    {
+        final Path file = folder.newFile().toPath();
+        MappedGridNavMesh.write( new BitGridNavMesh( width, height ), file );
+
+        final long offset = MappedGridNavMesh.HEADER_SIZE + 8L * wordIndex;
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+        {
+            final ByteBuffer word = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+            channel.read( word, offset );
+            assertTrue( "Padding cell not blocked", ( word.getLong( 0 ) & 1L << bit ) != 0 );
+            word.putLong( 0, word.getLong( 0 ) & ~( 1L << bit ) ).clear();
+            channel.write( word, offset );
+        }
+        try {
+            MappedGridNavMesh.open( file );
+            fail( "Should have failed" );
+        }
+        catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PathCacheTest
+{
+    @Test
+    public void testLeastRecentlyUsedPathGetsEvicted()
+    {
+        final PathCache cache = new PathCache( 2 );
+        cache.put( 1, 2, List.of( 1, 2 ) );
+        cache.put( 3, 4, List.of( 3, 4 ) );
+        // promotes 1 -> 2
+        assertNotNull( cache.get( 1, 2 ) );
+        cache.put( 5, 6, List.of( 5, 6 ) );
+
+        assertEquals( 2, cache.size() );
+        assertEquals( 1, cache.getEvictions() );
+        assertNull( cache.get( 3, 4 ) );
+        assertEquals( List.of( 1, 2 ), cache.get( 1, 2 ) );
+        assertEquals( List.of( 5, 6 ), cache.get( 5, 6 ) );
+
+        cache.put( 7, 8, List.of( 7, 8 ) );
+        assertEquals( 2, cache.getEvictions() );
+        assertNull( cache.get( 1, 2 ) );
+        // evicted paths must not be invalidated later on
+        cache.invalidate( 1 );
+        assertEquals( 0, cache.getInvalidations() );
+    }
+
+    @Test
+    public void testStatistics()
+    {
+        final PathCache cache = new PathCache( 1 );
+        assertEquals( 0, cache.getHitRate(), 0 );
+        assertNull( cache.get( 1, 2 ) );
+        cache.put( 1, 2, List.of( 1, 3, 2 ) );
+        assertNotNull( cache.get( 1, 2 ) );
+        assertNotNull( cache.get( 1, 2 ) );
+        cache.put( 4, 5, List.of( 4, 5 ) );
+        cache.invalidate( 5 );
+
+        assertEquals( 2, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 1, cache.getEvictions() );
+        assertEquals( 1, cache.getInvalidations() );
+        assertEquals( 2 / 3f, cache.getHitRate(), 0.0001f );
+
+        cache.resetStatistics();
+        assertEquals( 0, cache.getHits() );
+        assertEquals( 0, cache.getMisses() );
+        assertEquals( 0, cache.getEvictions() );
+        assertEquals( 0, cache.getInvalidations() );
+    }
+
+    @Test
+    public void testInvalidateRemovesOnlyPathsThroughNode()
+    {
+        final PathCache cache = new PathCache( 10 );
+        cache.put( 1, 2, List.of( 1, 10, 2 ) );
+        cache.put( 3, 4, List.of( 3, 10, 11, 4 ) );
+        cache.put( 5, 6, List.of( 5, 11, 6 ) );
+        cache.put( 7, 8, List.of( 7, 8 ) );
+
+        cache.invalidate( 10 );
+        assertEquals( 2, cache.getInvalidations() );
+        assertEquals( 2, cache.size() );
+        assertNull( cache.get( 1, 2 ) );
+        assertNull( cache.get( 3, 4 ) );
+        assertNotNull( cache.get( 5, 6 ) );
+        assertNotNull( cache.get( 7, 8 ) );
+
+        // start and destination are part of the path as well
+        cache.invalidate( 8 );
+        assertNull( cache.get( 7, 8 ) );
+        cache.invalidate( 12 );
+        assertEquals( 3, cache.getInvalidations() );
+        assertNotNull( cache.get( 5, 6 ) );
+    }
+
+    @Test
+    public void testEmptyPathsAreNotCached()
+    {
+        final PathCache cache = new PathCache( 10 );
+        cache.put( 1, 2, Collections.emptyList() );
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( 1, 2 ) );
+    }
+
+    @Test
+    public void testReplacingPath()
+    {
+        final PathCache cache = new PathCache( 2 );
+        cache.put( 1, 2, List.of( 1, 10, 2 ) );
+        cache.put( 1, 2, List.of( 1, 11, 2 ) );
+        assertEquals( 1, cache.size() );
+        assertEquals( 0, cache.getEvictions() );
+        assertEquals( List.of( 1, 11, 2 ), cache.get( 1, 2 ) );
+
+        // node of the replaced path no longer refers to the key
+        cache.invalidate( 10 );
+        assertEquals( 0, cache.getInvalidations() );
+        assertEquals( List.of( 1, 11, 2 ), cache.get( 1, 2 ) );
+        cache.invalidate( 11 );
+        assertEquals( 1, cache.getInvalidations() );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testFindPath()
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( 10, 10 );
+        final PathCache cache = new PathCache( 10 );
+        final int start = GridNavMesh.toNodeID( 0, 0 );
+        final int goal = GridNavMesh.toNodeID( 9, 9 );
+        final List<Integer> path = cache.findPath( start, goal, mesh, new AStar() );
+        assertFalse( path.isEmpty() );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( path, cache.findPath( start, goal, mesh, new AStar() ) );
+        assertEquals( 1, cache.getHits() );
+    }
+
+    @Test
+    public void testPathIsDroppedWhenNodesGetInvalidatedDuringSearch()
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( 10, 10 );
+        final PathCache cache = new PathCache( 10 );
+        mesh.addChangeListener( cache );
+        final AStar astar = new AStar()
+        {
+            @Override
+            public List<Integer> findPath(int startNodeExtId, int dstNodeExtID, NavMesh navMesh, Spy spy)
+            {
+                final List<Integer> result = super.findPath( startNodeExtId, dstNodeExtID, navMesh, spy );
+                // blocks a cell of the path found before it got cached
+                mesh.setWalkable( 5, 5, false );
+                return result;
+            }
+        };
+        final int start = GridNavMesh.toNodeID( 0, 0 );
+        final int goal = GridNavMesh.toNodeID( 9, 9 );
+        assertTrue( cache.findPath( start, goal, mesh, astar ).contains( GridNavMesh.toNodeID( 5, 5 ) ) );
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( start, goal ) );
+
+        // outdated epoch
+        final long epoch = cache.getEpoch();
+        cache.invalidate( 42 );
+        cache.put( start, goal, List.of( start, goal ), epoch );
+        assertEquals( 0, cache.size() );
+        cache.put( start, goal, List.of( start, goal ), cache.getEpoch() );
+        assertEquals( 1, cache.size() );
+    }
+
+    @Test
+    public void testWalkabilityChangeEvictsPathsCrossingRectangle()
+    {
+        final Random rnd = new Random( 42 );
+        // small rectangles get walked cell by cell, large ones by looking at the cached nodes
+        for ( int size : new int[] { 1, 3, 10, 500, 3000 } )
+        {
+            for ( int round = 0 ; round < 20 ; round++ )
+            {
+                final PathCache cache = new PathCache( 100 );
+                final List<List<Integer>> paths = new ArrayList<>();
+                for ( int i = 0 ; i < 50 ; i++ )
+                {
+                    final List<Integer> path = new ArrayList<>();
+                    int x = rnd.nextInt( 2970 );
+                    int y = rnd.nextInt( 3000 );
+                    for ( int len = 2 + rnd.nextInt( 30 ) ; path.size() < len ; )
+                    {
+                        path.add( GridNavMesh.toNodeID( x, y ) );
+                        // paths never visit a node twice
+                        x++;
+                        y = Math.max( 0, y + rnd.nextInt( 3 ) - 1 );
+                    }
+                    paths.add( path );
+                    cache.put( i, i, path );
+                }
+                final int x = rnd.nextInt( 3000 - size + 1 );
+                final int y = rnd.nextInt( 3000 - size + 1 );
+                final long epoch = cache.getEpoch();
+                cache.walkabilityChanged( null, x, y, size, size );
+                assertTrue( cache.getEpoch() != epoch );
+
+                int crossing = 0;
+                for ( int i = 0 ; i < paths.size() ; i++ )
+                {
+                    final boolean crosses = paths.get( i ).stream().anyMatch( node ->
+                        GridNavMesh.extractX( node ) >= x && GridNavMesh.extractX( node ) < x + size &&
+                        GridNavMesh.extractY( node ) >= y && GridNavMesh.extractY( node ) < y + size );
+                    if ( crosses ) {
+                        crossing++;
+                        assertNull( cache.get( i, i ) );
+                    } else {
+                        assertEquals( paths.get( i ), cache.get( i, i ) );
+                    }
+                }
+                assertEquals( crossing, cache.getInvalidations() );
+            }
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testFullMapChangeIsCheap()
+    {
+        final PathCache cache = new PathCache( 10 );
+        cache.put( 1, 2, List.of( GridNavMesh.toNodeID( 0, 0 ), GridNavMesh.toNodeID( 1, 1 ) ) );
+        cache.put( 3, 4, List.of( GridNavMesh.toNodeID( 65535, 65535 ) ) );
+        // 4 billion cells, only the 3 cached nodes need to be looked at
+        cache.walkabilityChanged( null, 1, 1, 65535, 65535 );
+        assertNull( cache.get( 1, 2 ) );
+        assertNull( cache.get( 3, 4 ) );
+        assertEquals( 2, cache.getInvalidations() );
+    }
+}
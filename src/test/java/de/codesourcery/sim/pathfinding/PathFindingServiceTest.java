@@ -0,0 +1,44 @@
+package de.codesourcery.sim.pathfinding;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PathFindingServiceTest
+{
+    @Test
+    public void testErrorCompletesFuture() throws Exception
+    {
+        final GridNavMesh mesh = new GridNavMesh( 10, 10 )
+        {
+            @Override
+            public boolean isWalkable(int x, int y) {
+                throw new StackOverflowError( "simulated" );
+            }
+        };
+        try ( PathFindingService service = new PathFindingService( mesh, 1 ) )
+        {
+            checkFailed( service.findPath( GridNavMesh.toNodeID( 0, 0 ), GridNavMesh.toNodeID( 9, 9 ) ) );
+            for ( CompletableFuture<List<Integer>> future : service.findPaths( new int[] { 0, 1 }, new int[] { 2, 3 } ) ) {
+                checkFailed( future );
+            }
+        }
+    }
+
+    private static void checkFailed(CompletableFuture<List<Integer>> future) throws Exception
+    {
+        try {
+            future.get( 10, TimeUnit.SECONDS );
+            fail( "Search should have failed" );
+        }
+        catch (ExecutionException e) {
+            assertTrue( e.getCause() instanceof StackOverflowError );
+        }
+    }
+}
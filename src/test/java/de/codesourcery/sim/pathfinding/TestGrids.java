@@ -0,0 +1,169 @@
+package de.codesourcery.sim.pathfinding;
+
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Grids and reference searches shared by the path finder tests.
+ */
+final class TestGrids
+{
+    public static final int NO_PATH = -1;
+
+    private TestGrids() {
+    }
+
+    /**
+     * Creates a grid with randomly blocked cells.
+     *
+     * @param width
+     * @param height
+     * @param density probability of each cell being blocked
+     * @param rnd
+     * @return grid
+     */
+    public static BitGridNavMesh randomGrid(int width, int height, float density, Random rnd)
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( width, height );
+        for ( int y = 0 ; y < height ; y++ )
+        {
+            for ( int x = 0 ; x < width ; x++ )
+            {
+                if ( rnd.nextFloat() < density ) {
+                    mesh.setWalkable( x, y, false );
+                }
+            }
+        }
+        return mesh;
+    }
+
+    /**
+     * Creates a grid where only the given cells are walkable.
+     *
+     * @param width
+     * @param height
+     * @param walkableCells x/y coordinates of walkable cells
+     * @return grid
+     */
+    public static BitGridNavMesh blockedGrid(int width, int height, int... walkableCells)
+    {
+        final BitGridNavMesh mesh = new BitGridNavMesh( width, height );
+        mesh.setWalkable( 0, 0, width, height, false );
+        for ( int i = 0 ; i < walkableCells.length ; i += 2 ) {
+            mesh.setWalkable( walkableCells[i], walkableCells[i+1], true );
+        }
+        return mesh;
+    }
+
+    public static int randomWalkableCell(GridNavMesh mesh, Random rnd)
+    {
+        while ( true )
+        {
+            final int x = rnd.nextInt( mesh.getWidth() );
+            final int y = rnd.nextInt( mesh.getHeight() );
+            if ( mesh.isWalkable( x, y ) ) {
+                return GridNavMesh.toNodeID( x, y );
+            }
+        }
+    }
+
+    /**
+     * Dijkstra over all 8 neighbours of each cell.
+     *
+     * @param mesh
+     * @param start
+     * @param goal
+     * @param straightCost
+     * @param diagonalCost
+     * @return cost of the shortest path or {@link #NO_PATH}
+     */
+    public static int shortestPathCost(GridNavMesh mesh, int start, int goal, int straightCost, int diagonalCost)
+    {
+        final int width = mesh.getWidth();
+        final int height = mesh.getHeight();
+        final int[] cost = new int[ width * height ];
+        Arrays.fill( cost, Integer.MAX_VALUE );
+        final int startIdx = GridNavMesh.extractY( start ) * width + GridNavMesh.extractX( start );
+        final int goalIdx = GridNavMesh.extractY( goal ) * width + GridNavMesh.extractX( goal );
+        final LongHeapPriorityQueue queue = new LongHeapPriorityQueue();
+        cost[ startIdx ] = 0;
+        queue.enqueue( startIdx );
+        while ( ! queue.isEmpty() )
+        {
+            final long entry = queue.dequeueLong();
+            final int idx = (int) entry;
+            final int c = (int) ( entry >>> 32 );
+            if ( c != cost[ idx ] ) {
+                continue;
+            }
+            if ( idx == goalIdx ) {
+                return c;
+            }
+            final int x = idx % width;
+            final int y = idx / width;
+            for ( int dy = -1 ; dy <= 1 ; dy++ )
+            {
+                for ( int dx = -1 ; dx <= 1 ; dx++ )
+                {
+                    final int nx = x + dx;
+                    final int ny = y + dy;
+                    if ( ( dx != 0 || dy != 0 ) && nx >= 0 && ny >= 0 && nx < width && ny < height && mesh.isWalkable( nx, ny ) )
+                    {
+                        final int newCost = c + ( dx != 0 && dy != 0 ? diagonalCost : straightCost );
+                        final int n = ny * width + nx;
+                        if ( newCost < cost[ n ] )
+                        {
+                            cost[ n ] = newCost;
+                            queue.enqueue( (long) newCost << 32 | n );
+                        }
+                    }
+                }
+            }
+        }
+        return NO_PATH;
+    }
+
+    /**
+     * Checks that a path connects start and goal through neighbouring walkable cells.
+     *
+     * @param mesh
+     * @param path
+     * @param start
+     * @param goal
+     * @param straightCost
+     * @param diagonalCost
+     * @return cost of the path
+     */
+    public static int checkPath(GridNavMesh mesh, List<Integer> path, int start, int goal, int straightCost, int diagonalCost)
+    {
+        assertTrue( "Path too short: " + path, path.size() >= 2 );
+        assertEquals( "Path does not begin at start", start, (int) path.get( 0 ) );
+        assertEquals( "Path does not end at goal", goal, (int) path.get( path.size() - 1 ) );
+        int cost = 0;
+        for ( int i = 0 ; i < path.size() ; i++ )
+        {
+            final int x = GridNavMesh.extractX( path.get( i ) );
+            final int y = GridNavMesh.extractY( path.get( i ) );
+            if ( ! mesh.isWalkable( x, y ) ) {
+                fail( "Path crosses blocked cell " + x + "," + y );
+            }
+            if ( i > 0 )
+            {
+                final int dx = Math.abs( x - GridNavMesh.extractX( path.get( i - 1 ) ) );
+                final int dy = Math.abs( y - GridNavMesh.extractY( path.get( i - 1 ) ) );
+                if ( dx > 1 || dy > 1 || dx + dy == 0 ) {
+                    fail( "Cells " + ( i - 1 ) + " and " + i + " of path are no neighbours: " + path );
+                }
+                cost += dx + dy == 2 ? diagonalCost : straightCost;
+            }
+        }
+        return cost;
+    }
+}